@@ -0,0 +1,46 @@
+package com.cl.pic;
+
+import android.os.Debug;
+
+/**
+ * {@link Debug}'s per-thread allocation counter, switched on only while a
+ * measurement is in progress.
+ *
+ * Counting is process-wide and slows every allocation, so it is started by
+ * the first {@link #begin} and stopped by the matching last {@link #end};
+ * measurements may nest. Main thread only.
+ */
+final class AllocCounter {
+
+    private static int depth;
+
+    private AllocCounter() {
+    }
+
+    /**
+     * Start measuring.
+     *
+     * @return the current reading, to subtract from a later {@link #read}
+     */
+    @SuppressWarnings("deprecation")
+    static int begin() {
+        if (depth++ == 0) {
+            Debug.startAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+
+    /** Objects this thread has allocated while counting was on. */
+    @SuppressWarnings("deprecation")
+    static int read() {
+        return Debug.getThreadAllocCount();
+    }
+
+    /** Stop measuring; one call per {@link #begin}. */
+    @SuppressWarnings("deprecation")
+    static void end() {
+        if (depth > 0 && --depth == 0) {
+            Debug.stopAllocCounting();
+        }
+    }
+}
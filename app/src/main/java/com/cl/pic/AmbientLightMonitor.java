@@ -0,0 +1,75 @@
+package com.cl.pic;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+/**
+ * Watches the ambient light sensor and reports day/night changes through a
+ * {@link LuxFilter}.
+ *
+ * Uses the non-wake-up light sensor at a low rate with a report latency, so
+ * the sensor hub batches readings in its FIFO and the application processor
+ * only wakes for a batch every few seconds, and never from suspend. A tunnel
+ * therefore takes a few seconds to register, which the filter needs anyway.
+ *
+ * Main thread.
+ */
+class AmbientLightMonitor implements SensorEventListener {
+
+    interface Listener {
+        void onDarkChanged(boolean dark);
+    }
+
+    private static final int SAMPLING_PERIOD_US = 1_000_000;
+    private static final int MAX_REPORT_LATENCY_US = 5_000_000;
+
+    // Dusk and lit tunnels sit well under 100 lux; daylight, even overcast, far above
+    private static final float DARK_LUX = 30f;
+    private static final float BRIGHT_LUX = 150f;
+    private static final long TIME_CONSTANT_MS = 3_000;
+    private static final long MIN_DWELL_MS = 15_000;
+
+    private final SensorManager sensorManager;
+    private final Sensor sensor;
+    private final Listener listener;
+    private final LuxFilter filter = new LuxFilter(DARK_LUX, BRIGHT_LUX, TIME_CONSTANT_MS, MIN_DWELL_MS);
+    private boolean running;
+
+    AmbientLightMonitor(Context context, Listener listener) {
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.sensor = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT, false) : null;
+        this.listener = listener;
+    }
+
+    boolean isAvailable() {
+        return sensor != null;
+    }
+
+    /** The first reading after starting decides right away, e.g. at ignition after dark. */
+    void start() {
+        if (running || sensor == null) return;
+        filter.reset();
+        running = sensorManager.registerListener(this, sensor, SAMPLING_PERIOD_US, MAX_REPORT_LATENCY_US);
+    }
+
+    void stop() {
+        if (!running) return;
+        running = false;
+        sensorManager.unregisterListener(this);
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // Batched events keep the time they were measured, not delivered
+        if (filter.update(event.timestamp / 1_000_000L, event.values[0])) {
+            listener.onDarkChanged(filter.isDark());
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+}
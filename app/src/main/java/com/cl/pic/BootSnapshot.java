@@ -0,0 +1,164 @@
+package com.cl.pic;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The last displayed frame, kept as raw screen-sized RGB_565 so a cold start
+ * can put it on screen before anything else is loaded.
+ *
+ * The frame is rendered with the pan/zoom matrix already applied, so showing
+ * it is a memory-mapped read, one pixel copy and an identity draw: no decode,
+ * no Glide, no history. The real image then loads behind it as usual.
+ *
+ * File layout: a 20-byte header (magic, version, width, height, pixel byte
+ * count) followed by the pixels. Writes go to a temporary file that replaces
+ * the old one, so a launch never sees a half-written frame.
+ */
+class BootSnapshot {
+
+    private static final String TAG = "CarPicViewer";
+    private static final int MAGIC = 0x436c4273; // "ClBs"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+
+    private final File file;
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    // What the file holds, to skip rewriting an unchanged frame
+    private volatile String savedKey;
+    private final Matrix savedMatrix = new Matrix();
+
+    BootSnapshot(File file) {
+        this.file = file;
+    }
+
+    /** Main thread. The saved frame if it was taken at this screen size, else null. */
+    Bitmap load(int width, int height) {
+        if (!file.exists()) return null;
+        Trace.beginSection("BootSnapshot.load");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE) return null;
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) return null;
+            int w = mapped.getInt();
+            int h = mapped.getInt();
+            int byteCount = mapped.getInt();
+            // Taken on another display or orientation; not worth scaling
+            if (w != width || h != height) return null;
+
+            Bitmap frame = Bitmap.createBitmap(w, h, Bitmap.Config.RGB_565);
+            if (byteCount != frame.getByteCount() || mapped.remaining() < byteCount) {
+                frame.recycle();
+                return null;
+            }
+            frame.copyPixelsFromBuffer(mapped);
+            return frame;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Boot snapshot unreadable: " + e);
+            return null;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Main thread. Render {@code source} through {@code matrix} into a
+     * screen-sized frame and write it in the background. {@code key}
+     * identifies the image; an unchanged key and matrix is not written again.
+     */
+    void save(String key, Bitmap source, Matrix matrix, int width, int height) {
+        if (width <= 0 || height <= 0 || source.isRecycled()) return;
+        if (key.equals(savedKey) && matrix.equals(savedMatrix)) return;
+
+        Bitmap frame;
+        Trace.beginSection("BootSnapshot.render");
+        try {
+            frame = render(source, matrix, width, height);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            Log.w(TAG, "Boot snapshot not rendered: " + e);
+            return;
+        } finally {
+            Trace.endSection();
+        }
+        savedKey = key;
+        savedMatrix.set(matrix);
+        writeExecutor.execute(() -> {
+            if (!write(frame)) {
+                // Try again next time
+                savedKey = null;
+            }
+            frame.recycle();
+        });
+    }
+
+    /** Finish a pending write, then stop. */
+    void release() {
+        writeExecutor.shutdown();
+    }
+
+    private Bitmap render(Bitmap source, Matrix matrix, int width, int height) {
+        Bitmap drawable = source;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && source.getConfig() == Bitmap.Config.HARDWARE) {
+            // Software canvas can't read graphics memory; copy back once
+            drawable = source.copy(Bitmap.Config.ARGB_8888, false);
+        }
+        Bitmap frame = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(frame);
+        canvas.drawColor(Color.BLACK);
+        canvas.drawBitmap(drawable, matrix, paint);
+        if (drawable != source) {
+            drawable.recycle();
+        }
+        return frame;
+    }
+
+    /** Write thread. */
+    private boolean write(Bitmap frame) {
+        File tmp = new File(file.getPath() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + frame.getByteCount());
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(frame.getWidth())
+                .putInt(frame.getHeight())
+                .putInt(frame.getByteCount());
+        frame.copyPixelsToBuffer(buffer);
+        buffer.flip();
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            Log.w(TAG, "Boot snapshot not saved: " + e);
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "Boot snapshot not saved: rename failed");
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+package com.cl.pic;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.Window;
+import android.view.WindowManager;
+
+/**
+ * Maps a 0–1 brightness level onto the window's screen brightness and the
+ * renderer's dim, with as few WindowManager round-trips as possible.
+ *
+ * The lower half of the range keeps the backlight at its minimum and fades in
+ * black over the image; the upper half raises the backlight with no dim. Both
+ * curves are precomputed into a table, and the backlight value is quantized
+ * to the 1/255 steps a panel can actually show. Requests are coalesced to one
+ * per vsync, and {@link Window#setAttributes} - a binder call plus a window
+ * relayout - is only issued when the quantized backlight step changes, so
+ * drags and animations through the dim half never touch WindowManager.
+ *
+ * Main thread only.
+ */
+class BrightnessController implements Choreographer.FrameCallback {
+
+    private static final int LEVELS = 1024;
+    private static final int BACKLIGHT_STEPS = 255;
+    private static final float MIN_BACKLIGHT = 0.01f;
+    private static final long ANIMATION_NANOS = 300_000_000L;
+    private static final long RATE_WINDOW_MS = 1000;
+
+    // Quantized backlight step and dim per level index
+    private static final int[] BACKLIGHT = new int[LEVELS];
+    private static final float[] DIM = new float[LEVELS];
+
+    static {
+        for (int i = 0; i < LEVELS; i++) {
+            float level = i / (float) (LEVELS - 1);
+            float screenBrightness;
+            if (level < 0.5f) {
+                screenBrightness = MIN_BACKLIGHT;
+                DIM[i] = 1.0f - level * 2.0f;
+            } else {
+                screenBrightness = MIN_BACKLIGHT + (level - 0.5f) * 2.0f * (1 - MIN_BACKLIGHT);
+                DIM[i] = 0;
+            }
+            BACKLIGHT[i] = Math.max(1, Math.round(screenBrightness * BACKLIGHT_STEPS));
+        }
+    }
+
+    private final Window window;
+    private final ImageRenderer renderer;
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    // Level index shown, and the one wanted
+    private int current = -1;
+    private int target = -1;
+    private int appliedBacklight = -1;
+    private boolean frameScheduled;
+
+    // Animation from level index animFrom to target
+    private boolean animating;
+    private int animFrom;
+    private long animStartNanos;
+
+    // Instrumentation: a request is a level change or animation frame, each of
+    // which used to be one setAttributes
+    private long requests;
+    private long binderCalls;
+    private long rateWindowStart;
+    private int windowRequests;
+    private int windowBinderCalls;
+    private int peakRequestsPerSecond;
+    private int peakBinderCallsPerSecond;
+
+    BrightnessController(Window window, ImageRenderer renderer) {
+        this.window = window;
+        this.renderer = renderer;
+    }
+
+    /** Show {@code level} from the next frame on, e.g. while dragging. */
+    void setLevel(float level) {
+        countRequest();
+        animating = false;
+        target = index(level);
+        schedule();
+    }
+
+    /** Ease from the level shown now to {@code level}. */
+    void animateTo(float level) {
+        target = index(level);
+        if (current < 0 || current == target) {
+            animating = false;
+        } else {
+            animating = true;
+            animFrom = current;
+            animStartNanos = 0;
+            renderer.setDimAnimating(true);
+        }
+        schedule();
+    }
+
+    void cancel() {
+        if (frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+        }
+        if (animating) {
+            animating = false;
+            renderer.setDimAnimating(false);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        if (!animating) {
+            show(target);
+            return;
+        }
+        countRequest();
+        if (animStartNanos == 0) animStartNanos = frameTimeNanos;
+        float t = Math.min(1f, (frameTimeNanos - animStartNanos) / (float) ANIMATION_NANOS);
+        // Decelerate
+        float eased = 1f - (1f - t) * (1f - t);
+        show(Math.round(animFrom + (target - animFrom) * eased));
+        if (t < 1f) {
+            schedule();
+        } else {
+            animating = false;
+            renderer.setDimAnimating(false);
+        }
+    }
+
+    String stats() {
+        rollRateWindow(SystemClock.uptimeMillis());
+        return "brightness requests=" + requests + " setAttributes=" + binderCalls
+                + " peak/s before=" + peakRequestsPerSecond + " after=" + peakBinderCallsPerSecond;
+    }
+
+    private void show(int index) {
+        if (index < 0) return;
+        current = index;
+        int backlight = BACKLIGHT[index];
+        if (backlight != appliedBacklight) {
+            appliedBacklight = backlight;
+            WindowManager.LayoutParams lp = window.getAttributes();
+            lp.screenBrightness = backlight / (float) BACKLIGHT_STEPS;
+            window.setAttributes(lp);
+            binderCalls++;
+            windowBinderCalls++;
+        }
+        renderer.setDim(DIM[index]);
+    }
+
+    private void schedule() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    private void countRequest() {
+        rollRateWindow(SystemClock.uptimeMillis());
+        requests++;
+        windowRequests++;
+    }
+
+    private void rollRateWindow(long now) {
+        if (now - rateWindowStart < RATE_WINDOW_MS) return;
+        peakRequestsPerSecond = Math.max(peakRequestsPerSecond, windowRequests);
+        peakBinderCallsPerSecond = Math.max(peakBinderCallsPerSecond, windowBinderCalls);
+        rateWindowStart = now;
+        windowRequests = 0;
+        windowBinderCalls = 0;
+    }
+
+    private static int index(float level) {
+        return Math.round(Math.max(0f, Math.min(level, 1f)) * (LEVELS - 1));
+    }
+}
@@ -0,0 +1,71 @@
+package com.cl.pic;
+
+import android.util.Log;
+
+/**
+ * The committed per-call budgets for the main-thread operations a driver can
+ * trigger, checked live in debug builds. {@code MainActivityBudgetTest}
+ * asserts the prefs-write limits off-device; time and allocations are device
+ * numbers and are only checked here.
+ *
+ * Each budget is what one call may cost on the main thread: the time (a
+ * 60 Hz frame for anything that can happen mid-animation), the objects
+ * allocated, and the prefs file writes. Changes handed to
+ * {@link PrefsWriter} are only reported: savePosition() alone makes three
+ * on every tap, and they reach the file in one write after the debounce
+ * window, outside the call. A call over budget is logged as a warning with
+ * its numbers, and every operation's worst case is logged when the activity
+ * goes away.
+ *
+ * Allocations are counted through {@link AllocCounter}, which runs only
+ * while an operation is being measured. Disabled, every hook returns after
+ * one field read. Main thread only.
+ */
+class BudgetMonitor {
+
+    private static final String TAG = "CarPicViewer";
+
+    // One move event of a drag, pan or pinch: tight, it repeats every frame
+    final OperationBudget touchMove = new OperationBudget("touchMove", 4f, 64, 0);
+    // Any other touch event, including a mode toggle or navigation it triggers
+    final OperationBudget touch = new OperationBudget("touch", 16f, 5000, 0);
+    final OperationBudget saveAndLoad = new OperationBudget("saveAndLoad", 16f, 4000, 0);
+    final OperationBudget loadNextImage = new OperationBudget("loadNextImage", 16f, 5000, 0);
+    final OperationBudget refreshHistoryUI = new OperationBudget("refreshHistoryUI", 16f, 20000, 0);
+
+    final OperationBudget[] all = {touchMove, touch, saveAndLoad, loadNextImage, refreshHistoryUI};
+
+    private final PrefsWriter prefs;
+    private boolean enabled;
+
+    BudgetMonitor(PrefsWriter prefs, boolean enabled) {
+        this.prefs = prefs;
+        this.enabled = enabled;
+    }
+
+    /** Release builds leave it off; a test harness turns it on. */
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    void begin(OperationBudget op) {
+        if (!enabled) return;
+        op.begin(System.nanoTime(), AllocCounter.begin(), prefs.changes(), prefs.writes());
+    }
+
+    void end(OperationBudget op) {
+        if (!enabled) return;
+        String over = op.end(System.nanoTime(), AllocCounter.read(), prefs.changes(), prefs.writes());
+        AllocCounter.end();
+        if (over != null) {
+            Log.w(TAG, over);
+        }
+    }
+
+    void logReport() {
+        if (!enabled) return;
+        for (OperationBudget op : all) {
+            Log.i(TAG, op.toString());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.cl.pic;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.module.AppGlideModule;
+import com.bumptech.glide.request.RequestOptions;
+
+/**
+ * Sizes Glide's caches from the heap class instead of screen count, so the
+ * bitmap pool is large enough to recycle full-screen bitmaps when flipping
+ * quickly. LruBitmapPool buckets by byte size and config, so a bitmap of a
+ * different shape but the same size can be reused.
+ */
+@GlideModule
+public final class CarPicGlideModule extends AppGlideModule {
+
+    private static final String TAG = "CarPicViewer";
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        DecodePolicy policy = DecodePolicy.forDevice(context);
+        builder.setBitmapPool(new LruBitmapPool(policy.bitmapPoolBytes()));
+        builder.setMemoryCache(new LruResourceCache(policy.memoryCacheBytes()));
+        builder.setDefaultRequestOptions(policy.apply(new RequestOptions()));
+        Log.i(TAG, "Glide configured: " + policy);
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+package com.cl.pic;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.request.RequestOptions;
+
+/**
+ * How full-size images are decoded, chosen from the device's memory class.
+ *
+ * Hardware bitmaps (API 26+) keep pixels in graphics memory, off the Java
+ * heap, which is where the GC stalls on 1 GB units come from. Where they are
+ * not used, opaque images (JPEGs) are decoded as RGB_565 at half the size of
+ * ARGB_8888. Both can be overridden with the decode_* keys in PicPrefs.
+ */
+final class DecodePolicy {
+
+    private static final String PREFS_NAME = "PicPrefs";
+    private static final String KEY_RGB_565 = "decode_rgb565";
+    private static final String KEY_HARDWARE = "decode_hardware";
+
+    /** At or below this heap class (MB) the device counts as low-RAM. */
+    private static final int LOW_MEMORY_CLASS = 128;
+
+    final boolean preferRgb565;
+    final boolean allowHardware;
+    final int memoryClassMb;
+
+    private DecodePolicy(boolean preferRgb565, boolean allowHardware, int memoryClassMb) {
+        this.preferRgb565 = preferRgb565;
+        this.allowHardware = allowHardware;
+        this.memoryClassMb = memoryClassMb;
+    }
+
+    static DecodePolicy forDevice(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = am.getMemoryClass();
+        boolean lowRam = am.isLowRamDevice() || memoryClass <= LOW_MEMORY_CLASS;
+
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        boolean rgb565 = prefs.getBoolean(KEY_RGB_565, lowRam);
+        boolean hardware = prefs.getBoolean(KEY_HARDWARE, true)
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+        return new DecodePolicy(rgb565, hardware, memoryClass);
+    }
+
+    /** Bytes for Glide's bitmap pool: an eighth of the heap class. */
+    long bitmapPoolBytes() {
+        return memoryClassMb * 1024L * 1024L / 8;
+    }
+
+    /** Bytes for Glide's memory cache: an eighth of the heap class. */
+    long memoryCacheBytes() {
+        return memoryClassMb * 1024L * 1024L / 8;
+    }
+
+    RequestOptions apply(RequestOptions options) {
+        // Glide only picks RGB_565 when the source has no alpha
+        options = options.format(preferRgb565 ? DecodeFormat.PREFER_RGB_565 : DecodeFormat.PREFER_ARGB_8888);
+        if (!allowHardware) {
+            options = options.disallowHardwareConfig();
+        }
+        return options;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodePolicy{rgb565=" + preferRgb565 + ", hardware=" + allowHardware
+                + ", memoryClass=" + memoryClassMb + "MB}";
+    }
+}
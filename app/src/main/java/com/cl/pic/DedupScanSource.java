@@ -0,0 +1,198 @@
+package com.cl.pic;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes another source's batches through a {@link ContentDeduplicator}, so
+ * an image copied into several folders is listed once. Hashes persist in
+ * {@link #HASH_INDEX_FILE} between scans.
+ *
+ * Batches are handed to a single dedup thread and passed on from there, so
+ * the inner source's walkers never wait on hashing; the scan returns once
+ * that thread has caught up. The hash cache is checked with the size and
+ * mtime the inner source listed a file with, or a stat() of a file:// path,
+ * and only a miss opens the file.
+ *
+ * Files are opened through the content resolver, which serves file:// and
+ * content:// URIs alike, and read with pread() on the descriptor.
+ */
+class DedupScanSource implements ScanSource {
+
+    private static final String TAG = "CarPicViewer";
+    private static final String HASH_INDEX_FILE = "content_hashes.bin";
+    // Decode for the perceptual hash at no less than this on the short side
+    private static final int PERCEPTUAL_MIN_SIDE = 32;
+
+    private final ScanSource inner;
+    private final ContentResolver resolver;
+    private final File indexFile;
+    private final boolean nearDuplicates;
+
+    /** @param nearDuplicates also drop near-identical burst shots; decodes every image once */
+    DedupScanSource(Context context, ScanSource inner, boolean nearDuplicates) {
+        this.inner = inner;
+        this.resolver = context.getContentResolver();
+        this.indexFile = new File(context.getFilesDir(), HASH_INDEX_FILE);
+        this.nearDuplicates = nearDuplicates;
+    }
+
+    @Override
+    public String getName() {
+        return inner.getName() + "+dedup";
+    }
+
+    @Override
+    public ScanStats scan(CancellationToken token, Listener listener) throws Exception {
+        ContentHashIndex index = ContentHashIndex.load(indexFile);
+        ExecutorService pool = Executors.newFixedThreadPool(DeviceScanner.defaultParallelism());
+        // One batch at a time, in the order the inner source produced them
+        ExecutorService stage = Executors.newSingleThreadExecutor();
+        try {
+            ContentDeduplicator dedup = new ContentDeduplicator(index, this::open,
+                    nearDuplicates ? this::perceptualHash : null, pool)
+                    .setStat(DedupScanSource::stat);
+            ScanStats stats = inner.scan(token, new StatListener() {
+                @Override
+                public void onBatch(List<String> uris) {
+                    onBatch(uris, null, null);
+                }
+
+                @Override
+                public void onBatch(List<String> uris, long[] sizes, long[] mtimes) {
+                    stage.execute(() -> {
+                        if (token.isCancelled()) return;
+                        try {
+                            List<String> unique = dedup.filter(uris, sizes, mtimes, token);
+                            if (!unique.isEmpty()) {
+                                listener.onBatch(unique);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                }
+            });
+            stage.shutdown();
+            stage.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            Log.i(TAG, dedup.toString());
+            if (!token.isCancelled()) {
+                dedup.pruneIndex();
+            }
+            // Hashes of a cancelled scan are still good
+            try {
+                index.save(indexFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to save content hash index", e);
+            }
+            return stats;
+        } finally {
+            stage.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    /** One stat() for a file:// path; other schemes would cost a binder call, so they are opened. */
+    private static long[] stat(String uri) throws IOException {
+        if (!uri.startsWith(ContentResolver.SCHEME_FILE + ":")) return null;
+        try {
+            StructStat stat = Os.stat(Uri.parse(uri).getPath());
+            // Whole seconds, as open() reports it
+            return new long[] {stat.st_size, stat.st_mtime * 1000L};
+        } catch (ErrnoException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private ContentDeduplicator.Source open(String uri) throws IOException {
+        final ParcelFileDescriptor pfd = resolver.openFileDescriptor(Uri.parse(uri), "r");
+        if (pfd == null) throw new FileNotFoundException(uri);
+        final FileDescriptor fd = pfd.getFileDescriptor();
+        final StructStat stat;
+        try {
+            stat = Os.fstat(fd);
+        } catch (ErrnoException e) {
+            pfd.close();
+            throw new IOException(e);
+        }
+        return new ContentDeduplicator.Source() {
+            @Override
+            public long size() {
+                return stat.st_size;
+            }
+
+            @Override
+            public long lastModified() {
+                return stat.st_mtime * 1000L;
+            }
+
+            @Override
+            public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+                try {
+                    int n = Os.pread(fd, buffer, offset, length, position);
+                    return n == 0 && length > 0 ? -1 : n;
+                } catch (ErrnoException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                pfd.close();
+            }
+        };
+    }
+
+    /** Tiny subsampled decode, scaled to the hash grid. */
+    private long perceptualHash(String uri) throws IOException {
+        Uri parsed = Uri.parse(uri);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(parsed)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) throw new IOException("Not an image: " + uri);
+
+        int sample = 1;
+        int shortSide = Math.min(options.outWidth, options.outHeight);
+        while (shortSide / (sample * 2) >= PERCEPTUAL_MIN_SIDE) {
+            sample *= 2;
+        }
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap decoded;
+        try (InputStream in = resolver.openInputStream(parsed)) {
+            decoded = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (decoded == null) throw new IOException("Cannot decode " + uri);
+
+        Bitmap grid = Bitmap.createScaledBitmap(decoded, PerceptualHash.WIDTH, PerceptualHash.HEIGHT, true);
+        int[] pixels = new int[PerceptualHash.WIDTH * PerceptualHash.HEIGHT];
+        grid.getPixels(pixels, 0, PerceptualHash.WIDTH, 0, 0, PerceptualHash.WIDTH, PerceptualHash.HEIGHT);
+        if (grid != decoded) grid.recycle();
+        decoded.recycle();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = PerceptualHash.luma(pixels[i]);
+        }
+        return PerceptualHash.dHash(pixels);
+    }
+}
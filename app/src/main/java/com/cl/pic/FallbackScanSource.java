@@ -0,0 +1,43 @@
+package com.cl.pic;
+
+import android.util.Log;
+
+/**
+ * Runs {@code primary} and switches to {@code fallback} if it fails or
+ * finds nothing, e.g. when MediaStore access is denied or not yet indexed.
+ */
+class FallbackScanSource implements ScanSource {
+
+    private static final String TAG = "CarPicViewer";
+
+    private final ScanSource primary;
+    private final ScanSource fallback;
+
+    FallbackScanSource(ScanSource primary, ScanSource fallback) {
+        this.primary = primary;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public String getName() {
+        return primary.getName() + "|" + fallback.getName();
+    }
+
+    @Override
+    public ScanStats scan(CancellationToken token, Listener listener) throws Exception {
+        try {
+            ScanStats stats = primary.scan(token, listener);
+            if (stats.files > 0 || token.isCancelled()) {
+                Log.i(TAG, "Scan engine " + primary.getName() + ": " + stats);
+                return stats;
+            }
+            Log.i(TAG, "Scan engine " + primary.getName() + " found nothing, using " + fallback.getName());
+        } catch (SecurityException e) {
+            Log.w(TAG, "Scan engine " + primary.getName() + " not permitted, using " + fallback.getName(), e);
+        }
+
+        ScanStats stats = fallback.scan(token, listener);
+        Log.i(TAG, "Scan engine " + fallback.getName() + ": " + stats);
+        return stats;
+    }
+}
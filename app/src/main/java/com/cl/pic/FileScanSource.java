@@ -0,0 +1,92 @@
+package com.cl.pic;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks the well-known picture folders with {@link DeviceScanner}, backed by
+ * the persistent {@link ScanIndex}. Produces file:// URIs.
+ */
+class FileScanSource implements ScanSource {
+
+    private static final String TAG = "CarPicViewer";
+    private static final String SCAN_INDEX_FILE = "scan_index.bin";
+    private static final long FULL_VERIFY_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+
+    private final File indexFile;
+    private final boolean forceFullVerify;
+    private final int batchSize;
+    private final long batchIntervalMs;
+
+    FileScanSource(Context context, boolean forceFullVerify, int batchSize, long batchIntervalMs) {
+        this.indexFile = new File(context.getFilesDir(), SCAN_INDEX_FILE);
+        this.forceFullVerify = forceFullVerify;
+        this.batchSize = batchSize;
+        this.batchIntervalMs = batchIntervalMs;
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    static List<File> defaultRoots() {
+        List<File> dirs = new ArrayList<>();
+        dirs.add(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM));
+        dirs.add(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES));
+        dirs.add(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS));
+        dirs.add(new File(Environment.getExternalStorageDirectory(), "ClPic")); // Custom folder
+        dirs.add(new File(Environment.getExternalStorageDirectory(), "DCIM/Camera"));
+        return dirs;
+    }
+
+    @Override
+    public ScanStats scan(CancellationToken token, Listener listener) {
+        // Unchanged directories are served from the index; once a day (or on
+        // long press) everything is listed again in case an mtime lied
+        ScanIndex previousIndex = ScanIndex.load(indexFile);
+        boolean fullVerify = forceFullVerify
+                || System.currentTimeMillis() - previousIndex.getLastFullVerifyMillis() > FULL_VERIFY_INTERVAL_MS;
+
+        // java.nio.file is only available from API 26
+        DeviceScanner scanner = new DeviceScanner(DeviceScanner.defaultParallelism(),
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                .setBatching(batchSize, batchIntervalMs)
+                .setIndex(previousIndex, fullVerify);
+
+        DeviceScanner.Result result = scanner.scan(defaultRoots(), token,
+                paths -> listener.onBatch(toUris(paths)));
+
+        if (fullVerify) {
+            Log.i(TAG, "File scan was a full verify");
+        }
+        if (result.index != null) {
+            try {
+                result.index.save(indexFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to save scan index", e);
+            }
+        }
+        return result.stats;
+    }
+
+    private static List<String> toUris(List<String> paths) {
+        List<String> uris = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            try {
+                uris.add(Uri.fromFile(new File(path)).toString());
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to add file: " + path, e);
+            }
+        }
+        return uris;
+    }
+}
@@ -0,0 +1,236 @@
+package com.cl.pic;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.request.RequestOptions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * History thumbnails for the config panel's grid.
+ *
+ * Only cells the RecyclerView lays out are bound, and a cell's thumbnail load
+ * is cancelled as soon as it is recycled, so scrolling past entries never
+ * leaves loads running for them. The adapter outlives the panel: reopening it
+ * diffs the new history against what is shown, on a background thread since
+ * the history holds thousands of entries, and deleting an entry removes just
+ * that cell. Switching between public and private history replaces the list
+ * outright; the two share nothing worth diffing.
+ *
+ * Local images get their thumbnails from {@link ThumbnailLoader}; remote ones,
+ * and local ones it cannot handle, go through Glide.
+ */
+class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.Holder> {
+
+    interface Listener {
+        void onOpen(String uri);
+
+        void onRemove(String uri);
+    }
+
+    // Rebind payload: the thumbnail for this cell arrived
+    private static final Object PAYLOAD_THUMBNAIL = new Object();
+
+    private final RequestManager glide;
+    private final ThumbnailLoader thumbnails;
+    private final Listener listener;
+    private final int thumbSize;
+    private final int spacing;
+    private final RequestOptions thumbOptions;
+    private final AsyncListDiffer<String> differ = new AsyncListDiffer<>(this, new DiffUtil.ItemCallback<String>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull String oldItem, @NonNull String newItem) {
+            return oldItem.equals(newItem);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull String oldItem, @NonNull String newItem) {
+            // A cell is nothing but its URI
+            return true;
+        }
+    });
+    // uri -> position in the current list; rebuilt on demand after the list changes
+    private Map<String, Integer> positions;
+    // Local images the loader could not thumbnail
+    private final Set<String> failed = new HashSet<>();
+
+    HistoryAdapter(Activity activity, ThumbnailLoader thumbnails, int thumbSize, int spacing, Listener listener) {
+        this.glide = Glide.with(activity);
+        this.thumbnails = thumbnails;
+        this.listener = listener;
+        this.thumbSize = thumbSize;
+        this.spacing = spacing;
+        // Thumbnails have no alpha worth keeping
+        this.thumbOptions = new RequestOptions()
+                .centerCrop()
+                .override(thumbSize, thumbSize)
+                .format(DecodeFormat.PREFER_RGB_565);
+    }
+
+    /**
+     * Show {@code newItems}, animating only the cells that changed, or all at
+     * once if {@code replace}. {@code onCommitted} runs on the main thread
+     * once the grid shows them.
+     */
+    void setItems(List<String> newItems, boolean replace, Runnable onCommitted) {
+        if (replace) {
+            // Synchronous: nothing of the old list survives to the next frame
+            differ.submitList(null);
+        }
+        differ.submitList(new ArrayList<>(newItems), () -> {
+            positions = null;
+            onCommitted.run();
+        });
+    }
+
+    /** Called by the thumbnail loader's listener. */
+    void onThumbnail(String uri, Bitmap bitmap) {
+        if (bitmap == null) {
+            failed.add(uri);
+        }
+        int position = positionOf(uri);
+        if (position >= 0) {
+            notifyItemChanged(position, PAYLOAD_THUMBNAIL);
+        }
+    }
+
+    /** Drop the cell for {@code uri}; {@code onCommitted} runs once it is gone. */
+    void remove(String uri, Runnable onCommitted) {
+        int position = positionOf(uri);
+        if (position < 0) return;
+        List<String> remaining = new ArrayList<>(differ.getCurrentList());
+        remaining.remove(position);
+        differ.submitList(remaining, () -> {
+            positions = null;
+            onCommitted.run();
+        });
+    }
+
+    private int positionOf(String uri) {
+        if (positions == null) {
+            List<String> current = differ.getCurrentList();
+            positions = new HashMap<>(current.size() * 4 / 3 + 1);
+            for (int i = 0; i < current.size(); i++) {
+                positions.put(current.get(i), i);
+            }
+        }
+        Integer position = positions.get(uri);
+        return position != null ? position : -1;
+    }
+
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentList().size();
+    }
+
+    @NonNull
+    @Override
+    public Holder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        ImageView thumb = new ImageView(parent.getContext());
+        RecyclerView.LayoutParams lp = new RecyclerView.LayoutParams(thumbSize, thumbSize);
+        lp.setMargins(0, 0, spacing, spacing);
+        thumb.setLayoutParams(lp);
+        thumb.setScaleType(ImageView.ScaleType.CENTER_CROP);
+        thumb.setBackgroundResource(android.R.drawable.list_selector_background);
+
+        Holder holder = new Holder(thumb);
+        // Tap to load this image
+        thumb.setOnClickListener(v -> {
+            String uri = holder.uri;
+            if (uri != null) listener.onOpen(uri);
+        });
+        // Long press to delete this history entry
+        thumb.setOnLongClickListener(v -> {
+            String uri = holder.uri;
+            if (uri != null) listener.onRemove(uri);
+            return true;
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull Holder holder, int position) {
+        String uri = differ.getCurrentList().get(position);
+        if (uri.equals(holder.uri)) return;
+        cancel(holder);
+        holder.uri = uri;
+
+        if (!ThumbnailLoader.canLoad(uri) || failed.contains(uri)) {
+            loadWithGlide(holder);
+            return;
+        }
+        Bitmap cached = thumbnails.getCached(uri);
+        holder.image.setImageBitmap(cached);
+        if (cached == null) {
+            thumbnails.load(uri);
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull Holder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.contains(PAYLOAD_THUMBNAIL) || !differ.getCurrentList().get(position).equals(holder.uri)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        if (failed.contains(holder.uri)) {
+            loadWithGlide(holder);
+        } else {
+            Bitmap cached = thumbnails.getCached(holder.uri);
+            holder.image.setImageBitmap(cached);
+            if (cached == null) {
+                // Evicted before this cell rebound
+                thumbnails.load(holder.uri);
+            }
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull Holder holder) {
+        // Off screen: cancel the load and let go of the bitmap
+        cancel(holder);
+        holder.image.setImageDrawable(null);
+        holder.uri = null;
+    }
+
+    private void loadWithGlide(Holder holder) {
+        holder.usesGlide = true;
+        glide.load(Uri.parse(holder.uri)).apply(thumbOptions).into(holder.image);
+    }
+
+    private void cancel(Holder holder) {
+        if (holder.usesGlide) {
+            glide.clear(holder.image);
+            holder.usesGlide = false;
+        } else if (holder.uri != null) {
+            thumbnails.cancel(holder.uri);
+        }
+    }
+
+    static final class Holder extends RecyclerView.ViewHolder {
+        final ImageView image;
+        String uri;
+        boolean usesGlide;
+
+        Holder(ImageView image) {
+            super(image);
+            this.image = image;
+        }
+    }
+}
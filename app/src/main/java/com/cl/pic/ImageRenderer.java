@@ -0,0 +1,40 @@
+package com.cl.pic;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+
+/**
+ * Puts the current image on screen: the base bitmap under a pan/zoom matrix,
+ * zoomed-in tiles over it, and the dark-mode dim on top.
+ *
+ * Main thread only.
+ */
+interface ImageRenderer {
+
+    /** Base bitmap to show, or null to show nothing. */
+    void setBitmap(Bitmap bitmap);
+
+    /** Base bitmap px -> screen; copied, the caller keeps editing its own. */
+    void setMatrix(Matrix matrix);
+
+    /**
+     * Fade {@code from}, drawn with {@code fromMatrix}, out over the current
+     * image in {@code durationMs}. {@code from} must stay valid until
+     * {@code onDone} runs; the next crossfade, clearing the bitmap or
+     * {@link #release} end a running fade early.
+     */
+    void crossfade(Bitmap from, Matrix fromMatrix, long durationMs, Runnable onDone);
+
+    /** Black drawn over the image, 0 (none) to 1 (opaque). */
+    void setDim(float alpha);
+
+    float getDim();
+
+    /** The dim is about to change every frame for a while, or has stopped doing so. */
+    void setDimAnimating(boolean animating);
+
+    /** Time spent drawing, or null if drawing is left to the view system. */
+    FrameStats getFrameStats();
+
+    void release();
+}
@@ -0,0 +1,95 @@
+package com.cl.pic;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.view.View;
+import android.widget.ImageView;
+
+/**
+ * The view-based path: an {@link ImageView} with a matrix scale type, the tile
+ * layer over it, and a full-screen black view whose alpha is the dim. Three
+ * composited layers, but nothing beyond stock views. A crossfade shows the
+ * outgoing image in a second image view under the dim while it fades.
+ */
+class ImageViewRenderer implements ImageRenderer {
+
+    private final ImageView imageView;
+    private final View overlay;
+    private final TileLayerView tileLayer;
+    private final ImageView fadeView;
+    private Runnable fadeDone;
+
+    ImageViewRenderer(ImageView imageView, View overlay, TileLayerView tileLayer, ImageView fadeView) {
+        this.imageView = imageView;
+        this.overlay = overlay;
+        this.tileLayer = tileLayer;
+        this.fadeView = fadeView;
+    }
+
+    @Override
+    public void setBitmap(Bitmap bitmap) {
+        if (bitmap == null) {
+            endFade();
+            imageView.setImageDrawable(null);
+        } else {
+            imageView.setImageBitmap(bitmap);
+        }
+    }
+
+    @Override
+    public void setMatrix(Matrix matrix) {
+        imageView.setImageMatrix(matrix);
+        tileLayer.setImageMatrix(matrix);
+    }
+
+    @Override
+    public void crossfade(Bitmap from, Matrix fromMatrix, long durationMs, Runnable onDone) {
+        endFade();
+        fadeDone = onDone;
+        fadeView.setImageBitmap(from);
+        fadeView.setImageMatrix(fromMatrix);
+        fadeView.setAlpha(1f);
+        fadeView.setVisibility(View.VISIBLE);
+        // Each step only recomposites the cached layer
+        fadeView.animate().alpha(0f).setDuration(durationMs).withLayer().withEndAction(this::endFade);
+    }
+
+    private void endFade() {
+        if (fadeDone == null) return;
+        fadeView.animate().cancel();
+        fadeView.setImageDrawable(null);
+        fadeView.setVisibility(View.GONE);
+        Runnable done = fadeDone;
+        fadeDone = null;
+        done.run();
+    }
+
+    @Override
+    public void setDim(float alpha) {
+        if (alpha == getDim()) return;
+        overlay.setVisibility(alpha > 0 ? View.VISIBLE : View.GONE);
+        overlay.setAlpha(alpha);
+    }
+
+    @Override
+    public float getDim() {
+        return overlay.getVisibility() == View.VISIBLE ? overlay.getAlpha() : 0;
+    }
+
+    @Override
+    public void setDimAnimating(boolean animating) {
+        // Alpha changes then only recomposite the cached layer
+        overlay.setLayerType(animating ? View.LAYER_TYPE_HARDWARE : View.LAYER_TYPE_NONE, null);
+    }
+
+    @Override
+    public FrameStats getFrameStats() {
+        return null;
+    }
+
+    @Override
+    public void release() {
+        endFade();
+        imageView.setImageDrawable(null);
+    }
+}
@@ -3,19 +3,25 @@ package com.cl.pic;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.FrameMetrics;
 import android.view.GestureDetector;
 import android.view.Gravity;
 import android.view.MotionEvent;
+import android.view.SurfaceView;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowInsets;
@@ -23,6 +29,7 @@ import android.view.WindowInsetsController;
 import android.view.WindowManager;
 import android.view.WindowMetrics;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
@@ -35,12 +42,16 @@ import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.DataSource;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy;
 import com.bumptech.glide.request.RequestListener;
 import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.Target;
@@ -48,20 +59,18 @@ import com.bumptech.glide.request.target.Target;
 import org.json.JSONArray;
 import org.json.JSONException;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
-import java.io.File;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
 
 import android.view.ScaleGestureDetector;
-import android.animation.ValueAnimator;
-import android.view.animation.DecelerateInterpolator;
+import android.view.VelocityTracker;
+import android.view.ViewConfiguration;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -72,15 +81,62 @@ public class MainActivity extends AppCompatActivity {
     private static final String KEY_HISTORY_PRIVATE = "history_private";
     private static final String KEY_IS_PRIVATE_MODE = "is_private_mode";
     private static final float MAX_SCALE_MULTIPLIER = 4.0f;
+    private static final float DOUBLE_TAP_ZOOM = 2.5f;
+    // Drag past the edges at this fraction of finger speed, at most this fraction of the screen
+    private static final float OVERSCROLL_RESISTANCE = 0.4f;
+    private static final float MAX_OVERSCROLL = 0.15f;
     private static final String TAG = "CarPicViewer";
-    private static final int MAX_HISTORY = 10;
+    private static final String HISTORY_FILE = "history.log";
+    private static final String KEY_HISTORY_MIGRATED = "history_migrated";
+    private static final int MAX_HISTORY = 5000;
+    private static final int HISTORY_COLUMNS = 4;
+    private static final int THUMBNAIL_PREGENERATE_COUNT = 120;
+    private static final int SCAN_BATCH_SIZE = 200;
+    private static final long SCAN_BATCH_INTERVAL_MS = 250;
+    private static final int PREFETCH_RADIUS = 2;
+    // Tallest base bitmap, in screen heights; TileLayerView supplies detail beyond it
+    private static final int MAX_BASE_SCREENS = 4;
+    private static final long PREFS_FLUSH_DELAY_MS = 2000;
+    private static final String VIEW_STATE_FILE = "view_state.log";
+    private static final int MAX_VIEW_STATES = 2000;
+    private static final String KEY_VIEW_STATE_MIGRATED = "view_state_migrated";
+    // Draw image, tiles and dim into one SurfaceView instead of stacked views
+    private static final String KEY_RENDERER_SURFACE = "renderer_surface";
+    private static final String KEY_AUTO_MODE = "auto_mode";
+    // Show the last frame straight away on launch
+    private static final String KEY_FAST_BOOT = "fast_boot";
+    private static final String BOOT_SNAPSHOT_FILE = "boot_frame.rgb565";
+    // Timing hooks; see Metrics. Written to METRICS_FILE on every pause
+    private static final String KEY_METRICS = "metrics_enabled";
+    private static final String METRICS_FILE = "metrics.txt";
+    // Parked-mode slideshow; see setupSlideshow()
+    private static final String KEY_SLIDESHOW = "slideshow";
+    private static final String KEY_SLIDESHOW_DWELL_MS = "slideshow_dwell_ms";
+    private static final String KEY_SLIDESHOW_SHUFFLE = "slideshow_shuffle";
+    private static final String KEY_SLIDESHOW_CROSSFADE = "slideshow_crossfade";
+    private static final long SLIDESHOW_DWELL_MS = 10000;
+    // Start decoding the next slide this long before it is due
+    private static final long SLIDESHOW_LEAD_MS = 3000;
+    private static final long CROSSFADE_MS = 600;
+    // Scans also drop near-identical burst shots, not just exact copies
+    private static final String KEY_DEDUP_NEAR = "dedup_near";
 
     private FrameLayout rootLayout;
     private ImageView imageView;
+    private TileLayerView tileLayer;
     private View blackOverlay;
+    private ImageRenderer renderer;
+    // Debug builds: how long the window takes per frame, whichever renderer is used
+    private FrameStats windowFrames;
+    private Window.OnFrameMetricsAvailableListener frameMetricsListener;
     private ProgressBar progressBar;
     private LinearLayout configPanel;
-    private LinearLayout historyContainer;
+    private RecyclerView historyGrid;
+    private TextView historyEmpty;
+    private HistoryAdapter historyAdapter;
+    // History namespace the grid was last filled from, -1 before the first fill
+    private int shownHistoryNamespace = -1;
+    private ThumbnailLoader thumbnails;
     private EditText etUrl;
     
     private GestureDetector gestureDetector;
@@ -95,6 +151,14 @@ public class MainActivity extends AppCompatActivity {
     private boolean isAdjustingMode = false;
     private boolean isZoomingOrPanning = false;
     private float startX, startY;
+
+    // Two-finger pan release and two-finger double tap
+    private VelocityTracker velocityTracker;
+    private int maxFlingVelocity;
+    private long twoFingerDownTime;
+    private float twoFingerDownX, twoFingerDownY;
+    private boolean twoFingerMoved;
+    private long lastTwoFingerTapTime;
     
 
     
@@ -106,20 +170,70 @@ public class MainActivity extends AppCompatActivity {
     private int privacyTapCount = 0;
 
     // Playlist State
-    private List<String> playlist = new ArrayList<>();
+    private final Playlist playlist = new Playlist();
     private int currentPlaylistIndex = -1;
     private boolean isScanning = false;
+    private CancellationToken scanToken;
+    private int scanGeneration = 0;
+    private boolean dedupNearDuplicates;
     private boolean isPrivateMode = false;
     
     // Geometry State
     private int screenWidth; 
     private int screenHeight;
-    private Matrix currentMatrix = new Matrix();
+    private final Matrix currentMatrix = new Matrix();
+    private ViewportTransform viewport;
+    private ViewportAnimator viewportAnimator;
     private String currentUriString;
-    private float baseScale = 1.0f;
+    private String renderedUriString;
+    private Bitmap renderedBitmap;
+    private boolean renderedPrivate;
+    private int renderedImageWidth;
     
     // Animation state
-    private ValueAnimator brightnessAnimator;
+    private BrightnessController brightness;
+    private AmbientLightMonitor ambientLight;
+    private BootSnapshot bootSnapshot;
+    // Frame from the boot snapshot, on screen until the first real image renders
+    @Nullable
+    private Bitmap bootFrame;
+    private boolean firstImageRendered;
+    // History thumbnails are generated once the first image is up; see pregenerateHistoryThumbnails()
+    private boolean historyThumbnailsQueued;
+    private boolean autoMode;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Neighbour prefetch
+    private NeighborPrefetcher prefetcher;
+    private NeighborPrefetcher.Entry displayedPrefetch;
+    private DecodePolicy decodePolicy;
+
+    // http(s) images: resumable download, progressive previews
+    private NetworkImageLoader networkLoader;
+    // Latest preview of the network image loading now
+    private Bitmap networkPreview;
+
+    // Slideshow
+    private SlideshowController slideshow;
+    private CheckBox cbSlideshow;
+    private boolean slideshowCrossfade;
+    // Set while a slideshow transition loads its image
+    private boolean crossfadeNext;
+    private final Matrix fadeMatrix = new Matrix();
+
+    // Batches prefs changes into one write per window
+    private PrefsWriter prefsWriter;
+
+    // Per-image pan/zoom
+    private ViewStateStore viewStates;
+
+    // Recently viewed, per public/private mode
+    private HistoryStore history;
+
+    // Debug builds: per-call main-thread cost of the main operations
+    @VisibleForTesting
+    BudgetMonitor budgets;
 
     // Gesture state helpers
     private boolean imageChangedThisGesture = false;
@@ -145,20 +259,42 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // Every prefs write goes through here, including the intent-extra overrides below
+        prefsWriter = new PrefsWriter(getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE), PREFS_FLUSH_DELAY_MS);
+        configureMetrics();
+        long createStart = Metrics.begin("onCreate");
         super.onCreate(savedInstanceState);
         requestWindowFeature(Window.FEATURE_NO_TITLE);
         
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN, WindowManager.LayoutParams.FLAG_FULLSCREEN);
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
         
+        long layoutStart = Metrics.begin("onCreate.setContentView");
         setContentView(R.layout.activity_main);
+        Metrics.end("onCreate.setContentView", layoutStart);
         
         rootLayout = findViewById(R.id.rootLayout);
         imageView = findViewById(R.id.imageView);
+        tileLayer = findViewById(R.id.tileLayer);
         blackOverlay = findViewById(R.id.blackOverlay);
+        renderer = createRenderer();
+        brightness = new BrightnessController(getWindow(), renderer);
+        viewport = new ViewportTransform(currentMatrix, MAX_SCALE_MULTIPLIER, matrix -> renderer.setMatrix(matrix));
+        boolean debuggable = (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        // Debug builds prove the touch path and the frames it drives allocate nothing
+        viewport.setTrackAllocations(debuggable);
+        if (debuggable) {
+            trackFrameTimes();
+        }
+        // Save once a fling or zoom comes to rest, not where it was when fingers lifted
+        viewportAnimator = new ViewportAnimator(viewport, this::savePosition);
+        velocityTracker = VelocityTracker.obtain();
+        maxFlingVelocity = ViewConfiguration.get(this).getScaledMaximumFlingVelocity();
         progressBar = findViewById(R.id.loading);
         configPanel = findViewById(R.id.configPanel);
-        historyContainer = findViewById(R.id.historyContainer);
+        historyGrid = findViewById(R.id.historyGrid);
+        historyEmpty = findViewById(R.id.historyEmpty);
+        setupHistoryGrid();
         etUrl = findViewById(R.id.etUrl);
 
         Button btnLocal = findViewById(R.id.btnSelectLocal);
@@ -166,12 +302,25 @@ public class MainActivity extends AppCompatActivity {
         Button btnScan = findViewById(R.id.btnScanDevice);
         
         updateScreenDimensions();
+        showBootSnapshot();
         
         touchSlop = 24; // Hardcoded to avoid context issues
+
+        decodePolicy = DecodePolicy.forDevice(this);
+
+        // Let neighbours use up to a quarter of the normal heap
+        long prefetchBudget = decodePolicy.memoryClassMb * 1024L * 1024L / 4;
+        prefetcher = new NeighborPrefetcher(this, PREFETCH_RADIUS, prefetchBudget);
+        networkLoader = new NetworkImageLoader(this);
         
         // Wire up config panel buttons
         btnLocal.setOnClickListener(v -> openFilePicker());
-        btnScan.setOnClickListener(v -> startScan());
+        btnScan.setOnClickListener(v -> startScan(false));
+        // Long press: walk the file system and list every directory again
+        btnScan.setOnLongClickListener(v -> {
+            startScan(true);
+            return true;
+        });
         btnUrl.setOnClickListener(v -> {
             String url = etUrl.getText().toString().trim();
             if (!url.isEmpty()) {
@@ -180,13 +329,31 @@ public class MainActivity extends AppCompatActivity {
         });
 
         // Load saved levels and modes
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        mode1Level = prefs.getFloat("mode1_level", 0.8f);
-        mode2Level = prefs.getFloat("mode2_level", 0.2f);
-        isMode2 = prefs.getBoolean("is_mode2", false);
+        long prefsStart = Metrics.begin("onCreate.prefs");
+        budgets = new BudgetMonitor(prefsWriter, debuggable);
+        mode1Level = prefsWriter.getFloat("mode1_level", 0.8f);
+        mode2Level = prefsWriter.getFloat("mode2_level", 0.2f);
+        isMode2 = prefsWriter.getBoolean("is_mode2", false);
+        autoMode = prefsWriter.getBoolean(KEY_AUTO_MODE, false);
+        Metrics.end("onCreate.prefs", prefsStart);
+        ambientLight = new AmbientLightMonitor(this, this::onAmbientDarkChanged);
+        setupAutoModeToggle();
+        setupNearDuplicatesToggle();
+
+        long storesStart = Metrics.begin("onCreate.viewStates");
+        viewStates = ViewStateStore.open(new File(getFilesDir(), VIEW_STATE_FILE), MAX_VIEW_STATES);
+        migrateLegacyViewStates();
+        Metrics.end("onCreate.viewStates", storesStart);
+
+        long historyStart = Metrics.begin("onCreate.history");
+        history = HistoryStore.open(new File(getFilesDir(), HISTORY_FILE), MAX_HISTORY);
+        migrateLegacyHistory();
+        Metrics.end("onCreate.history", historyStart);
         // Always start in public mode on new launch
         isPrivateMode = false;
-        prefs.edit().putBoolean(KEY_IS_PRIVATE_MODE, false).apply();
+        prefsWriter.putBoolean(KEY_IS_PRIVATE_MODE, false);
+        // After history and the mode, which a slideshow started at launch plays
+        setupSlideshow();
         
         // Apply initial brightness
         applyBrightness(isMode2 ? mode2Level : mode1Level);
@@ -239,7 +406,28 @@ public class MainActivity extends AppCompatActivity {
         hideSystemUI();
         
         // Restore last image according to current (public/private) mode
-        restoreLastImageForCurrentMode(prefs);
+        long restoreStart = Metrics.begin("onCreate.restore");
+        restoreLastImageForCurrentMode();
+        Metrics.end("onCreate.restore", restoreStart);
+        Metrics.end("onCreate", createStart);
+        if (Metrics.isEnabled()) {
+            Choreographer.getInstance().postFrameCallback(frameTimeNanos ->
+                    Metrics.sinceProcessStart("startup.firstFrame"));
+        }
+    }
+    
+    /** One-time move of the pos_/pos_x_/scale_ keys out of PicPrefs. */
+    private void migrateLegacyViewStates() {
+        if (prefsWriter.getBoolean(KEY_VIEW_STATE_MIGRATED, false)) return;
+
+        // The legacy keys were never written through prefsWriter, so the stored map has them all
+        List<String> imported = viewStates.importLegacy(
+                getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getAll());
+        for (String key : imported) {
+            prefsWriter.remove(key);
+        }
+        prefsWriter.putBoolean(KEY_VIEW_STATE_MIGRATED, true);
+        Log.i(TAG, "Migrated " + imported.size() + " view state keys out of prefs");
     }
     
     @Override
@@ -247,6 +435,22 @@ public class MainActivity extends AppCompatActivity {
         super.onResume();
         hideSystemUI();
         updateScreenDimensions();
+        if (autoMode) {
+            ambientLight.start();
+        }
+        resumeSlideshow();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        ambientLight.stop();
+        slideshow.pause();
+        // May be the last callback before the process is killed
+        savePosition();
+        saveBootSnapshot();
+        Metrics.export(new File(getFilesDir(), METRICS_FILE));
+        prefsWriter.flush();
     }
 
     private void updateScreenDimensions() {
@@ -261,6 +465,9 @@ public class MainActivity extends AppCompatActivity {
             screenWidth = metrics.widthPixels;
             screenHeight = metrics.heightPixels;
         }
+        if (viewport != null) {
+            viewport.setViewportSize(screenWidth, screenHeight);
+        }
     }
 
     @Override
@@ -340,147 +547,189 @@ public class MainActivity extends AppCompatActivity {
         scaleGestureDetector = new ScaleGestureDetector(this, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
             @Override
             public boolean onScale(ScaleGestureDetector detector) {
-                float scaleFactor = detector.getScaleFactor();
-
-                // Smooth zoom: clamp per-step zoom factor
-                scaleFactor = Math.max(0.7f, Math.min(scaleFactor, 1.3f));
-
-                float[] values = new float[9];
-                currentMatrix.getValues(values);
-                float currentScale = values[Matrix.MSCALE_X];
-
-                float minScale = baseScale;
-                float maxScale = baseScale * MAX_SCALE_MULTIPLIER;
-                float targetScale = currentScale * scaleFactor;
-
-                if (targetScale < minScale) {
-                    scaleFactor = minScale / currentScale;
-                } else if (targetScale > maxScale) {
-                    scaleFactor = maxScale / currentScale;
-                }
-
-                currentMatrix.postScale(scaleFactor, scaleFactor, detector.getFocusX(), detector.getFocusY());
-                checkBoundsAndFix();
-                imageView.setImageMatrix(currentMatrix);
+                viewport.zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
                 return true;
             }
         });
 
         // Brightness gesture + panning
         rootLayout.setOnTouchListener((v, event) -> {
-            scaleGestureDetector.onTouchEvent(event);
-            gestureDetector.onTouchEvent(event);
+            // Moves stream in every frame; taps may navigate and get a looser budget
+            OperationBudget budget = event.getActionMasked() == MotionEvent.ACTION_MOVE
+                    ? budgets.touchMove : budgets.touch;
+            budgets.begin(budget);
+            try {
+                return onRootTouch(event);
+            } finally {
+                budgets.end(budget);
+            }
+        });
+    }
 
-            int action = event.getActionMasked();
-            int pointerCount = event.getPointerCount();
+    private boolean onRootTouch(MotionEvent event) {
+        int action = event.getActionMasked();
+        int pointerCount = event.getPointerCount();
 
-            switch (action) {
-                case MotionEvent.ACTION_DOWN:
-                    startX = event.getX();
-                    startY = event.getY();
+        if (action == MotionEvent.ACTION_DOWN) {
+            // A touch catches whatever is still moving
+            viewportAnimator.stop();
+            velocityTracker.clear();
+            // and holds the slideshow until the finger lifts
+            slideshow.pause();
+        }
+        velocityTracker.addMovement(event);
+        scaleGestureDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+                startX = event.getX();
+                startY = event.getY();
+                isAdjustingMode = false;
+                isZoomingOrPanning = false;
+                imageChangedThisGesture = false;
+                break;
+
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if (pointerCount == 2) {
+                    isZoomingOrPanning = true;
                     isAdjustingMode = false;
-                    isZoomingOrPanning = false;
-                    imageChangedThisGesture = false;
-                    break;
-
-                case MotionEvent.ACTION_POINTER_DOWN:
-                    if (pointerCount == 2) {
-                        isZoomingOrPanning = true;
-                        isAdjustingMode = false;
-                        startX = (event.getX(0) + event.getX(1)) / 2;
-                        startY = (event.getY(0) + event.getY(1)) / 2;
-                    }
-                    break;
-
-                case MotionEvent.ACTION_POINTER_UP:
-                    // If we were zooming, keep isZoomingOrPanning true so we don't switch to brightness
-                    if (pointerCount - 1 < 2) {
-                        // Dropping to 1 finger
-                    }
-                    break;
+                    startX = (event.getX(0) + event.getX(1)) / 2;
+                    startY = (event.getY(0) + event.getY(1)) / 2;
+                    twoFingerDownTime = event.getEventTime();
+                    twoFingerDownX = startX;
+                    twoFingerDownY = startY;
+                    twoFingerMoved = false;
+                }
+                break;
 
-                case MotionEvent.ACTION_MOVE:
-                    if (scaleGestureDetector.isInProgress()) {
-                        isZoomingOrPanning = true;
-                        isAdjustingMode = false;
-                    }
+            case MotionEvent.ACTION_POINTER_UP:
+                // If we were zooming, keep isZoomingOrPanning true so we don't switch to brightness
+                if (pointerCount == 2) {
+                    // Dropping to 1 finger: the two-finger gesture ends here
+                    onTwoFingerRelease(event);
+                }
+                break;
 
-                    if (pointerCount == 1) {
-                        if (isZoomingOrPanning) {
-                            // Ignore single finger moves if we were/are zooming
-                            break;
-                        }
+            case MotionEvent.ACTION_MOVE:
+                if (scaleGestureDetector.isInProgress()) {
+                    isZoomingOrPanning = true;
+                    isAdjustingMode = false;
+                }
 
-                        if (!isAdjustingMode) {
-                            float dx = event.getX() - startX;
-                            float dy = event.getY() - startY;
-                            if (Math.sqrt(dx * dx + dy * dy) > touchSlop) {
-                                isAdjustingMode = true;
-                                if (Math.abs(dx) > Math.abs(dy)) {
-                                    // Horizontal -> Mode 1
-                                    isMode2 = false;
-                                    startLevel = mode1Level;
-                                    startX = event.getX(); // Reset reference
-                                    showModeToast("Mode 1");
-                                    applyBrightness(mode1Level); // Switch immediately
-                                } else {
-                                    // Vertical -> Mode 2
-                                    isMode2 = true;
-                                    startLevel = mode2Level;
-                                    startY = event.getY(); // Reset reference
-                                    showModeToast("Mode 2");
-                                    applyBrightness(mode2Level); // Switch immediately
-                                }
-                                // Show brightness indicator
-                                showBrightnessIndicator();
-                            }
-                        }
+                if (pointerCount == 1) {
+                    if (isZoomingOrPanning) {
+                        // Ignore single finger moves if we were/are zooming
+                        break;
+                    }
 
-                        if (isAdjustingMode) {
-                            if (!isMode2) {
-                                // Mode 1 (Horizontal)
-                                float deltaX = event.getX() - startX;
-                                float change = deltaX / rootLayout.getWidth();
-                                mode1Level = clamp(startLevel + change);
-                                applyBrightness(mode1Level);
+                    if (!isAdjustingMode) {
+                        float dx = event.getX() - startX;
+                        float dy = event.getY() - startY;
+                        if (Math.sqrt(dx * dx + dy * dy) > touchSlop) {
+                            isAdjustingMode = true;
+                            if (Math.abs(dx) > Math.abs(dy)) {
+                                // Horizontal -> Mode 1
+                                isMode2 = false;
+                                startLevel = mode1Level;
+                                startX = event.getX(); // Reset reference
+                                showModeToast("Mode 1");
+                                applyBrightness(mode1Level); // Switch immediately
                             } else {
-                                // Mode 2 (Vertical)
-                                // Up is negative deltaY, but we want Up -> Brighter (Higher Level)
-                                float deltaY = startY - event.getY();
-                                float change = deltaY / rootLayout.getHeight();
-                                mode2Level = clamp(startLevel + change);
-                                applyBrightness(mode2Level);
+                                // Vertical -> Mode 2
+                                isMode2 = true;
+                                startLevel = mode2Level;
+                                startY = event.getY(); // Reset reference
+                                showModeToast("Mode 2");
+                                applyBrightness(mode2Level); // Switch immediately
                             }
+                            // Show brightness indicator
+                            showBrightnessIndicator();
                         }
-                    } else if (pointerCount == 2) {
-                        isZoomingOrPanning = true;
-                        isAdjustingMode = false;
-                        // Pan
-                        float currX = (event.getX(0) + event.getX(1)) / 2;
-                        float currY = (event.getY(0) + event.getY(1)) / 2;
-                        float dx = currX - startX;
-                        float dy = currY - startY;
-
-                        currentMatrix.postTranslate(dx, dy);
-                        checkBoundsAndFix();
-                        imageView.setImageMatrix(currentMatrix);
-
-                        startX = currX;
-                        startY = currY;
                     }
-                    break;
 
-                case MotionEvent.ACTION_UP:
-                case MotionEvent.ACTION_CANCEL:
+                    if (isAdjustingMode) {
+                        if (!isMode2) {
+                            // Mode 1 (Horizontal)
+                            float deltaX = event.getX() - startX;
+                            float change = deltaX / rootLayout.getWidth();
+                            mode1Level = clamp(startLevel + change);
+                            applyBrightness(mode1Level);
+                        } else {
+                            // Mode 2 (Vertical)
+                            // Up is negative deltaY, but we want Up -> Brighter (Higher Level)
+                            float deltaY = startY - event.getY();
+                            float change = deltaY / rootLayout.getHeight();
+                            mode2Level = clamp(startLevel + change);
+                            applyBrightness(mode2Level);
+                        }
+                    }
+                } else if (pointerCount == 2) {
+                    isZoomingOrPanning = true;
                     isAdjustingMode = false;
-                    isZoomingOrPanning = false;
-                    if (!imageChangedThisGesture) {
-                        savePosition();
+                    // Pan
+                    float currX = (event.getX(0) + event.getX(1)) / 2;
+                    float currY = (event.getY(0) + event.getY(1)) / 2;
+                    float dx = currX - startX;
+                    float dy = currY - startY;
+
+                    if (scaleGestureDetector.isInProgress()
+                            || Math.hypot(currX - twoFingerDownX, currY - twoFingerDownY) > touchSlop) {
+                        twoFingerMoved = true;
                     }
-                    break;
+                    // Rubber-band past the edges; springs back on release
+                    viewport.dragBy(dx, dy, OVERSCROLL_RESISTANCE, MAX_OVERSCROLL);
+
+                    startX = currX;
+                    startY = currY;
+                }
+                break;
+
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                isAdjustingMode = false;
+                isZoomingOrPanning = false;
+                // A running animation saves when it settles
+                if (!imageChangedThisGesture && !viewportAnimator.isRunning()) {
+                    savePosition();
+                }
+                resumeSlideshow();
+                break;
+        }
+        return true;
+    }
+
+    /** Second finger lifted: a two-finger tap, or the end of a pan that may coast. */
+    private void onTwoFingerRelease(MotionEvent event) {
+        long now = event.getEventTime();
+        if (!twoFingerMoved && now - twoFingerDownTime < ViewConfiguration.getTapTimeout() * 2L) {
+            if (now - lastTwoFingerTapTime < ViewConfiguration.getDoubleTapTimeout()) {
+                // One-finger double tap is taken by config/next image
+                lastTwoFingerTapTime = 0;
+                toggleZoom(twoFingerDownX, twoFingerDownY);
+            } else {
+                lastTwoFingerTapTime = now;
             }
-            return true;
-        });
+            return;
+        }
+
+        // Pan velocity is that of the midpoint: the mean of both fingers
+        velocityTracker.computeCurrentVelocity(1000, maxFlingVelocity);
+        int id0 = event.getPointerId(0);
+        int id1 = event.getPointerId(1);
+        float vx = (velocityTracker.getXVelocity(id0) + velocityTracker.getXVelocity(id1)) / 2;
+        float vy = (velocityTracker.getYVelocity(id0) + velocityTracker.getYVelocity(id1)) / 2;
+        // Also springs back from any overscroll
+        viewportAnimator.fling(vx, vy);
+    }
+
+    private void toggleZoom(float focusX, float focusY) {
+        float base = viewport.getBaseScale();
+        if (viewport.getScale() > base * 1.05f) {
+            viewportAnimator.zoomTo(base, focusX, focusY);
+        } else {
+            viewportAnimator.zoomTo(base * DOUBLE_TAP_ZOOM, focusX, focusY);
+        }
     }
 
     private float clamp(float val) {
@@ -493,69 +742,12 @@ public class MainActivity extends AppCompatActivity {
 
     private void applyBrightness(float level, boolean animate) {
         if (animate) {
-            // Animate brightness change
-            if (brightnessAnimator != null) {
-                brightnessAnimator.cancel();
-            }
-            
-            // Get current brightness to animate from
-            WindowManager.LayoutParams currentLp = getWindow().getAttributes();
-            float currentScreenBrightness = currentLp.screenBrightness;
-            float currentOverlayAlpha = blackOverlay.getAlpha();
-            
-            brightnessAnimator = ValueAnimator.ofFloat(0f, 1f);
-            brightnessAnimator.setDuration(300);
-            brightnessAnimator.setInterpolator(new DecelerateInterpolator());
-            brightnessAnimator.addUpdateListener(animation -> {
-                float progress = (float) animation.getAnimatedValue();
-                float targetScreenBrightness;
-                float targetOverlayAlpha;
-                
-                if (level < 0.5f) {
-                    targetScreenBrightness = 0.01f;
-                    targetOverlayAlpha = 1.0f - (level * 2.0f);
-                } else {
-                    targetOverlayAlpha = 0.0f;
-                    targetScreenBrightness = 0.01f + (level - 0.5f) * 2.0f * 0.99f;
-                }
-                
-                float interpolatedScreenBrightness = currentScreenBrightness + (targetScreenBrightness - currentScreenBrightness) * progress;
-                float interpolatedOverlayAlpha = currentOverlayAlpha + (targetOverlayAlpha - currentOverlayAlpha) * progress;
-                
-                WindowManager.LayoutParams lp = getWindow().getAttributes();
-                lp.screenBrightness = interpolatedScreenBrightness;
-                getWindow().setAttributes(lp);
-                
-                blackOverlay.setVisibility(interpolatedOverlayAlpha > 0.01 ? View.VISIBLE : View.GONE);
-                blackOverlay.setAlpha(interpolatedOverlayAlpha);
-                
-                // Update brightness indicator
-                updateBrightnessIndicator(level);
-            });
-            brightnessAnimator.start();
+            brightness.animateTo(level);
         } else {
-            // Apply immediately
-            WindowManager.LayoutParams lp = getWindow().getAttributes();
-            float screenBrightness;
-            float overlayAlpha;
-            
-            if (level < 0.5f) {
-                screenBrightness = 0.01f;
-                overlayAlpha = 1.0f - (level * 2.0f);
-            } else {
-                overlayAlpha = 0.0f;
-                screenBrightness = 0.01f + (level - 0.5f) * 2.0f * 0.99f;
-            }
-            
-            lp.screenBrightness = screenBrightness;
-            getWindow().setAttributes(lp);
-            
-            blackOverlay.setVisibility(overlayAlpha > 0 ? View.VISIBLE : View.GONE);
-            blackOverlay.setAlpha(overlayAlpha);
-            
-            // Update brightness indicator
-            updateBrightnessIndicator(level);
+            brightness.setLevel(level);
         }
+        // Update brightness indicator
+        updateBrightnessIndicator(level);
     }
     
     private void toggleMode() {
@@ -563,94 +755,189 @@ public class MainActivity extends AppCompatActivity {
         applyBrightness(isMode2 ? mode2Level : mode1Level, true); // Animate!
         showModeToast(isMode2 ? "Mode 2" : "Mode 1");
         
-        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
-            .edit().putBoolean("is_mode2", isMode2).apply();
+        prefsWriter.putBoolean("is_mode2", isMode2);
     }
     
-    private void showModeToast(String msg) {
-        Toast toast = Toast.makeText(this, msg, Toast.LENGTH_SHORT);
-        toast.setGravity(Gravity.CENTER, 0, 0);
-        toast.show();
+    private void setupAutoModeToggle() {
+        CheckBox cbAutoMode = findViewById(R.id.cbAutoMode);
+        if (!ambientLight.isAvailable()) {
+            cbAutoMode.setVisibility(View.GONE);
+            autoMode = false;
+            return;
+        }
+        cbAutoMode.setChecked(autoMode);
+        cbAutoMode.setOnCheckedChangeListener((button, checked) -> {
+            autoMode = checked;
+            prefsWriter.putBoolean(KEY_AUTO_MODE, checked);
+            if (checked) {
+                ambientLight.start();
+            } else {
+                ambientLight.stop();
+            }
+        });
     }
 
-    
-    private void checkBoundsAndFix() {
-        if (imageView.getDrawable() == null) return;
-        
-        float[] values = new float[9];
-        currentMatrix.getValues(values);
-        float transX = values[Matrix.MTRANS_X];
-        float transY = values[Matrix.MTRANS_Y];
-        float scaleX = values[Matrix.MSCALE_X];
-        float scaleY = values[Matrix.MSCALE_Y];
-        
-        int imgW = imageView.getDrawable().getIntrinsicWidth();
-        int imgH = imageView.getDrawable().getIntrinsicHeight();
-        float displayW = imgW * scaleX;
-        float displayH = imgH * scaleY;
-        
-        // 1. Min Scale Check: Width cannot be less than screen width
-        if (displayW < screenWidth) {
-            float fixScale = screenWidth / (float)imgW;
-            currentMatrix.setScale(fixScale, fixScale);
-            baseScale = fixScale;
-            // Re-get values after reset
-            currentMatrix.getValues(values);
-            transX = values[Matrix.MTRANS_X];
-            transY = values[Matrix.MTRANS_Y];
-            scaleX = values[Matrix.MSCALE_X];
-            scaleY = values[Matrix.MSCALE_Y];
-            displayW = imgW * scaleX;
-            displayH = imgH * scaleY;
+    /** Ambient light crossed into day or night: Mode 1 by day, Mode 2 by night. */
+    private void onAmbientDarkChanged(boolean dark) {
+        // A manual choice stands until the light changes again; never fight a drag
+        if (!autoMode || isAdjustingMode || isMode2 == dark) return;
+        isMode2 = dark;
+        applyBrightness(isMode2 ? mode2Level : mode1Level, true);
+        prefsWriter.putBoolean("is_mode2", isMode2);
+    }
+
+    /**
+     * Slideshow settings live in prefs. Launching with any of the
+     * {@code slideshow*} keys as intent extras (dwell as a long) sets them, so
+     * a parked display can be set up from the launching intent.
+     */
+    private void setupSlideshow() {
+        Intent intent = getIntent();
+        if (intent != null) {
+            if (intent.hasExtra(KEY_SLIDESHOW)) {
+                prefsWriter.putBoolean(KEY_SLIDESHOW, intent.getBooleanExtra(KEY_SLIDESHOW, false));
+            }
+            if (intent.hasExtra(KEY_SLIDESHOW_DWELL_MS)) {
+                prefsWriter.putLong(KEY_SLIDESHOW_DWELL_MS, intent.getLongExtra(KEY_SLIDESHOW_DWELL_MS, SLIDESHOW_DWELL_MS));
+            }
+            if (intent.hasExtra(KEY_SLIDESHOW_SHUFFLE)) {
+                prefsWriter.putBoolean(KEY_SLIDESHOW_SHUFFLE, intent.getBooleanExtra(KEY_SLIDESHOW_SHUFFLE, true));
+            }
+            if (intent.hasExtra(KEY_SLIDESHOW_CROSSFADE)) {
+                prefsWriter.putBoolean(KEY_SLIDESHOW_CROSSFADE, intent.getBooleanExtra(KEY_SLIDESHOW_CROSSFADE, true));
+            }
         }
-        
-        // 2. Pan Bounds Check
-        float minTransX, maxTransX, minTransY, maxTransY;
-        
-        if (displayW <= screenWidth) {
-            minTransX = 0;
-            maxTransX = 0; // Center or stick to left? Usually center if smaller, but here we force min width = screen width
-            // If strictly equal, both 0.
-        } else {
-            minTransX = screenWidth - displayW;
-            maxTransX = 0;
+        slideshowCrossfade = prefsWriter.getBoolean(KEY_SLIDESHOW_CROSSFADE, true);
+
+        slideshow = new SlideshowController(new SlideshowController.Host() {
+            @Override
+            public int playlistSize() {
+                return playlist.size();
+            }
+
+            @Override
+            public String playlistUri(int index) {
+                return playlist.get(index);
+            }
+
+            @Override
+            public int currentIndex() {
+                return currentPlaylistIndex;
+            }
+
+            @Override
+            public void decodeAhead(String uri) {
+                prefetcher.prefetchAhead(uri, displayOptions());
+            }
+
+            @Override
+            public boolean isDecoded(String uri) {
+                // Not prefetched; nothing to wait for, the downloader takes it from here
+                return prefetcher.isReady(uri) || NetworkImageLoader.isNetworkUri(uri);
+            }
+
+            @Override
+            public void showSlide(String uri) {
+                MainActivity.this.showSlide(uri);
+            }
+        });
+        // Shorter dwells are for soak runs; keep at least a second on screen
+        long dwell = Math.max(1000, prefsWriter.getLong(KEY_SLIDESHOW_DWELL_MS, SLIDESHOW_DWELL_MS));
+        slideshow.configure(dwell, SLIDESHOW_LEAD_MS, prefsWriter.getBoolean(KEY_SLIDESHOW_SHUFFLE, true));
+
+        cbSlideshow = findViewById(R.id.cbSlideshow);
+        cbSlideshow.setChecked(prefsWriter.getBoolean(KEY_SLIDESHOW, false));
+        cbSlideshow.setOnCheckedChangeListener((button, checked) -> {
+            prefsWriter.putBoolean(KEY_SLIDESHOW, checked);
+            if (checked) {
+                startSlideshow();
+            } else {
+                slideshow.stop();
+            }
+        });
+        if (cbSlideshow.isChecked()) {
+            startSlideshow();
         }
-        
-        if (displayH <= screenHeight) {
-            // Center vertically
-            float offset = (screenHeight - displayH) / 2f;
-            minTransY = offset;
-            maxTransY = offset;
-        } else {
-            minTransY = screenHeight - displayH;
-            maxTransY = 0;
+    }
+
+    private void startSlideshow() {
+        fillSlideshowPlaylist();
+        slideshow.start();
+        // Runs once the config panel closes
+        if (configPanel.getVisibility() == View.VISIBLE) {
+            slideshow.pause();
+        }
+    }
+
+    /** Continue after a touch or the config panel, unless the panel is still up. */
+    private void resumeSlideshow() {
+        if (configPanel.getVisibility() != View.VISIBLE) {
+            slideshow.resume();
         }
-        
-        float newTransX = transX;
-        float newTransY = transY;
-        
-        if (newTransX > maxTransX) newTransX = maxTransX;
-        if (newTransX < minTransX) newTransX = minTransX;
-        
-        if (newTransY > maxTransY) newTransY = maxTransY;
-        if (newTransY < minTransY) newTransY = minTransY;
-        
-        values[Matrix.MTRANS_X] = newTransX;
-        values[Matrix.MTRANS_Y] = newTransY;
-        currentMatrix.setValues(values);
+    }
+
+    private void setupNearDuplicatesToggle() {
+        dedupNearDuplicates = prefsWriter.getBoolean(KEY_DEDUP_NEAR, false);
+        CheckBox cbNearDuplicates = findViewById(R.id.cbNearDuplicates);
+        cbNearDuplicates.setChecked(dedupNearDuplicates);
+        // Applies from the next scan
+        cbNearDuplicates.setOnCheckedChangeListener((button, checked) -> {
+            dedupNearDuplicates = checked;
+            prefsWriter.putBoolean(KEY_DEDUP_NEAR, checked);
+        });
+    }
+
+    /**
+     * With nothing scanned yet, e.g. straight after launch, the slideshow
+     * plays this mode's local history. Network entries are left out: the
+     * slideshow can't decode them ahead. A scan replaces the lot.
+     */
+    private void fillSlideshowPlaylist() {
+        if (playlist.size() >= 2) return;
+        List<String> recent = new ArrayList<>();
+        for (String uri : history.list(historyNamespace(), MAX_HISTORY)) {
+            if (!NetworkImageLoader.isNetworkUri(uri)) {
+                recent.add(uri);
+            }
+        }
+        Collections.sort(recent, String::compareToIgnoreCase);
+        playlist.mergeSorted(recent);
+        if (currentUriString != null) {
+            currentPlaylistIndex = playlist.indexOf(currentUriString);
+        }
+    }
+
+    /**
+     * Slideshow transition: like the next image, without the toast. The
+     * playlist holds only the current mode's images, so a slide never
+     * crosses the public/private line.
+     */
+    private void showSlide(String uri) {
+        savePosition();
+        crossfadeNext = slideshowCrossfade;
+        saveAndLoad(uri);
+        crossfadeNext = false;
+    }
+
+    private void showModeToast(String msg) {
+        Toast toast = Toast.makeText(this, msg, Toast.LENGTH_SHORT);
+        toast.setGravity(Gravity.CENTER, 0, 0);
+        toast.show();
     }
 
     private void togglePrivateMode() {
+        // The slideshow has to be started again in the other mode
+        cbSlideshow.setChecked(false);
+
         // Flip mode and persist it
         isPrivateMode = !isPrivateMode;
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        prefs.edit().putBoolean(KEY_IS_PRIVATE_MODE, isPrivateMode).apply();
+        prefsWriter.putBoolean(KEY_IS_PRIVATE_MODE, isPrivateMode);
 
         String modeName = isPrivateMode ? "Private Mode" : "Public Mode";
         Toast.makeText(this, "Switched to " + modeName, Toast.LENGTH_SHORT).show();
 
         // Restore image for the newly selected mode
-        restoreLastImageForCurrentMode(prefs);
+        restoreLastImageForCurrentMode();
     }
 
     /**
@@ -660,151 +947,126 @@ public class MainActivity extends AppCompatActivity {
      *   2. Fallback to mode-specific last URI key
      *   3. Clear image if nothing is available
      */
-    private void restoreLastImageForCurrentMode(SharedPreferences prefs) {
+    private void restoreLastImageForCurrentMode() {
         // Reset playlist for the current mode
         playlist.clear();
         currentPlaylistIndex = -1;
 
         // Try history first
-        String historyKey = isPrivateMode ? KEY_HISTORY_PRIVATE : KEY_HISTORY_PUBLIC;
-        String jsonString = prefs.getString(historyKey, "[]");
-        try {
-            JSONArray jsonArray = new JSONArray(jsonString);
-            if (jsonArray.length() > 0) {
-                String last = jsonArray.getString(0);
-                saveAndLoad(last); // This will also rebuild playlist and history state
-                return;
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
+        String latest = history.latest(historyNamespace());
+        if (latest != null) {
+            saveAndLoad(latest); // This will also rebuild playlist and history state
+            return;
         }
 
-        // Fallback to simple last-uri key if history is empty or invalid
+        // Fallback to simple last-uri key if history is empty
         String uriKey = isPrivateMode ? KEY_URI_PRIVATE : KEY_URI_PUBLIC;
-        String last = prefs.getString(uriKey, null);
+        String last = prefsWriter.getString(uriKey, null);
         if (last != null) {
             saveAndLoad(last);
         } else {
             // No data for this mode
-            imageView.setImageDrawable(null);
+            renderer.setBitmap(null);
+            renderedBitmap = null;
+            bootFrame = null;
+            tileLayer.setSource(null, 0, 0);
+            viewport.setContentSize(0, 0);
             currentUriString = null;
+            // No startup decode to compete with
+            pregenerateHistoryThumbnails();
         }
     }
 
+    /**
+     * Fill in the thumbnails the history grid will ask for first. Held back
+     * until the first image is on screen so the reads and decodes don't slow
+     * the cold-start decode; opening the panel sooner starts them at once.
+     */
+    private void pregenerateHistoryThumbnails() {
+        if (historyThumbnailsQueued) return;
+        historyThumbnailsQueued = true;
+        thumbnails.pregenerate(history.list(HistoryStore.PUBLIC, THUMBNAIL_PREGENERATE_COUNT));
+        thumbnails.pregenerate(history.list(HistoryStore.PRIVATE, THUMBNAIL_PREGENERATE_COUNT));
+    }
+
     private void toggleConfig() {
         if (configPanel == null) return;
         if (configPanel.getVisibility() == View.VISIBLE) {
             configPanel.setVisibility(View.GONE);
             hideSystemUI();
             privacyPatternIndex = 0;
+            resumeSlideshow();
         } else {
+            pregenerateHistoryThumbnails();
             refreshHistoryUI();
             configPanel.setVisibility(View.VISIBLE);
             privacyPatternIndex = 0;
+            slideshow.pause();
         }
     }
 
-    private void refreshHistoryUI() {
-        if (historyContainer == null) return;
-
-        historyContainer.removeAllViews();
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String key = isPrivateMode ? KEY_HISTORY_PRIVATE : KEY_HISTORY_PUBLIC;
-        String jsonString = prefs.getString(key, "[]");
-
-        try {
-            JSONArray jsonArray = new JSONArray(jsonString);
-            if (jsonArray.length() == 0) {
-                TextView empty = new TextView(this);
-                empty.setText(R.string.history_empty);
-                empty.setTextColor(Color.parseColor("#757575"));
-                empty.setPadding(0, 16, 0, 16);
-                empty.setGravity(Gravity.CENTER);
-                historyContainer.addView(empty);
-                return;
+    private void setupHistoryGrid() {
+        float density = getResources().getDisplayMetrics().density;
+        int thumbSize = (int) (48 * density);
+        int spacing = (int) (4 * density);
+        thumbnails = new ThumbnailLoader(this, thumbSize, (uri, bitmap) -> historyAdapter.onThumbnail(uri, bitmap));
+        historyAdapter = new HistoryAdapter(this, thumbnails, thumbSize, spacing, new HistoryAdapter.Listener() {
+            @Override
+            public void onOpen(String uri) {
+                saveAndLoad(uri);
             }
 
-            int thumbSize = (int) (48 * getResources().getDisplayMetrics().density);
-            int spacing = (int) (4 * getResources().getDisplayMetrics().density);
-            int columns = 4;
-            LinearLayout currentRow = null;
-
-            for (int i = 0; i < jsonArray.length(); i++) {
-                final String uri = jsonArray.getString(i);
-
-                // New row every N thumbnails
-                if (i % columns == 0) {
-                    currentRow = new LinearLayout(this);
-                    currentRow.setOrientation(LinearLayout.HORIZONTAL);
-                    currentRow.setLayoutParams(new LinearLayout.LayoutParams(
-                            LinearLayout.LayoutParams.MATCH_PARENT,
-                            LinearLayout.LayoutParams.WRAP_CONTENT));
-                    currentRow.setPadding(0, i == 0 ? 0 : spacing, 0, 0);
-                    historyContainer.addView(currentRow);
-                }
-
-                if (currentRow != null) {
-                    ImageView thumb = new ImageView(this);
-                    LinearLayout.LayoutParams thumbLp = new LinearLayout.LayoutParams(thumbSize, thumbSize);
-                    if (i % columns != columns - 1) {
-                        thumbLp.setMarginEnd(spacing);
-                    }
-                    thumb.setLayoutParams(thumbLp);
-                    thumb.setScaleType(ImageView.ScaleType.CENTER_CROP);
-                    thumb.setBackgroundResource(android.R.drawable.list_selector_background);
-
-                    try {
-                        Glide.with(this)
-                                .load(Uri.parse(uri))
-                                .apply(new RequestOptions()
-                                        .centerCrop()
-                                        .override(thumbSize, thumbSize))
-                                .into(thumb);
-                    } catch (Exception ignored) {}
-
-                    // Tap to load this image
-                    thumb.setOnClickListener(v -> saveAndLoad(uri));
-
-                    // Long press to delete this history entry
-                    thumb.setOnLongClickListener(v -> {
-                        try {
-                            String raw = prefs.getString(key, "[]");
-                            JSONArray arr = new JSONArray(raw);
-                            List<String> list = new ArrayList<>();
-                            for (int idx = 0; idx < arr.length(); idx++) {
-                                String item = arr.getString(idx);
-                                if (!item.equals(uri)) {
-                                    list.add(item);
-                                }
-                            }
-                            JSONArray newArr = new JSONArray(list);
-                            prefs.edit().putString(key, newArr.toString()).apply();
-                            Toast.makeText(this, "Removed from history", Toast.LENGTH_SHORT).show();
-                            refreshHistoryUI();
-                        } catch (JSONException ex) {
-                            ex.printStackTrace();
-                        }
-                        return true;
-                    });
-
-                    currentRow.addView(thumb);
+            @Override
+            public void onRemove(String uri) {
+                if (!history.remove(historyNamespace(), uri)) {
+                    Log.w(TAG, "Failed to save history", history.getLastError());
                 }
+                historyAdapter.remove(uri, MainActivity.this::updateHistoryEmpty);
+                Toast.makeText(MainActivity.this, "Removed from history", Toast.LENGTH_SHORT).show();
             }
-        } catch (JSONException e) {
-            e.printStackTrace();
+        });
+        historyGrid.setLayoutManager(new GridLayoutManager(this, HISTORY_COLUMNS));
+        historyGrid.setHasFixedSize(true);
+        historyGrid.setAdapter(historyAdapter);
+    }
+
+    private void refreshHistoryUI() {
+        budgets.begin(budgets.refreshHistoryUI);
+        try {
+            if (historyAdapter == null) return;
+
+            // Diffed against what the grid already shows, so unchanged cells keep their bitmaps;
+            // the other mode's history shares nothing with it and replaces it outright
+            int namespace = historyNamespace();
+            boolean replace = namespace != shownHistoryNamespace;
+            shownHistoryNamespace = namespace;
+            historyAdapter.setItems(history.list(namespace, MAX_HISTORY), replace, this::updateHistoryEmpty);
+        } finally {
+            budgets.end(budgets.refreshHistoryUI);
         }
     }
+
+    private void updateHistoryEmpty() {
+        boolean empty = historyAdapter.getItemCount() == 0;
+        historyEmpty.setVisibility(empty ? View.VISIBLE : View.GONE);
+        historyGrid.setVisibility(empty ? View.GONE : View.VISIBLE);
+    }
     
     private void loadNextImage() {
-        if (playlist.isEmpty()) {
-            Toast.makeText(this, "No images loaded", Toast.LENGTH_SHORT).show();
-            return;
+        budgets.begin(budgets.loadNextImage);
+        try {
+            if (playlist.isEmpty()) {
+                Toast.makeText(this, "No images loaded", Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            savePosition();
+            currentPlaylistIndex = (currentPlaylistIndex + 1) % playlist.size();
+            saveAndLoad(playlist.get(currentPlaylistIndex));
+            Toast.makeText(this, String.format("Image %d/%d", currentPlaylistIndex + 1, playlist.size()), Toast.LENGTH_SHORT).show();
+        } finally {
+            budgets.end(budgets.loadNextImage);
         }
-        
-        savePosition();
-        currentPlaylistIndex = (currentPlaylistIndex + 1) % playlist.size();
-        saveAndLoad(playlist.get(currentPlaylistIndex));
-        Toast.makeText(this, String.format("Image %d/%d", currentPlaylistIndex + 1, playlist.size()), Toast.LENGTH_SHORT).show();
     }
     
     private void loadPreviousImage() {
@@ -829,93 +1091,169 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void saveAndLoad(String uri) {
-        if (configPanel != null) {
-            configPanel.setVisibility(View.GONE);
+        budgets.begin(budgets.saveAndLoad);
+        try {
+            if (configPanel != null && configPanel.getVisibility() == View.VISIBLE) {
+                configPanel.setVisibility(View.GONE);
+                resumeSlideshow();
+            }
+            // Update playlist index; adds to the front if loading manually
+            currentPlaylistIndex = playlist.prepend(uri);
+
+            // Save current URI and active mode
+            currentUriString = uri;
+            String key = isPrivateMode ? KEY_URI_PRIVATE : KEY_URI_PUBLIC;
+            prefsWriter.putString(key, uri)
+                    .putBoolean(KEY_IS_PRIVATE_MODE, isPrivateMode);
+
+            // Add to history
+            addToHistory(uri);
+
+            loadImage(uri);
+            hideSystemUI();
+        } finally {
+            budgets.end(budgets.saveAndLoad);
         }
-        // Update playlist index if loading manually
-        if (playlist.contains(uri)) {
-            currentPlaylistIndex = playlist.indexOf(uri);
-        } else {
-            // Add to playlist if not present
-            playlist.add(0, uri);
-            currentPlaylistIndex = 0;
+    }
+
+    private void addToHistory(String uri) {
+        if (!history.touch(historyNamespace(), uri)) {
+            Log.w(TAG, "Failed to save history", history.getLastError());
         }
+    }
 
-        // Save current URI and active mode
-        currentUriString = uri;
-        String key = isPrivateMode ? KEY_URI_PRIVATE : KEY_URI_PUBLIC;
-        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
-                .edit()
-                .putString(key, uri)
-                .putBoolean(KEY_IS_PRIVATE_MODE, isPrivateMode)
-                .apply();
-        
-        // Add to history
-        addToHistory(uri);
-        
-        loadImage(uri);
-        hideSystemUI();
+    private int historyNamespace() {
+        return isPrivateMode ? HistoryStore.PRIVATE : HistoryStore.PUBLIC;
     }
 
-    private void addToHistory(String uri) {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String key = isPrivateMode ? KEY_HISTORY_PRIVATE : KEY_HISTORY_PUBLIC;
-        String jsonString = prefs.getString(key, "[]");
+    /** One-time move of the JSON history lists out of PicPrefs. */
+    private void migrateLegacyHistory() {
+        if (prefsWriter.getBoolean(KEY_HISTORY_MIGRATED, false)) return;
+
+        history.importLegacy(HistoryStore.PUBLIC, parseLegacyHistory(prefsWriter.getString(KEY_HISTORY_PUBLIC, null)));
+        history.importLegacy(HistoryStore.PRIVATE, parseLegacyHistory(prefsWriter.getString(KEY_HISTORY_PRIVATE, null)));
+        if (history.getLastError() != null) {
+            // Keep the old lists so the next launch can retry
+            Log.w(TAG, "History migration failed", history.getLastError());
+            return;
+        }
+        prefsWriter.remove(KEY_HISTORY_PUBLIC)
+                .remove(KEY_HISTORY_PRIVATE)
+                .putBoolean(KEY_HISTORY_MIGRATED, true);
+    }
+
+    private static List<String> parseLegacyHistory(String json) {
         List<String> list = new ArrayList<>();
-        
+        if (json == null) return list;
         try {
-            JSONArray jsonArray = new JSONArray(jsonString);
+            JSONArray jsonArray = new JSONArray(json);
             for (int i = 0; i < jsonArray.length(); i++) {
-                String item = jsonArray.getString(i);
-                if (!item.equals(uri)) { // Remove duplicates
-                    list.add(item);
-                }
+                list.add(jsonArray.getString(i));
             }
         } catch (JSONException e) {
-            e.printStackTrace();
+            Log.w(TAG, "Dropping unreadable history: " + e.getMessage());
         }
-
-        // Add to top
-        list.add(0, uri);
-        
-        // Limit size
-        if (list.size() > MAX_HISTORY) {
-            list = list.subList(0, MAX_HISTORY);
-        }
-
-        // Save back
-        JSONArray newArray = new JSONArray(list);
-        prefs.edit().putString(key, newArray.toString()).apply();
+        return list;
     }
 
-
-
     private void loadImage(String uriString) {
         if (uriString == null || uriString.isEmpty()) {
             Toast.makeText(this, "Invalid image URI", Toast.LENGTH_SHORT).show();
             return;
         }
+        // A download still running for the previous image stays on disk to resume
+        networkLoader.cancel();
+        networkPreview = null;
         
+        // Neighbour already decoded: show it in this frame
+        NeighborPrefetcher.Entry prefetched = prefetcher.take(uriString);
+        if (prefetched != null) {
+            // Drops any load still running for the previous image
+            Glide.with(this).clear(imageView);
+            progressBar.setVisibility(View.GONE);
+            Metrics.count("load.prefetchHit");
+            // Fade only from a prefetched bitmap: its release can wait for the fade to end
+            NeighborPrefetcher.Entry outgoing = displayedPrefetch;
+            boolean fade = crossfadeNext && outgoing != null && outgoing.bitmap == renderedBitmap;
+            Bitmap fadeFrom = renderedBitmap;
+            if (fade) {
+                fadeMatrix.set(currentMatrix);
+            }
+            renderImage(prefetched.bitmap);
+            if (fade) {
+                displayedPrefetch = null;
+                renderer.crossfade(fadeFrom, fadeMatrix, CROSSFADE_MS, () -> prefetcher.release(outgoing));
+            }
+            showingPrefetched(prefetched);
+            prefetchNeighbors(uriString);
+            return;
+        }
+        
+        if (NetworkImageLoader.isNetworkUri(uriString)) {
+            loadFromNetwork(uriString);
+        } else {
+            loadWithGlide(uriString, Uri.parse(uriString), null);
+        }
+    }
+
+    /**
+     * Download into the disk cache, showing progressive previews meanwhile,
+     * then decode the cached file like a local one.
+     */
+    private void loadFromNetwork(String url) {
+        progressBar.setVisibility(View.VISIBLE);
+        final long requestStart = Metrics.now();
+        networkLoader.load(url, screenWidth > 0 ? screenWidth : 2048, new NetworkImageLoader.Callback() {
+            @Override
+            public void onPartial(Bitmap preview) {
+                if (!url.equals(currentUriString)) return;
+                Metrics.count("net.preview");
+                networkPreview = preview;
+                renderImage(preview);
+            }
+
+            @Override
+            public void onComplete(File file) {
+                if (!url.equals(currentUriString)) return;
+                Metrics.since("net.download", requestStart);
+                loadWithGlide(url, file, networkPreview);
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                progressBar.setVisibility(View.GONE);
+                Metrics.count("net.failed");
+                Toast.makeText(MainActivity.this, getString(R.string.msg_load_error) + "\n" + e.getMessage(), Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * Decode {@code model} for {@code uriString}. A {@code preview} or the
+     * boot frame already on screen stays there as the placeholder until the
+     * full image replaces it; Glide would otherwise clear the view when the
+     * request starts.
+     */
+    private void loadWithGlide(String uriString, Object model, @Nullable Bitmap preview) {
         try {
             progressBar.setVisibility(View.VISIBLE);
-            
-            // Optimized Glide configuration with proper caching
-            RequestOptions options = new RequestOptions()
-                    .timeout(30000)
-                    .override(2048, 2048)
-                    .diskCacheStrategy(DiskCacheStrategy.AUTOMATIC)
-                    .skipMemoryCache(false);
 
-            Uri uri = Uri.parse(uriString);
+            final long requestStart = Metrics.now();
+            RequestOptions options = displayOptions();
+            Bitmap onScreen = preview != null ? preview : bootFrame;
+            if (onScreen != null) {
+                options = options.placeholder(new BitmapDrawable(getResources(), onScreen));
+            }
 
             Glide.with(this)
                 .asBitmap()
-                .load(uri)
+                .load(model)
                 .apply(options)
                 .listener(new RequestListener<Bitmap>() {
                     @Override
                     public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Bitmap> target, boolean isFirstResource) {
                         progressBar.setVisibility(View.GONE);
+                        Metrics.count("glide.failed");
                         Log.e(TAG, "Failed to load image: " + uriString, e);
                         String errorMsg = (e != null) ? e.getMessage() : "Unknown error";
                         Toast.makeText(MainActivity.this, getString(R.string.msg_load_error) + "\n" + errorMsg, Toast.LENGTH_LONG).show();
@@ -925,8 +1263,12 @@ public class MainActivity extends AppCompatActivity {
                     @Override
                     public boolean onResourceReady(Bitmap resource, Object model, Target<Bitmap> target, DataSource dataSource, boolean isFirstResource) {
                         progressBar.setVisibility(View.GONE);
+                        Metrics.since("glide.load", requestStart);
                         if (resource != null) {
+                            networkPreview = null;
                             renderImage(resource);
+                            showingPrefetched(null);
+                            prefetchNeighbors(uriString);
                         }
                         Log.i(TAG, "Image loaded successfully: " + uriString);
                         return true; 
@@ -940,11 +1282,39 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /** Options shared by the main request and prefetches, so a prefetched bitmap is display-ready. */
+    private RequestOptions displayOptions() {
+        // Optimized Glide configuration with proper caching
+        // Fit-width is all renderImage() shows at 1:1; zoomed detail comes from TileLayerView.
+        // The height is capped too, so a very tall image is decoded narrower instead of huge.
+        int targetWidth = screenWidth > 0 ? screenWidth : 2048;
+        int maxHeight = (screenHeight > 0 ? screenHeight : 2048) * MAX_BASE_SCREENS;
+        return decodePolicy.apply(new RequestOptions()
+                .timeout(30000)
+                .downsample(DownsampleStrategy.CENTER_INSIDE)
+                .override(targetWidth, maxHeight)
+                .diskCacheStrategy(DiskCacheStrategy.AUTOMATIC)
+                .skipMemoryCache(false));
+    }
+
+    private void prefetchNeighbors(String uriString) {
+        prefetcher.prefetchAround(playlist, playlist.indexOf(uriString), displayOptions());
+    }
+
+    /** Swap the prefetched entry backing the image view, releasing the previous one. */
+    private void showingPrefetched(@Nullable NeighborPrefetcher.Entry entry) {
+        if (displayedPrefetch != null && displayedPrefetch != entry) {
+            prefetcher.release(displayedPrefetch);
+        }
+        displayedPrefetch = entry;
+    }
+
     private void renderImage(Bitmap bitmap) {
         int imgW = bitmap.getWidth();
         int imgH = bitmap.getHeight();
         
         if (imgW == 0 || imgH == 0) return;
+        long renderStart = Metrics.begin("renderImage");
 
         if (screenWidth == 0 || screenHeight == 0) {
             updateScreenDimensions();
@@ -952,11 +1322,13 @@ public class MainActivity extends AppCompatActivity {
 
         // Initial scale: Fit Width
         float scale = (float) screenWidth / imgW;
-        baseScale = scale;
+        viewportAnimator.stop();
+        viewport.setContentSize(imgW, imgH);
+        viewport.setBaseScale(scale);
         currentMatrix.reset();
         currentMatrix.setScale(scale, scale);
         
-        // Center vertically if it fits, otherwise top aligned (handled by checkBoundsAndFix logic usually, but let's set initial pos)
+        // Center vertically if it fits, otherwise top aligned (clampToBounds would do it too, but set the initial pos)
         float displayH = imgH * scale;
         float transY = 0;
         if (displayH < screenHeight) {
@@ -964,129 +1336,201 @@ public class MainActivity extends AppCompatActivity {
         }
         
         // Check for saved position
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String key = "pos_" + currentUriString;
-        
-        if (currentUriString != null && prefs.contains(key)) {
-            try {
-                float savedY = prefs.getFloat(key, 0f);
-                transY = savedY;
-                
-                float savedX = 0f;
-                if (prefs.contains("pos_x_" + currentUriString)) {
-                    savedX = prefs.getFloat("pos_x_" + currentUriString, 0f);
-                }
-                
-                float savedScale = 0f;
-                if (prefs.contains("scale_" + currentUriString)) {
-                    savedScale = prefs.getFloat("scale_" + currentUriString, 0f);
-                }
-                
-                if (savedScale > 0) {
-                    currentMatrix.setScale(savedScale, savedScale);
-                }
-                currentMatrix.postTranslate(savedX, transY);
-                
-            } catch (ClassCastException e) {
-                currentMatrix.postTranslate(0, transY);
+        ViewStateStore.State saved = currentUriString != null ? viewStates.get(currentUriString) : null;
+        if (saved != null) {
+            float savedScale = saved.scale;
+            // Saved against a bitmap of another size (different decode target); keep the on-screen size
+            if (savedScale > 0 && saved.imageWidth > 0 && saved.imageWidth != imgW) {
+                savedScale *= (float) saved.imageWidth / imgW;
             }
+            if (savedScale > 0) {
+                currentMatrix.setScale(savedScale, savedScale);
+            }
+            currentMatrix.postTranslate(saved.x, saved.y);
         } else {
             currentMatrix.postTranslate(0, transY);
         }
         
-        imageView.setImageMatrix(currentMatrix);
-        imageView.setImageBitmap(bitmap);
+        renderer.setBitmap(bitmap);
+        if (bootFrame != null) {
+            bootFrame = null;
+            Log.i(TAG, "First image " + (SystemClock.uptimeMillis() - Process.getStartUptimeMillis())
+                    + " ms after process start");
+        }
+        if (!historyThumbnailsQueued) {
+            // After the frame that shows this image
+            Choreographer.getInstance().postFrameCallback(frameTimeNanos ->
+                    mainHandler.post(this::pregenerateHistoryThumbnails));
+        }
+        if (!firstImageRendered && Metrics.isEnabled()) {
+            firstImageRendered = true;
+            Choreographer.getInstance().postFrameCallback(frameTimeNanos ->
+                    Metrics.sinceProcessStart("startup.firstImageFrame"));
+        }
+        renderedBitmap = bitmap;
+        renderedPrivate = isPrivateMode;
+        renderedUriString = currentUriString;
+        renderedImageWidth = imgW;
+        tileLayer.setSource(currentUriString, imgW, imgH);
         
         // Ensure bounds are valid (e.g. if screen rotated)
-        checkBoundsAndFix();
-        imageView.setImageMatrix(currentMatrix);
+        viewport.clampToBounds();
+        viewport.applyNow();
+        Metrics.end("renderImage", renderStart);
+    }
+
+    /**
+     * The view stack by default; the single-surface renderer when the
+     * {@code renderer_surface} pref is set. Launching with that boolean as an
+     * intent extra sets the pref, so both paths can be compared on a device.
+     */
+    private ImageRenderer createRenderer() {
+        boolean useSurface = prefsWriter.getBoolean(KEY_RENDERER_SURFACE, false);
+        Intent intent = getIntent();
+        if (intent != null && intent.hasExtra(KEY_RENDERER_SURFACE)) {
+            useSurface = intent.getBooleanExtra(KEY_RENDERER_SURFACE, false);
+            prefsWriter.putBoolean(KEY_RENDERER_SURFACE, useSurface);
+        }
+        if (!useSurface) {
+            return new ImageViewRenderer(imageView, blackOverlay, tileLayer, findViewById(R.id.fadeView));
+        }
+        // Glide still targets the image view for request lifecycle; it never shows
+        imageView.setVisibility(View.GONE);
+        SurfaceView surface = findViewById(R.id.imageSurface);
+        Log.i(TAG, "Using surface renderer");
+        return new SurfaceImageRenderer(surface, tileLayer);
+    }
+
+    /**
+     * Metrics are off unless the {@code metrics_enabled} pref is set; launching
+     * with that boolean as an intent extra sets it, so a fleet device can be
+     * switched without a new build.
+     */
+    private void configureMetrics() {
+        boolean on = prefsWriter.getBoolean(KEY_METRICS, false);
+        Intent intent = getIntent();
+        if (intent != null && intent.hasExtra(KEY_METRICS)) {
+            on = intent.getBooleanExtra(KEY_METRICS, false);
+            prefsWriter.putBoolean(KEY_METRICS, on);
+        }
+        Metrics.setEnabled(on);
+    }
+
+    /**
+     * Put the frame saved at the last pause on screen before prefs, history or
+     * Glide are touched. The real image replaces it when it renders.
+     */
+    private void showBootSnapshot() {
+        bootSnapshot = new BootSnapshot(new File(getFilesDir(), BOOT_SNAPSHOT_FILE));
+        if (!prefsWriter.getBoolean(KEY_FAST_BOOT, true)) return;
+
+        Bitmap frame = bootSnapshot.load(screenWidth, screenHeight);
+        if (frame == null) return;
+        // Already laid out for the screen
+        renderer.setMatrix(new Matrix());
+        renderer.setBitmap(frame);
+        bootFrame = frame;
+        Choreographer.getInstance().postFrameCallback(frameTimeNanos -> {
+            // Marker for the frame that first draws the snapshot
+            Trace.beginSection("BootSnapshot.firstFrame");
+            Trace.endSection();
+            Metrics.sinceProcessStart("startup.bootSnapshotFrame");
+            Log.i(TAG, "Boot snapshot on screen " + (SystemClock.uptimeMillis() - Process.getStartUptimeMillis())
+                    + " ms after process start");
+        });
+    }
+
+    private void saveBootSnapshot() {
+        // Launches always start public; a private image must never show at boot
+        if (isPrivateMode || renderedPrivate || renderedBitmap == null || renderedUriString == null) return;
+        bootSnapshot.save(renderedUriString, renderedBitmap, currentMatrix, screenWidth, screenHeight);
+    }
+
+    private void trackFrameTimes() {
+        windowFrames = new FrameStats("window");
+        frameMetricsListener = (window, metrics, dropCount) ->
+                windowFrames.record(metrics.getMetric(FrameMetrics.TOTAL_DURATION));
+        getWindow().addOnFrameMetricsAvailableListener(frameMetricsListener, mainHandler);
     }
 
     private void savePosition() {
-        if (currentUriString == null) return;
-        
-        float[] values = new float[9];
-        currentMatrix.getValues(values);
-        float x = values[Matrix.MTRANS_X];
-        float y = values[Matrix.MTRANS_Y];
-        float scale = values[Matrix.MSCALE_X];
-        
-        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
-            .edit()
-            .putFloat("pos_" + currentUriString, y)
-            .putFloat("pos_x_" + currentUriString, x)
-            .putFloat("scale_" + currentUriString, scale)
-            .apply();
+        // The matrix belongs to the rendered image, which lags currentUriString while loading
+        if (renderedUriString != null) {
+            float x = viewport.getTranslateX();
+            float y = viewport.getTranslateY();
+            float scale = viewport.getScale();
+
+            if (!viewStates.put(renderedUriString, x, y, scale, renderedImageWidth)) {
+                Log.w(TAG, "Failed to save view state", viewStates.getLastError());
+            }
+        }
             
-        // Also save brightness levels
-        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
-            .edit()
-            .putFloat("mode1_level", mode1Level)
+        // Also save brightness levels; unchanged values cost nothing
+        prefsWriter.putFloat("mode1_level", mode1Level)
             .putFloat("mode2_level", mode2Level)
-            .putBoolean("is_mode2", isMode2)
-            .apply();
+            .putBoolean("is_mode2", isMode2);
     }
 
-    private void startScan() {
+    private void startScan(boolean forceFullVerify) {
         if (isScanning) {
-            Toast.makeText(this, "Scan already in progress", Toast.LENGTH_SHORT).show();
-            return;
+            // Pressing Scan again restarts the walk
+            cancelScan();
+            Toast.makeText(this, "Restarting scan", Toast.LENGTH_SHORT).show();
         }
         isScanning = true;
         progressBar.setVisibility(View.VISIBLE);
         configPanel.setVisibility(View.GONE);
+        resumeSlideshow();
         
         Toast.makeText(this, R.string.msg_scanning, Toast.LENGTH_SHORT).show();
         playlist.clear();
         currentPlaylistIndex = -1;
+
+        final CancellationToken token = new CancellationToken();
+        final int generation = ++scanGeneration;
+        scanToken = token;
         
         new Thread(() -> {
-            long startTime = System.currentTimeMillis();
             try {
-                // Scan common directories
-                File[] dirs = {
-                    Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM),
-                    Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
-                    Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS),
-                    new File(Environment.getExternalStorageDirectory(), "ClPic"), // Custom folder
-                    new File(Environment.getExternalStorageDirectory(), "DCIM/Camera"),
-                };
-                
-                for (File dir : dirs) {
-                    if (dir != null && dir.exists() && dir.isDirectory()) {
-                        scanDirectory(dir);
-                    }
-                }
-                
-                // Sort playlist
-                Collections.sort(playlist, String::compareToIgnoreCase);
-                
-                // Remove duplicates
-                Set<String> seen = new HashSet<>(playlist.size());
-                playlist.removeIf(uri -> !seen.add(uri));
-                
-                long scanTime = System.currentTimeMillis() - startTime;
-                Log.i(TAG, "Scan completed in " + scanTime + "ms, found " + playlist.size() + " images");
-                
-                new Handler(Looper.getMainLooper()).post(() -> {
+                ScanSource source = createScanSource(forceFullVerify);
+
+                // Batches arrive on worker threads; sorting stays off the main thread
+                long scanStart = Metrics.begin("scan");
+                ScanStats stats = source.scan(token, uris -> {
+                    List<String> batch = new ArrayList<>(uris);
+                    Collections.sort(batch, String::compareToIgnoreCase);
+                    mainHandler.post(() -> {
+                        if (generation == scanGeneration && !token.isCancelled()) {
+                            onScanBatch(batch);
+                        }
+                    });
+                });
+                Metrics.end("scan", scanStart);
+                final boolean cancelled = token.isCancelled();
+
+                Log.i(TAG, "Scan " + (cancelled ? "cancelled" : "completed") + " via " + source.getName() + ": " + stats);
+
+                mainHandler.post(() -> {
+                    if (generation != scanGeneration) return;
                     isScanning = false;
+                    scanToken = null;
                     progressBar.setVisibility(View.GONE);
+                    if (cancelled) return;
                     
                     String msg = String.format(getString(R.string.msg_scan_complete), playlist.size());
                     Toast.makeText(MainActivity.this, msg, Toast.LENGTH_SHORT).show();
                     
-                    if (!playlist.isEmpty()) {
-                        // Load first image
-                        currentPlaylistIndex = 0;
-                        saveAndLoad(playlist.get(0));
-                    } else {
+                    if (playlist.isEmpty()) {
                         Toast.makeText(MainActivity.this, R.string.msg_no_images, Toast.LENGTH_SHORT).show();
                     }
+                    pregenerateScanThumbnails();
                 });
             } catch (Exception e) {
                 Log.e(TAG, "Error during scan: " + e.getMessage(), e);
-                new Handler(Looper.getMainLooper()).post(() -> {
+                mainHandler.post(() -> {
+                    if (generation != scanGeneration) return;
                     isScanning = false;
+                    scanToken = null;
                     progressBar.setVisibility(View.GONE);
                     Toast.makeText(MainActivity.this, "Scan error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                 });
@@ -1094,39 +1538,52 @@ public class MainActivity extends AppCompatActivity {
         }).start();
     }
 
-    private void scanDirectory(File dir) {
-        if (dir == null || !dir.exists() || !dir.isDirectory()) {
-            return;
+    /** Scanned images have never been opened; give the first of them thumbnails now. */
+    private void pregenerateScanThumbnails() {
+        int count = Math.min(playlist.size(), THUMBNAIL_PREGENERATE_COUNT);
+        List<String> uris = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            uris.add(playlist.get(i));
         }
-        
-        try {
-            File[] files = dir.listFiles();
-            if (files == null) return;
-            
-            for (File file : files) {
-                if (file.isDirectory() && !file.isHidden()) {
-                    scanDirectory(file); // Recursive scan
-                } else if (file.isFile() && !file.isHidden()) {
-                    String name = file.getName().toLowerCase();
-                    if (isImageFile(name)) {
-                        try {
-                            Uri uri = Uri.fromFile(file);
-                            playlist.add(uri.toString());
-                        } catch (Exception e) {
-                            Log.w(TAG, "Failed to add file: " + file.getPath(), e);
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.w(TAG, "Error scanning directory: " + dir.getPath(), e);
+        thumbnails.pregenerate(uris);
+    }
+
+    private void cancelScan() {
+        if (scanToken != null) {
+            scanToken.cancel();
+            scanToken = null;
         }
+        // Drop batches still queued for the cancelled walk
+        scanGeneration++;
+        isScanning = false;
     }
-    
-    private boolean isImageFile(String filename) {
-        return filename.endsWith(".jpg") || filename.endsWith(".jpeg") || 
-               filename.endsWith(".png") || filename.endsWith(".bmp") || 
-               filename.endsWith(".webp") || filename.endsWith(".gif");
+
+    /**
+     * MediaStore first on API 29+, where raw file access is restricted; the
+     * file walker otherwise, and always when a full re-verify is requested.
+     * Either way copies of the same image are listed once.
+     */
+    private ScanSource createScanSource(boolean forceFullVerify) {
+        ScanSource files = new FileScanSource(this, forceFullVerify, SCAN_BATCH_SIZE, SCAN_BATCH_INTERVAL_MS);
+        ScanSource source = forceFullVerify || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+                ? files : new FallbackScanSource(new MediaStoreScanSource(this), files);
+        return new DedupScanSource(this, source, dedupNearDuplicates);
+    }
+
+    /**
+     * Merge a sorted scan batch into the playlist. The first batch of a scan
+     * also brings up the first image.
+     */
+    private void onScanBatch(List<String> batch) {
+        playlist.mergeSorted(batch);
+
+        if (currentPlaylistIndex >= 0 && currentUriString != null) {
+            // Entries were inserted in front of the current one
+            currentPlaylistIndex = playlist.indexOf(currentUriString);
+        } else if (!playlist.isEmpty()) {
+            // Show something as soon as the first batch lands
+            saveAndLoad(playlist.get(0));
+        }
     }
     
     private void adjustBrightness(float delta) {
@@ -1150,14 +1607,51 @@ public class MainActivity extends AppCompatActivity {
         // HUD removed — no-op
     }
     
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Glide registers for trim callbacks itself; this covers the bitmaps we hold
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            Log.i(TAG, "onTrimMemory(" + level + "), dropping prefetched images and tiles");
+            prefetcher.clear();
+            tileLayer.trimMemory();
+            thumbnails.trimMemory();
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
         
-        // Cancel any ongoing animations
-        if (brightnessAnimator != null && brightnessAnimator.isRunning()) {
-            brightnessAnimator.cancel();
+        cancelScan();
+        slideshow.stop();
+        Log.i(TAG, slideshow.stats());
+
+        viewportAnimator.stop();
+        viewport.cancel();
+        velocityTracker.recycle();
+        Log.i(TAG, viewport.stats());
+        viewport.setTrackAllocations(false);
+        if (frameMetricsListener != null) {
+            getWindow().removeOnFrameMetricsAvailableListener(frameMetricsListener);
+            Log.i(TAG, windowFrames.toString());
+        }
+        if (renderer.getFrameStats() != null) {
+            Log.i(TAG, renderer.getFrameStats().toString());
         }
+        renderer.release();
+        Log.i(TAG, prefetcher.stats());
+        prefetcher.clear();
+        Log.i(TAG, networkLoader.stats());
+        networkLoader.release();
+        showingPrefetched(null);
+        tileLayer.release();
+        thumbnails.release();
+        bootSnapshot.release();
+
+        // Cancel any ongoing animations
+        brightness.cancel();
+        Log.i(TAG, brightness.stats());
         
         // Clear Glide memory
         try {
@@ -1168,6 +1662,11 @@ public class MainActivity extends AppCompatActivity {
         
         // Save final state
         savePosition();
+        viewStates.close();
+        history.close();
+        prefsWriter.flush();
+        Log.i(TAG, prefsWriter.stats());
+        budgets.logReport();
         
         Log.i(TAG, "Activity destroyed, cleanup completed");
     }
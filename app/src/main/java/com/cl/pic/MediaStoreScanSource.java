@@ -0,0 +1,146 @@
+package com.cl.pic;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Environment;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lists images from the MediaStore index instead of walking the file system.
+ *
+ * Pages through the images table by _ID (keyset paging, so each page is an
+ * index range scan rather than an OFFSET skip) with a minimal projection, and
+ * produces content:// URIs, which keep working under scoped storage (API 29+).
+ * Only images under {@link FileScanSource#defaultRoots()} are listed, so
+ * both sources find the same set. Each row's size and mtime go to a
+ * {@link StatListener} with the URIs.
+ */
+class MediaStoreScanSource implements ScanSource {
+
+    private static final int PAGE_SIZE = 1000;
+
+    private static final String[] PROJECTION = {
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.DATE_MODIFIED,
+            MediaStore.Images.Media.SIZE,
+            MediaStore.Images.Media.WIDTH,
+            MediaStore.Images.Media.HEIGHT,
+    };
+
+    private final ContentResolver resolver;
+    private final String rootSelection;
+    private final String[] rootArgs;
+
+    MediaStoreScanSource(Context context) {
+        this.resolver = context.getContentResolver();
+        List<String> args = new ArrayList<>();
+        this.rootSelection = rootSelection(args);
+        this.rootArgs = args.toArray(new String[0]);
+    }
+
+    /**
+     * The scan roots as a prefix match, on RELATIVE_PATH where it exists
+     * (API 29+) and on the absolute DATA path before that.
+     */
+    private static String rootSelection(List<String> args) {
+        boolean relative = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+        String column = relative ? MediaStore.MediaColumns.RELATIVE_PATH : MediaStore.MediaColumns.DATA;
+        String storage = Environment.getExternalStorageDirectory().getPath() + "/";
+        StringBuilder sb = new StringBuilder();
+        for (File root : FileScanSource.defaultRoots()) {
+            String path = root.getPath() + "/";
+            if (relative) {
+                // RELATIVE_PATH only covers primary storage, e.g. "DCIM/Camera/"
+                if (!path.startsWith(storage)) continue;
+                path = path.substring(storage.length());
+            }
+            if (sb.length() > 0) sb.append(" OR ");
+            sb.append(column).append(" LIKE ?");
+            args.add(path + "%");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getName() {
+        return "mediastore";
+    }
+
+    @Override
+    public ScanStats scan(CancellationToken token, Listener listener) {
+        long startNanos = System.nanoTime();
+        Uri collection = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+        long lastId = -1;
+        int total = 0;
+        int pages = 0;
+
+        while (!token.isCancelled()) {
+            List<String> batch = new ArrayList<>(PAGE_SIZE);
+            long[] sizes = new long[PAGE_SIZE];
+            long[] mtimes = new long[PAGE_SIZE];
+            int rows = 0;
+            try (Cursor cursor = queryPage(collection, lastId)) {
+                if (cursor == null) break;
+
+                int idCol = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
+                int sizeCol = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.SIZE);
+                int modifiedCol = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_MODIFIED);
+                while (cursor.moveToNext()) {
+                    rows++;
+                    long id = cursor.getLong(idCol);
+                    lastId = id;
+                    long size = cursor.getLong(sizeCol);
+                    // Zero-byte rows are pending or broken inserts
+                    if (size <= 0) continue;
+                    // DATE_MODIFIED is in seconds, as fstat() reports it
+                    sizes[batch.size()] = size;
+                    mtimes[batch.size()] = cursor.isNull(modifiedCol) ? -1 : cursor.getLong(modifiedCol) * 1000L;
+                    batch.add(ContentUris.withAppendedId(collection, id).toString());
+                }
+            }
+            pages++;
+
+            if (!batch.isEmpty() && !token.isCancelled()) {
+                total += batch.size();
+                if (listener instanceof StatListener) {
+                    ((StatListener) listener).onBatch(batch,
+                            Arrays.copyOf(sizes, batch.size()), Arrays.copyOf(mtimes, batch.size()));
+                } else {
+                    listener.onBatch(batch);
+                }
+            }
+            if (rows < PAGE_SIZE) break;
+        }
+
+        return new ScanStats(total, 0, 0, 0, 1, System.nanoTime() - startNanos);
+    }
+
+    private Cursor queryPage(Uri collection, long afterId) {
+        String selection = "(" + rootSelection + ") AND " + MediaStore.Images.Media._ID + " > ?";
+        String[] args = new String[rootArgs.length + 1];
+        System.arraycopy(rootArgs, 0, args, 0, rootArgs.length);
+        args[rootArgs.length] = Long.toString(afterId);
+        String order = MediaStore.Images.Media._ID + " ASC";
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // MediaStore honours QUERY_ARG_LIMIT from API 30, which also rejects a LIMIT inside sortOrder
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, args);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, order);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, PAGE_SIZE);
+            return resolver.query(collection, PROJECTION, queryArgs, null);
+        }
+        return resolver.query(collection, PROJECTION, selection, args, order + " LIMIT " + PAGE_SIZE);
+    }
+}
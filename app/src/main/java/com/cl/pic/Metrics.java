@@ -0,0 +1,101 @@
+package com.cl.pic;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * App-wide timing: {@link Trace} sections for systrace/Perfetto plus a
+ * {@link MetricsRegistry} that can be written to a file on the device.
+ *
+ * Off by default. While off every call is one volatile read and returns, and
+ * callers pass constant names, so the hooks can stay in release builds.
+ *
+ * <pre>
+ * long t = Metrics.begin("renderImage");
+ * ...
+ * Metrics.end("renderImage", t);
+ * </pre>
+ */
+final class Metrics {
+
+    private static final String TAG = "CarPicViewer";
+
+    private static final MetricsRegistry registry = new MetricsRegistry();
+    private static volatile boolean enabled;
+
+    private Metrics() {
+    }
+
+    static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Open a trace section and start timing it. Returns 0 when disabled; pass
+     * the result to {@link #end} on the same thread.
+     */
+    static long begin(String name) {
+        if (!enabled) return 0;
+        Trace.beginSection(name);
+        return System.nanoTime();
+    }
+
+    static void end(String name, long startNanos) {
+        if (startNanos == 0) return;
+        Trace.endSection();
+        registry.record(name, System.nanoTime() - startNanos);
+    }
+
+    /** Start of an interval that ends in another callback; no trace section. */
+    static long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Record the time since {@link #now} returned {@code startNanos}. */
+    static void since(String name, long startNanos) {
+        if (startNanos == 0 || !enabled) return;
+        registry.record(name, System.nanoTime() - startNanos);
+    }
+
+    /** Record the time since this process was forked, e.g. for first frame. */
+    static void sinceProcessStart(String name) {
+        if (!enabled) return;
+        long millis = SystemClock.uptimeMillis() - Process.getStartUptimeMillis();
+        registry.record(name, millis * 1_000_000L);
+    }
+
+    static void count(String name) {
+        if (!enabled) return;
+        registry.count(name, 1);
+    }
+
+    /** Replace {@code file} with the current metrics. */
+    static void export(File file) {
+        if (!enabled) return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            registry.export(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Metrics export failed: " + e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "Metrics export failed: rename");
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.cl.pic;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.CustomTarget;
+import com.bumptech.glide.request.transition.Transition;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the playlist neighbours of the current image ahead of time.
+ *
+ * Bitmaps are held by our own targets rather than left to Glide's memory
+ * cache, which is only sized for about two screens and would evict them (or
+ * refuse them outright) before the user gets there. The total held is capped
+ * by a byte budget, nearest neighbours first. Moving to another position
+ * cancels every prefetch outside the new window, except the one image asked
+ * for with {@link #prefetchAhead}, which may be anywhere in the playlist.
+ *
+ * Network URIs are never prefetched: they load through
+ * {@link NetworkImageLoader}, whose downloader resumes, caches on disk and
+ * caps concurrent fetches, none of which a Glide load here would.
+ *
+ * Main thread only.
+ */
+class NeighborPrefetcher {
+
+    private static final String TAG = "CarPicViewer";
+
+    private final RequestManager glide;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final int radius;
+    private final long budgetBytes;
+
+    // Keyed by URI, in priority order of the last window
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private long bytesHeld;
+    // Kept outside the window until taken; see prefetchAhead()
+    private String aheadUri;
+
+    private int hits;
+    private int misses;
+
+    NeighborPrefetcher(Activity activity, int radius, long budgetBytes) {
+        this.glide = Glide.with(activity);
+        this.radius = radius;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Prefetch the {@code radius} entries on each side of {@code index},
+     * nearest first, with the same options the main request uses so the
+     * result is display-ready.
+     */
+    void prefetchAround(Playlist playlist, int index, RequestOptions options) {
+        int size = playlist.size();
+        if (index < 0 || size < 2) {
+            clear();
+            return;
+        }
+
+        // Next 1, previous 1, next 2, previous 2, ... wrapping like next/prev do
+        List<String> wanted = new ArrayList<>(radius * 2);
+        for (int d = 1; d <= radius && wanted.size() < size - 1; d++) {
+            addWanted(wanted, playlist.get((index + d) % size));
+            if (wanted.size() < size - 1) {
+                addWanted(wanted, playlist.get(((index - d) % size + size) % size));
+            }
+        }
+
+        // Cancel whatever fell out of the window
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (!wanted.contains(entry.uri) && !entry.uri.equals(aheadUri)) {
+                it.remove();
+                release(entry);
+            }
+        }
+
+        for (String uri : wanted) {
+            if (entries.containsKey(uri) || NetworkImageLoader.isNetworkUri(uri)) continue;
+            Entry entry = new Entry(uri);
+            entries.put(uri, entry);
+            glide.asBitmap().load(Uri.parse(uri)).apply(options).into(entry);
+        }
+    }
+
+    /**
+     * Decode {@code uri} now and keep it until it is taken, wherever it is in
+     * the playlist; the slideshow's next image when shuffling. Replaces the
+     * previous such request. Null just drops the previous one.
+     */
+    void prefetchAhead(@Nullable String uri, RequestOptions options) {
+        if (aheadUri != null && !aheadUri.equals(uri)) {
+            Entry stale = entries.remove(aheadUri);
+            if (stale != null) release(stale);
+        }
+        aheadUri = uri;
+        if (uri == null || entries.containsKey(uri) || NetworkImageLoader.isNetworkUri(uri)) return;
+        Entry entry = new Entry(uri);
+        entries.put(uri, entry);
+        glide.asBitmap().load(Uri.parse(uri)).apply(options).into(entry);
+    }
+
+    /** Whether {@link #take} would hand over a bitmap for {@code uri} right now. */
+    boolean isReady(String uri) {
+        Entry entry = entries.get(uri);
+        return entry != null && entry.bitmap != null;
+    }
+
+    private static void addWanted(List<String> wanted, String uri) {
+        if (!wanted.contains(uri)) wanted.add(uri);
+    }
+
+    /**
+     * Hand over a ready bitmap for {@code uri}. The caller owns the returned
+     * entry and must {@link #release} it once its bitmap is no longer shown.
+     */
+    @Nullable
+    Entry take(String uri) {
+        Entry entry = entries.get(uri);
+        if (entry == null || entry.bitmap == null) {
+            misses++;
+            return null;
+        }
+        entries.remove(uri);
+        if (uri.equals(aheadUri)) aheadUri = null;
+        bytesHeld -= entry.bytes;
+        entry.counted = false;
+        hits++;
+        return entry;
+    }
+
+    /** Return an entry's bitmap to Glide. Safe to call from Glide callbacks. */
+    void release(Entry entry) {
+        if (entry.counted) {
+            bytesHeld -= entry.bytes;
+            entry.counted = false;
+        }
+        // Glide forbids clearing from inside its own callbacks
+        mainHandler.post(() -> glide.clear(entry));
+    }
+
+    void clear() {
+        for (Entry entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+        aheadUri = null;
+    }
+
+    String stats() {
+        return "prefetch hits=" + hits + " misses=" + misses + " held=" + (bytesHeld / 1024) + "KB";
+    }
+
+    final class Entry extends CustomTarget<Bitmap> {
+        final String uri;
+        Bitmap bitmap;
+        long bytes;
+        boolean counted;
+
+        Entry(String uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public void onResourceReady(@NonNull Bitmap resource, @Nullable Transition<? super Bitmap> transition) {
+            if (entries.get(uri) != this) {
+                // Went stale while decoding
+                release(this);
+                return;
+            }
+
+            long size = resource.getAllocationByteCount();
+            if (bytesHeld + size > budgetBytes) {
+                Log.d(TAG, "Prefetch over budget, dropping " + uri);
+                entries.remove(uri);
+                release(this);
+                return;
+            }
+            bitmap = resource;
+            bytes = size;
+            counted = true;
+            bytesHeld += size;
+        }
+
+        @Override
+        public void onLoadFailed(@Nullable Drawable errorDrawable) {
+            if (entries.get(uri) == this) {
+                entries.remove(uri);
+            }
+        }
+
+        @Override
+        public void onLoadCleared(@Nullable Drawable placeholder) {
+            // Glide may recycle the bitmap from here on
+            bitmap = null;
+        }
+    }
+}
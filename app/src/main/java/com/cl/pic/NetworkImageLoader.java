@@ -0,0 +1,191 @@
+package com.cl.pic;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches http(s) images through a {@link ResumableDownloader} and shows
+ * progressive JPEGs while they arrive.
+ *
+ * Every few hundred milliseconds of new data the partial file is decoded,
+ * subsampled to the screen width, and handed over as a preview; each scan
+ * sharpens the whole picture, so a slow link shows a blurry image at once
+ * rather than a spinner. Baseline JPEGs and other formats get no preview,
+ * since their prefix only decodes to the top rows. The finished file is
+ * left to the caller, which decodes it like any local image.
+ *
+ * Only the latest {@link #load} is delivered; starting another cancels it,
+ * keeping the partial download for the next time it is asked for.
+ */
+class NetworkImageLoader {
+
+    private static final String TAG = "CarPicViewer";
+    private static final String CACHE_DIR = "net_images";
+    private static final long CACHE_MAX_BYTES = 100L * 1024 * 1024;
+    // Fetches sharing the link at once; more only split a weak signal further
+    private static final int MAX_CONCURRENT = 2;
+    private static final long PARTIAL_INTERVAL_MS = 400;
+    private static final long PARTIAL_MIN_BYTES = 32 * 1024;
+    // The frame header is this far in or the file is given up on
+    private static final int PROBE_BYTES = 64 * 1024;
+
+    interface Callback {
+        /** Main thread; a preview decoded from the bytes so far. */
+        void onPartial(Bitmap preview);
+
+        /** Main thread; the complete image in the disk cache. */
+        void onComplete(File file);
+
+        /** Main thread. */
+        void onFailed(IOException e);
+    }
+
+    private final ResumableDownloader downloader;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Not bounded here: the downloader caps the fetches, and cancelled ones end at their next read
+    private final ExecutorService fetchExecutor = Executors.newCachedThreadPool();
+    private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger previews = new AtomicInteger();
+    private CancellationToken current;
+
+    NetworkImageLoader(Context context) {
+        this.downloader = new ResumableDownloader(new File(context.getCacheDir(), CACHE_DIR),
+                MAX_CONCURRENT, CACHE_MAX_BYTES);
+    }
+
+    static boolean isNetworkUri(String uri) {
+        return uri.startsWith("http://") || uri.startsWith("https://");
+    }
+
+    /** Main thread. Previews are subsampled to no less than {@code targetWidth}. */
+    void load(String url, int targetWidth, Callback callback) {
+        cancel();
+        CancellationToken token = new CancellationToken();
+        current = token;
+        fetchExecutor.execute(() -> {
+            try {
+                File file = downloader.download(url, token, new Previewer(token, targetWidth, callback));
+                post(token, () -> callback.onComplete(file));
+            } catch (IOException e) {
+                if (token.isCancelled()) return;
+                Log.w(TAG, "Download failed: " + url, e);
+                post(token, () -> callback.onFailed(e));
+            }
+        });
+    }
+
+    /** Main thread. Stop delivering the current load. */
+    void cancel() {
+        if (current != null) {
+            current.cancel();
+            current = null;
+        }
+    }
+
+    void release() {
+        cancel();
+        fetchExecutor.shutdownNow();
+        decodeExecutor.shutdownNow();
+    }
+
+    String stats() {
+        return "NetworkImageLoader{previews=" + previews.get() + ", " + downloader + "}";
+    }
+
+    private void post(CancellationToken token, Runnable r) {
+        mainHandler.post(() -> {
+            if (!token.isCancelled()) r.run();
+        });
+    }
+
+    /** Decides when the partial file is worth decoding; one decode in flight at a time. */
+    private class Previewer implements ResumableDownloader.Listener {
+        private final CancellationToken token;
+        private final int targetWidth;
+        private final Callback callback;
+        private final AtomicBoolean decoding = new AtomicBoolean();
+        private int kind = JpegProbe.UNKNOWN;
+        private long lastTime;
+        private long lastBytes;
+
+        Previewer(CancellationToken token, int targetWidth, Callback callback) {
+            this.token = token;
+            this.targetWidth = targetWidth;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onProgress(File partial, long bytes, long total) {
+            if (kind == JpegProbe.UNKNOWN) {
+                kind = probe(partial, bytes);
+            }
+            // Nothing to preview, or the full decode is about to follow
+            if (kind != JpegProbe.PROGRESSIVE || bytes == total) return;
+            long now = SystemClock.uptimeMillis();
+            if (now - lastTime < PARTIAL_INTERVAL_MS || bytes - lastBytes < PARTIAL_MIN_BYTES) return;
+            if (!decoding.compareAndSet(false, true)) return;
+            lastTime = now;
+            lastBytes = bytes;
+            decodeExecutor.execute(() -> {
+                try {
+                    if (token.isCancelled()) return;
+                    Bitmap preview = decodePreview(partial, targetWidth);
+                    if (preview != null) {
+                        previews.incrementAndGet();
+                        post(token, () -> callback.onPartial(preview));
+                    }
+                } finally {
+                    decoding.set(false);
+                }
+            });
+        }
+    }
+
+    private static int probe(File partial, long bytes) {
+        byte[] head = new byte[(int) Math.min(bytes, PROBE_BYTES)];
+        int read = 0;
+        try (InputStream in = new FileInputStream(partial)) {
+            int n;
+            while (read < head.length && (n = in.read(head, read, head.length - read)) != -1) {
+                read += n;
+            }
+        } catch (IOException e) {
+            return JpegProbe.UNKNOWN;
+        }
+        int kind = JpegProbe.probe(head, read);
+        return kind == JpegProbe.UNKNOWN && read >= PROBE_BYTES ? JpegProbe.NOT_JPEG : kind;
+    }
+
+    /** Subsampled decode of a truncated file; the decoder fills in what has not arrived. */
+    private static Bitmap decodePreview(File partial, int targetWidth) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        // The file may have been renamed into the cache meanwhile; the full decode takes over then
+        BitmapFactory.decodeFile(partial.getPath(), options);
+        if (options.outWidth <= 0) return null;
+
+        int sample = 1;
+        while (options.outWidth / (sample * 2) >= targetWidth) {
+            sample *= 2;
+        }
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        // Opaque and thrown away at the next scan; half the bytes of ARGB
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(partial.getPath(), options);
+    }
+}
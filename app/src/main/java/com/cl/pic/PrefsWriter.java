@@ -0,0 +1,167 @@
+package com.cl.pic;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Write-behind front for SharedPreferences.
+ *
+ * Every {@code apply()} queues a rewrite of the whole prefs file, so one
+ * next-image tap used to cost three or four writes. Changes made here are
+ * held in memory and written together in a single {@code apply()} at the
+ * end of the debounce window opened by the first of them, or when
+ * {@link #flush} is called. Values equal to what is already stored are
+ * dropped. Reads through this class see pending changes.
+ *
+ * Main thread only.
+ */
+class PrefsWriter {
+
+    private static final String TAG = "CarPicViewer";
+
+    // Marks a pending remove in the dirty map
+    private static final Object REMOVED = new Object();
+
+    private final SharedPreferences prefs;
+    private final long debounceMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+    private final Map<String, Object> dirty = new HashMap<>();
+
+    private boolean flushScheduled;
+    private int changesRequested;
+    private int writes;
+
+    PrefsWriter(SharedPreferences prefs, long debounceMs) {
+        this.prefs = prefs;
+        this.debounceMs = debounceMs;
+    }
+
+    float getFloat(String key, float defValue) {
+        Object value = dirty.get(key);
+        if (value == null) return prefs.getFloat(key, defValue);
+        return value == REMOVED ? defValue : (Float) value;
+    }
+
+    boolean getBoolean(String key, boolean defValue) {
+        Object value = dirty.get(key);
+        if (value == null) return prefs.getBoolean(key, defValue);
+        return value == REMOVED ? defValue : (Boolean) value;
+    }
+
+    long getLong(String key, long defValue) {
+        Object value = dirty.get(key);
+        if (value == null) return prefs.getLong(key, defValue);
+        return value == REMOVED ? defValue : (Long) value;
+    }
+
+    String getString(String key, String defValue) {
+        Object value = dirty.get(key);
+        if (value == null) return prefs.getString(key, defValue);
+        return value == REMOVED ? defValue : (String) value;
+    }
+
+    PrefsWriter putFloat(String key, float value) {
+        return set(key, value);
+    }
+
+    PrefsWriter putBoolean(String key, boolean value) {
+        return set(key, value);
+    }
+
+    PrefsWriter putLong(String key, long value) {
+        return set(key, value);
+    }
+
+    PrefsWriter putString(String key, String value) {
+        return set(key, value == null ? REMOVED : value);
+    }
+
+    PrefsWriter remove(String key) {
+        return set(key, REMOVED);
+    }
+
+    /** Write all pending changes now, in one apply(). */
+    void flush() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        if (dirty.isEmpty()) return;
+
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, Object> entry : dirty.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value == REMOVED) {
+                editor.remove(key);
+            } else if (value instanceof Float) {
+                editor.putFloat(key, (Float) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Long) {
+                editor.putLong(key, (Long) value);
+            } else {
+                editor.putString(key, (String) value);
+            }
+        }
+        editor.apply();
+        dirty.clear();
+        writes++;
+    }
+
+    /** Changes requested so far, including ones equal to what was stored. */
+    int changes() {
+        return changesRequested;
+    }
+
+    /** apply() calls made so far. */
+    int writes() {
+        return writes;
+    }
+
+    /** Number of changes that did not cost a file write of their own. */
+    int writesAvoided() {
+        return Math.max(0, changesRequested - writes);
+    }
+
+    String stats() {
+        return "prefs changes=" + changesRequested + " writes=" + writes + " avoided=" + writesAvoided();
+    }
+
+    private PrefsWriter set(String key, Object value) {
+        changesRequested++;
+        if (isStored(key, value)) {
+            // Back to what is on disk; nothing to write
+            dirty.remove(key);
+        } else {
+            dirty.put(key, value);
+        }
+        // One write per window, counted from the first change, so steady input can't postpone it
+        if (!dirty.isEmpty() && !flushScheduled) {
+            flushScheduled = handler.postDelayed(flushRunnable, debounceMs);
+            if (!flushScheduled) {
+                Log.w(TAG, "Could not schedule prefs flush, writing now");
+                flush();
+            }
+        }
+        return this;
+    }
+
+    private boolean isStored(String key, Object value) {
+        if (value == REMOVED) return !prefs.contains(key);
+        if (!prefs.contains(key)) return false;
+        try {
+            if (value instanceof Float) return prefs.getFloat(key, 0f) == (Float) value;
+            if (value instanceof Boolean) return prefs.getBoolean(key, false) == (Boolean) value;
+            if (value instanceof Long) return prefs.getLong(key, 0L) == (Long) value;
+            return value.equals(prefs.getString(key, null));
+        } catch (ClassCastException e) {
+            // Stored under another type; overwrite it
+            return false;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.cl.pic;
+
+import java.util.List;
+
+/**
+ * A way of finding images on the device. Implementations stream their
+ * results as loadable URI strings, in no particular order.
+ */
+interface ScanSource {
+
+    /** Receives URI strings; may be called on any thread. */
+    interface Listener {
+        void onBatch(List<String> uris);
+    }
+
+    /**
+     * A listener that also takes the size and mtime each URI was listed
+     * with, so a consumer can check its caches without opening the file.
+     * Sources that have them call this overload instead.
+     */
+    interface StatListener extends Listener {
+        /** {@code sizes} in bytes and {@code mtimes} in whole-second ms, parallel to {@code uris}; -1 if not known. */
+        void onBatch(List<String> uris, long[] sizes, long[] mtimes);
+    }
+
+    /** Short name for logs. */
+    String getName();
+
+    /**
+     * Run a full scan, blocking the calling thread. Stops early once
+     * {@code token} is cancelled.
+     */
+    ScanStats scan(CancellationToken token, Listener listener) throws Exception;
+}
@@ -0,0 +1,219 @@
+package com.cl.pic;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Parked-mode slideshow: advances through the playlist every {@code dwellMs},
+ * in order or shuffled without repeats.
+ *
+ * The next image is picked and its decode started {@code leadMs} before the
+ * transition, so by the time it is due the bitmap is already in the
+ * prefetcher and goes on screen in the same frame. If it is not ready yet the
+ * current image stays up and the transition is retried shortly, up to
+ * {@link #MAX_LATE_MS}, rather than showing a spinner.
+ *
+ * Heap in use is sampled after every transition. The lowest sample of each
+ * {@link #HEAP_WINDOW} transitions approximates the live set; it is logged
+ * and compared with the first window, so a leak shows up on a device left
+ * running for hours, or with a short dwell, for thousands of transitions.
+ *
+ * Main thread only.
+ */
+class SlideshowController {
+
+    interface Host {
+        int playlistSize();
+
+        String playlistUri(int index);
+
+        /** Index of the image on screen, or -1. */
+        int currentIndex();
+
+        /** Start decoding {@code uri} for display; null drops the last request. */
+        void decodeAhead(String uri);
+
+        boolean isDecoded(String uri);
+
+        void showSlide(String uri);
+    }
+
+    private static final String TAG = "CarPicViewer";
+    // Retry a transition whose image is still decoding
+    private static final long LATE_RETRY_MS = 250;
+    private static final long MAX_LATE_MS = 5000;
+    private static final int HEAP_WINDOW = 100;
+    // Log a warning when the heap floor grows by more than this over the first window
+    private static final long HEAP_GROWTH_WARN_BYTES = 8L * 1024 * 1024;
+
+    private final Host host;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ShuffleOrder shuffle = new ShuffleOrder(new Random());
+    private final Runnable decodeAheadTask = this::decodeAhead;
+    private final Runnable transitionTask = this::transition;
+
+    private long dwellMs;
+    private long leadMs;
+    private boolean shuffled;
+    private boolean running;
+    private boolean paused;
+    private String nextUri;
+    private long dueAt;
+
+    // Stats
+    private long transitions;
+    private long late;
+    private long heapFirstFloor = -1;
+    private long heapLastFloor = -1;
+    private long heapFloor = Long.MAX_VALUE;
+    private long heapPeak;
+
+    SlideshowController(Host host) {
+        this.host = host;
+    }
+
+    /** Takes effect from the next transition. */
+    void configure(long dwellMs, long leadMs, boolean shuffled) {
+        this.dwellMs = dwellMs;
+        // Half the dwell at most, so the image on screen is not evicted to make room
+        this.leadMs = Math.min(leadMs, dwellMs / 2);
+        if (shuffled != this.shuffled) {
+            shuffle.reset();
+        }
+        this.shuffled = shuffled;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    void start() {
+        if (running) return;
+        running = true;
+        paused = false;
+        shuffle.reset();
+        schedule();
+    }
+
+    void stop() {
+        if (!running) return;
+        running = false;
+        cancelTimers();
+        nextUri = null;
+        host.decodeAhead(null);
+    }
+
+    /** Hold the current image, e.g. while a finger is down. */
+    void pause() {
+        if (!running || paused) return;
+        paused = true;
+        cancelTimers();
+    }
+
+    /** Continue after a pause with a full dwell on the current image; the decoded next one is kept. */
+    void resume() {
+        if (!running || !paused) return;
+        paused = false;
+        schedule();
+    }
+
+    private void schedule() {
+        dueAt = SystemClock.uptimeMillis() + dwellMs;
+        if (nextUri == null) {
+            handler.postAtTime(decodeAheadTask, dueAt - leadMs);
+        }
+        handler.postAtTime(transitionTask, dueAt);
+    }
+
+    private void cancelTimers() {
+        handler.removeCallbacks(decodeAheadTask);
+        handler.removeCallbacks(transitionTask);
+    }
+
+    private void decodeAhead() {
+        int size = host.playlistSize();
+        if (size < 2) return;
+        int index;
+        if (shuffled) {
+            index = shuffle.next(size);
+            if (index == host.currentIndex()) {
+                // Where the pass happens to land on the image already up
+                index = shuffle.next(size);
+            }
+        } else {
+            index = (host.currentIndex() + 1) % size;
+        }
+        nextUri = host.playlistUri(index);
+        host.decodeAhead(nextUri);
+    }
+
+    private void transition() {
+        if (nextUri == null) {
+            // Playlist too short when the decode was due; look again next dwell
+            decodeAhead();
+            if (nextUri == null) {
+                schedule();
+                return;
+            }
+        }
+        if (!host.isDecoded(nextUri)) {
+            if (SystemClock.uptimeMillis() - dueAt < MAX_LATE_MS) {
+                handler.postDelayed(transitionTask, LATE_RETRY_MS);
+                return;
+            }
+            // Give up waiting; the normal load path shows it when it arrives
+            late++;
+            Metrics.count("slideshow.late");
+        }
+        String uri = nextUri;
+        nextUri = null;
+        host.showSlide(uri);
+        transitions++;
+        Metrics.count("slideshow.transition");
+        sampleHeap();
+        schedule();
+    }
+
+    private void sampleHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        heapFloor = Math.min(heapFloor, used);
+        heapPeak = Math.max(heapPeak, used);
+        if (transitions % HEAP_WINDOW != 0) return;
+
+        if (heapFirstFloor < 0) {
+            heapFirstFloor = heapFloor;
+        }
+        heapLastFloor = heapFloor;
+        heapFloor = Long.MAX_VALUE;
+        Log.i(TAG, stats());
+        if (heapLastFloor - heapFirstFloor > HEAP_GROWTH_WARN_BYTES) {
+            Log.w(TAG, "Slideshow heap floor grew " + ((heapLastFloor - heapFirstFloor) / 1024)
+                    + "KB since the first " + HEAP_WINDOW + " transitions");
+        }
+    }
+
+    /** Lowest heap sample of the first window of transitions, or -1 before it completes. */
+    long heapFirstFloor() {
+        return heapFirstFloor;
+    }
+
+    /** Lowest heap sample of the last complete window, or -1. */
+    long heapLastFloor() {
+        return heapLastFloor;
+    }
+
+    String stats() {
+        return "slideshow transitions=" + transitions + " late=" + late
+                + " heapFloor first=" + kb(heapFirstFloor) + " last=" + kb(heapLastFloor)
+                + " peak=" + kb(heapPeak);
+    }
+
+    private static String kb(long bytes) {
+        return bytes < 0 ? "-" : (bytes / 1024) + "KB";
+    }
+}
@@ -0,0 +1,215 @@
+package com.cl.pic;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.View;
+
+/**
+ * Draws the image, its tiles and the dim into one {@link SurfaceView} buffer.
+ *
+ * The view path composites the image view, tile layer and black overlay as
+ * separate full-screen layers on every frame; here a pan or a brightness
+ * step is a single pass over the surface. The tile layer keeps managing its
+ * tiles but stays invisible and draws through {@link TileLayerView#drawTiles}.
+ *
+ * Changes are coalesced into at most one draw per vsync. On API 26+ the
+ * canvas is hardware accelerated, so Glide's hardware bitmaps can be drawn
+ * directly; older devices never get hardware bitmaps and use a software
+ * canvas. A crossfade draws the outgoing bitmap over the new one, with less
+ * alpha each frame, until it is gone. Main thread only.
+ */
+class SurfaceImageRenderer implements ImageRenderer, SurfaceHolder.Callback, Choreographer.FrameCallback {
+
+    private final SurfaceView surfaceView;
+    private final TileLayerView tileLayer;
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix matrix = new Matrix();
+    private final FrameStats stats = new FrameStats("surface draw");
+    private final Paint fadePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix fadeMatrix = new Matrix();
+
+    private Bitmap bitmap;
+    private float dim;
+    private boolean hasSurface;
+    private boolean frameScheduled;
+
+    // Outgoing image while crossfading
+    private Bitmap fadeFrom;
+    private Runnable fadeDone;
+    private long fadeStartNanos;
+    private long fadeDurationNanos;
+
+    SurfaceImageRenderer(SurfaceView surfaceView, TileLayerView tileLayer) {
+        this.surfaceView = surfaceView;
+        this.tileLayer = tileLayer;
+        surfaceView.getHolder().addCallback(this);
+        surfaceView.setVisibility(View.VISIBLE);
+        tileLayer.setExternalRenderer(this::invalidate);
+    }
+
+    @Override
+    public void setBitmap(Bitmap bitmap) {
+        if (bitmap == null) endFade();
+        this.bitmap = bitmap;
+        invalidate();
+    }
+
+    @Override
+    public void setMatrix(Matrix matrix) {
+        this.matrix.set(matrix);
+        // Works out which tiles are visible; asks us to redraw
+        tileLayer.setImageMatrix(matrix);
+    }
+
+    @Override
+    public void crossfade(Bitmap from, Matrix fromMatrix, long durationMs, Runnable onDone) {
+        endFade();
+        if (!hasSurface) {
+            // Nothing on screen to fade from
+            onDone.run();
+            return;
+        }
+        fadeFrom = from;
+        fadeDone = onDone;
+        fadeMatrix.set(fromMatrix);
+        // Starts on the first frame that draws it
+        fadeStartNanos = 0;
+        fadeDurationNanos = durationMs * 1_000_000L;
+        fadePaint.setAlpha(255);
+        invalidate();
+    }
+
+    private void endFade() {
+        if (fadeDone == null) return;
+        fadeFrom = null;
+        Runnable done = fadeDone;
+        fadeDone = null;
+        done.run();
+    }
+
+    @Override
+    public void setDim(float alpha) {
+        if (alpha == dim) return;
+        dim = alpha;
+        invalidate();
+    }
+
+    @Override
+    public float getDim() {
+        return dim;
+    }
+
+    @Override
+    public void setDimAnimating(boolean animating) {
+        // Already a single pass per frame
+    }
+
+    @Override
+    public FrameStats getFrameStats() {
+        return stats;
+    }
+
+    @Override
+    public void release() {
+        cancelFrame();
+        endFade();
+        surfaceView.getHolder().removeCallback(this);
+        hasSurface = false;
+        bitmap = null;
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        hasSurface = true;
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        // New buffer has no content yet; fill it now rather than a frame late
+        cancelFrame();
+        draw();
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        hasSurface = false;
+        cancelFrame();
+        endFade();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        if (fadeFrom != null) {
+            stepFade(frameTimeNanos);
+        }
+        draw();
+        if (fadeFrom != null) {
+            invalidate();
+        }
+    }
+
+    private void stepFade(long frameTimeNanos) {
+        if (fadeStartNanos == 0) {
+            fadeStartNanos = frameTimeNanos;
+        }
+        float t = (frameTimeNanos - fadeStartNanos) / (float) fadeDurationNanos;
+        if (t >= 1f) {
+            endFade();
+        } else {
+            fadePaint.setAlpha(Math.round((1f - t) * 255));
+        }
+    }
+
+    private void invalidate() {
+        if (!hasSurface || frameScheduled) return;
+        frameScheduled = true;
+        choreographer.postFrameCallback(this);
+    }
+
+    private void cancelFrame() {
+        if (frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+        }
+    }
+
+    private void draw() {
+        if (!hasSurface) return;
+        long start = System.nanoTime();
+        SurfaceHolder holder = surfaceView.getHolder();
+        Canvas canvas = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? holder.lockHardwareCanvas() : holder.lockCanvas();
+        if (canvas == null) return;
+        try {
+            canvas.drawColor(Color.BLACK);
+            if (bitmap != null && !bitmap.isRecycled()) {
+                canvas.save();
+                canvas.concat(matrix);
+                canvas.drawBitmap(bitmap, 0, 0, paint);
+                canvas.restore();
+            }
+            tileLayer.drawTiles(canvas);
+            if (fadeFrom != null && !fadeFrom.isRecycled()) {
+                canvas.save();
+                canvas.concat(fadeMatrix);
+                canvas.drawBitmap(fadeFrom, 0, 0, fadePaint);
+                canvas.restore();
+            }
+            if (dim > 0) {
+                canvas.drawColor(Color.argb(Math.round(dim * 255), 0, 0, 0));
+            }
+        } finally {
+            holder.unlockCanvasAndPost(canvas);
+        }
+        stats.record(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,263 @@
+package com.cl.pic;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Square RGB_565 thumbnails of local images, generated once and kept in a
+ * {@link ThumbnailStore}.
+ *
+ * A thumbnail is made from the EXIF-embedded preview when the file has one
+ * that is big enough, otherwise from a subsampled decode of the original.
+ * After that it is served from the packed file, or from a small in-memory
+ * LRU, without opening the original again.
+ *
+ * Reads from the packed file and generation run on separate threads so a
+ * grid full of cached thumbnails never waits behind a slow decode.
+ */
+class ThumbnailLoader {
+
+    private static final String TAG = "CarPicViewer";
+    private static final String STORE_FILE = "thumbs.pack";
+    private static final long STORE_MAX_BYTES = 16L * 1024 * 1024;
+    private static final int MEMORY_CACHE_BYTES = 2 * 1024 * 1024;
+
+    interface Listener {
+        /** Main thread; {@code bitmap} is null if no thumbnail could be made. */
+        void onThumbnail(String uri, Bitmap bitmap);
+    }
+
+    private final ContentResolver resolver;
+    private final int size;
+    private final Listener listener;
+    private final ThumbnailStore store;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService readExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService generateExecutor = Executors.newSingleThreadExecutor();
+    private final LruCache<String, Bitmap> memory = new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getAllocationByteCount();
+        }
+    };
+    // URIs a bound cell is waiting for; a queued job whose URI left is skipped
+    private final Set<String> wanted = ConcurrentHashMap.newKeySet();
+
+    ThumbnailLoader(Context context, int size, Listener listener) {
+        this.resolver = context.getContentResolver();
+        this.size = size;
+        this.listener = listener;
+        // The format doubles as the edge length, so a new size starts a fresh file
+        this.store = ThumbnailStore.open(new File(context.getCacheDir(), STORE_FILE), size, STORE_MAX_BYTES);
+        if (store.getLastError() != null) {
+            Log.w(TAG, "Thumbnail store unavailable", store.getLastError());
+        }
+    }
+
+    /** Only local images are thumbnailed here; anything else is left to Glide. */
+    static boolean canLoad(String uri) {
+        return uri.startsWith("content:") || uri.startsWith("file:");
+    }
+
+    /** Main thread. */
+    Bitmap getCached(String uri) {
+        return memory.get(uri);
+    }
+
+    /**
+     * Main thread. Load {@code uri} in the background, generating it if
+     * needed, and hand it to the listener. Call {@link #getCached} first.
+     */
+    void load(String uri) {
+        // Already on its way
+        if (!wanted.add(uri)) return;
+        readExecutor.execute(() -> {
+            if (!wanted.contains(uri)) return;
+            Bitmap bitmap = readStored(uri);
+            if (bitmap != null) {
+                deliver(uri, bitmap);
+                return;
+            }
+            generateExecutor.execute(() -> {
+                if (!wanted.contains(uri)) return;
+                deliver(uri, generate(uri));
+            });
+        });
+    }
+
+    /** Main thread. The cell showing {@code uri} went away. */
+    void cancel(String uri) {
+        wanted.remove(uri);
+    }
+
+    /** Generate missing thumbnails in the background, e.g. for freshly scanned images. */
+    void pregenerate(List<String> uris) {
+        for (String uri : uris) {
+            if (!canLoad(uri)) continue;
+            generateExecutor.execute(() -> {
+                long key = ViewStateStore.hash(uri);
+                if (store.contains(key)) return;
+                generate(uri);
+            });
+        }
+    }
+
+    void trimMemory() {
+        memory.evictAll();
+    }
+
+    void release() {
+        wanted.clear();
+        readExecutor.shutdownNow();
+        generateExecutor.shutdownNow();
+        // A generation still running just fails to store
+        store.close();
+    }
+
+    private void deliver(String uri, Bitmap bitmap) {
+        mainHandler.post(() -> {
+            // Cancelled while in flight: keep the bitmap, nobody is waiting for it
+            boolean waiting = wanted.remove(uri);
+            if (bitmap != null) {
+                memory.put(uri, bitmap);
+            }
+            if (waiting) {
+                listener.onThumbnail(uri, bitmap);
+            }
+        });
+    }
+
+    private Bitmap readStored(String uri) {
+        ThumbnailStore.Thumbnail stored = store.get(ViewStateStore.hash(uri));
+        if (stored == null) return null;
+        Bitmap bitmap = Bitmap.createBitmap(stored.width, stored.height, Bitmap.Config.RGB_565);
+        if (stored.pixels.remaining() < bitmap.getByteCount()) return null;
+        bitmap.copyPixelsFromBuffer(stored.pixels);
+        return bitmap;
+    }
+
+    /** Generation thread. */
+    private Bitmap generate(String uri) {
+        Uri parsed = Uri.parse(uri);
+        try {
+            int orientation = ExifInterface.ORIENTATION_NORMAL;
+            Bitmap source = null;
+            try (InputStream in = resolver.openInputStream(parsed)) {
+                if (in != null) {
+                    ExifInterface exif = new ExifInterface(in);
+                    orientation = exif.getAttributeInt(
+                            ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+                    byte[] embedded = exif.getThumbnail();
+                    if (embedded != null) {
+                        source = BitmapFactory.decodeByteArray(embedded, 0, embedded.length, rgb565(1));
+                    }
+                }
+            } catch (Exception e) {
+                // Not a format ExifInterface reads; decode the image instead
+            }
+            if (source != null && Math.min(source.getWidth(), source.getHeight()) < size) {
+                // Embedded preview too small to fill the cell
+                source.recycle();
+                source = null;
+            }
+            if (source == null) {
+                source = decodeSampled(parsed);
+            }
+            if (source == null) return null;
+
+            Bitmap thumb = cropToSquare(source, orientation);
+            source.recycle();
+
+            ByteBuffer pixels = ByteBuffer.allocate(thumb.getByteCount());
+            thumb.copyPixelsToBuffer(pixels);
+            pixels.flip();
+            if (!store.put(ViewStateStore.hash(uri), size, size, pixels)) {
+                Log.w(TAG, "Failed to store thumbnail", store.getLastError());
+            }
+            return thumb;
+        } catch (Exception | OutOfMemoryError e) {
+            Log.w(TAG, "Thumbnail failed for " + uri + ": " + e);
+            return null;
+        }
+    }
+
+    private Bitmap decodeSampled(Uri uri) throws Exception {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) return null;
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        int shorter = Math.min(bounds.outWidth, bounds.outHeight);
+        if (shorter <= 0) return null;
+
+        int sample = 1;
+        while (shorter / (sample * 2) >= size) {
+            sample *= 2;
+        }
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) return null;
+            return BitmapFactory.decodeStream(in, null, rgb565(sample));
+        }
+    }
+
+    /** Centre square of {@code source}, upright, scaled to {@code size}. */
+    private Bitmap cropToSquare(Bitmap source, int orientation) {
+        int w = source.getWidth();
+        int h = source.getHeight();
+        int side = Math.min(w, h);
+        Rect src = new Rect((w - side) / 2, (h - side) / 2, (w + side) / 2, (h + side) / 2);
+
+        Bitmap thumb = Bitmap.createBitmap(size, size, Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(thumb);
+        int degrees = rotationDegrees(orientation);
+        if (degrees != 0) {
+            Matrix rotate = new Matrix();
+            rotate.setRotate(degrees, size / 2f, size / 2f);
+            canvas.concat(rotate);
+        }
+        canvas.drawBitmap(source, src, new Rect(0, 0, size, size), new Paint(Paint.FILTER_BITMAP_FLAG));
+        return thumb;
+    }
+
+    private static int rotationDegrees(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    private static BitmapFactory.Options rgb565(int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return options;
+    }
+}
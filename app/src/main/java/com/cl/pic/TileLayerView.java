@@ -0,0 +1,447 @@
+package com.cl.pic;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.View;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Draws full-resolution tiles of the current image over the screen-sized base
+ * bitmap once zoom pushes the base past 1:1.
+ *
+ * Tiles are decoded with {@link BitmapRegionDecoder} at the coarsest power-of-two
+ * sample size that still gives at least one source pixel per screen pixel, so
+ * only the visible part of the image is ever decoded at high resolution. Tiles
+ * live in a byte-bounded LRU sized from the screen, never from the source, so
+ * a 50 MP panorama costs the same memory as a phone photo.
+ *
+ * The decoder is opened lazily on the first zoom past 1:1. Images that are
+ * EXIF-rotated, remote, or not region-decodable simply get no tiles.
+ *
+ * The visible tiles are kept in primitive arrays and only looked up again
+ * when the range of visible tiles changes, so a pan or zoom frame that stays
+ * within the same tiles allocates nothing.
+ *
+ * A renderer that draws into its own surface can take over drawing with
+ * {@link #setExternalRenderer}; the view then stays invisible and only manages
+ * tiles.
+ */
+public class TileLayerView extends View {
+
+    private static final String TAG = "CarPicViewer";
+    private static final int TILE_SIZE = 256;
+
+    private enum DecoderState { NONE, OPENING, READY, UNAVAILABLE }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // base bitmap px -> screen, as set on the image view
+    private final Matrix imageMatrix = new Matrix();
+    // source px -> screen
+    private final Matrix sourceMatrix = new Matrix();
+    private final Matrix inverse = new Matrix();
+    private final float[] values = new float[9];
+    private final RectF visible = new RectF();
+    private final RectF tileDst = new RectF();
+
+    // Current image, main thread
+    private String uri;
+    private int baseWidth;
+    private int sourceWidth;
+    private int sourceHeight;
+    private DecoderState state = DecoderState.NONE;
+    private volatile int generation;
+
+    // Tiles, main thread; key packs sample size, column and row
+    private final LinkedHashMap<Long, Bitmap> cache = new LinkedHashMap<>(32, 0.75f, true);
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+    // On screen now, with their tiles (null until decoded); filled when the window changes
+    private long[] visibleKeys = new long[32];
+    private Bitmap[] visibleTiles = new Bitmap[32];
+    private int visibleCount;
+    // Read by the decode thread to skip tiles that scrolled away while queued
+    private volatile TileWindow wanted;
+    private long cacheBytes;
+    private long cacheBudget;
+    private int currentSample;
+    // Draws the tiles elsewhere via drawTiles(); null when this view draws them
+    private Runnable externalRenderer;
+
+    // Decode thread only
+    private BitmapRegionDecoder decoder;
+    private int decoderGeneration = -1;
+    private Bitmap.Config tileConfig = Bitmap.Config.ARGB_8888;
+
+    public TileLayerView(Context context) {
+        super(context);
+    }
+
+    public TileLayerView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // Room for one screenful of tiles plus half again for panning, at 4 bytes per pixel
+        int cols = (w + TILE_SIZE - 1) / TILE_SIZE + 1;
+        int rows = (h + TILE_SIZE - 1) / TILE_SIZE + 1;
+        cacheBudget = (long) cols * rows * TILE_SIZE * TILE_SIZE * 4 * 3 / 2;
+        trimCache(cacheBudget);
+    }
+
+    /**
+     * Let {@code onChanged} draw the tiles, through {@link #drawTiles}, instead
+     * of this view. It runs on the main thread whenever the tiles change.
+     */
+    public void setExternalRenderer(Runnable onChanged) {
+        externalRenderer = onChanged;
+        setVisibility(onChanged != null ? INVISIBLE : VISIBLE);
+    }
+
+    /** New image shown; drops all tiles of the previous one. */
+    public void setSource(String uri, int baseWidth, int baseHeight) {
+        reset();
+        this.uri = uri;
+        this.baseWidth = baseWidth;
+        // Only local content can be region-decoded
+        boolean local = uri != null && (uri.startsWith("file:") || uri.startsWith("content:"));
+        state = local ? DecoderState.NONE : DecoderState.UNAVAILABLE;
+    }
+
+    /** Same matrix the image view uses for the base bitmap. */
+    public void setImageMatrix(Matrix matrix) {
+        imageMatrix.set(matrix);
+        updateVisibleTiles();
+        redraw();
+    }
+
+    /** Drop cached tiles, e.g. under memory pressure. */
+    public void trimMemory() {
+        clearVisible();
+        trimCache(0);
+        redraw();
+    }
+
+    /** Stop decoding and free everything; the view is unusable afterwards. */
+    public void release() {
+        reset();
+        decodeExecutor.execute(this::closeDecoder);
+        decodeExecutor.shutdown();
+    }
+
+    private void reset() {
+        generation++;
+        clearVisible();
+        trimCache(0);
+        pending.clear();
+        uri = null;
+        sourceWidth = 0;
+        sourceHeight = 0;
+        state = DecoderState.NONE;
+        redraw();
+    }
+
+    private void updateVisibleTiles() {
+        if (uri == null || baseWidth <= 0 || state == DecoderState.UNAVAILABLE) {
+            clearVisible();
+            return;
+        }
+
+        imageMatrix.getValues(values);
+        float baseScale = values[Matrix.MSCALE_X];
+        // Base bitmap is shown at or below 1:1, it already has all the detail the screen can show
+        if (baseScale <= 1.0f || state != DecoderState.READY) {
+            clearVisible();
+            if (baseScale > 1.0f && state == DecoderState.NONE) {
+                openDecoder();
+            }
+            return;
+        }
+
+        // Screen px per source px
+        float ratio = (float) baseWidth / sourceWidth;
+        float sourceScale = baseScale * ratio;
+        int sample = 1;
+        while (sample * 2 * sourceScale <= 1.0f) {
+            sample *= 2;
+        }
+        sourceMatrix.set(imageMatrix);
+        sourceMatrix.preScale(ratio, ratio);
+        // Tiles at this sample would be no sharper than the base bitmap
+        if (sample >= 1.0f / ratio || !sourceMatrix.invert(inverse)) {
+            clearVisible();
+            return;
+        }
+        visible.set(0, 0, getWidth(), getHeight());
+        inverse.mapRect(visible);
+
+        int span = TILE_SIZE * sample;
+        int firstCol = Math.max(0, (int) (visible.left / span));
+        int firstRow = Math.max(0, (int) (visible.top / span));
+        int lastCol = Math.min((sourceWidth - 1) / span, (int) (visible.right / span));
+        int lastRow = Math.min((sourceHeight - 1) / span, (int) (visible.bottom / span));
+
+        TileWindow window = wanted;
+        // Same tiles as the last frame: only the matrix moved
+        if (window != null && window.is(sample, firstCol, firstRow, lastCol, lastRow)) return;
+        wanted = new TileWindow(sample, firstCol, firstRow, lastCol, lastRow);
+        currentSample = sample;
+
+        int count = Math.max(0, lastCol - firstCol + 1) * Math.max(0, lastRow - firstRow + 1);
+        if (count > visibleKeys.length) {
+            visibleKeys = new long[count];
+            visibleTiles = new Bitmap[count];
+        }
+        int n = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                long key = key(sample, col, row);
+                Bitmap tile = cache.get(key);
+                visibleKeys[n] = key;
+                visibleTiles[n++] = tile;
+                if (tile == null && pending.add(key)) {
+                    decodeTile(key, sample, col, row);
+                }
+            }
+        }
+        if (n < visibleCount) {
+            Arrays.fill(visibleTiles, n, visibleCount, null);
+        }
+        visibleCount = n;
+    }
+
+    private void clearVisible() {
+        Arrays.fill(visibleTiles, 0, visibleCount, null);
+        visibleCount = 0;
+        wanted = null;
+        currentSample = 0;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (externalRenderer == null) {
+            drawTiles(canvas);
+        }
+    }
+
+    /** Draw the visible tiles onto a canvas in screen coordinates. */
+    public void drawTiles(Canvas canvas) {
+        if (visibleCount == 0) return;
+
+        int span = TILE_SIZE * currentSample;
+        canvas.save();
+        canvas.concat(sourceMatrix);
+        for (int i = 0; i < visibleCount; i++) {
+            Bitmap tile = visibleTiles[i];
+            if (tile == null) continue;
+            long key = visibleKeys[i];
+            int col = (int) ((key >>> 28) & 0xFFFFFFF);
+            int row = (int) (key & 0xFFFFFFF);
+            float left = col * span;
+            float top = row * span;
+            tileDst.set(left, top,
+                    Math.min(left + span, sourceWidth),
+                    Math.min(top + span, sourceHeight));
+            canvas.drawBitmap(tile, null, tileDst, paint);
+        }
+        canvas.restore();
+    }
+
+    private void redraw() {
+        if (externalRenderer != null) {
+            externalRenderer.run();
+        } else {
+            invalidate();
+        }
+    }
+
+    private void openDecoder() {
+        state = DecoderState.OPENING;
+        final int gen = generation;
+        final String target = uri;
+        decodeExecutor.execute(() -> {
+            closeDecoder();
+            BitmapRegionDecoder opened = null;
+            boolean rotated = false;
+            try {
+                Uri parsed = Uri.parse(target);
+                try (InputStream in = getContext().getContentResolver().openInputStream(parsed)) {
+                    if (in != null) {
+                        int orientation = new ExifInterface(in).getAttributeInt(
+                                ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+                        // Glide rotated the base bitmap; region coordinates wouldn't line up
+                        rotated = orientation != ExifInterface.ORIENTATION_NORMAL
+                                && orientation != ExifInterface.ORIENTATION_UNDEFINED;
+                    }
+                }
+                if (!rotated) {
+                    try (InputStream in = getContext().getContentResolver().openInputStream(parsed)) {
+                        if (in != null) {
+                            opened = BitmapRegionDecoder.newInstance(in, false);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                Log.d(TAG, "Region decoding unavailable for " + target + ": " + e.getMessage());
+            }
+
+            if (opened != null && gen == generation) {
+                decoder = opened;
+                decoderGeneration = gen;
+                // JPEGs have no alpha, half the bytes per tile
+                tileConfig = isJpeg(target) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+            } else if (opened != null) {
+                opened.recycle();
+                opened = null;
+            }
+
+            final int width = opened != null ? opened.getWidth() : 0;
+            final int height = opened != null ? opened.getHeight() : 0;
+            mainHandler.post(() -> {
+                if (gen != generation) return;
+                if (width <= baseWidth) {
+                    // Missing, rotated, or the base already has every pixel
+                    state = DecoderState.UNAVAILABLE;
+                    return;
+                }
+                sourceWidth = width;
+                sourceHeight = height;
+                state = DecoderState.READY;
+                updateVisibleTiles();
+                redraw();
+            });
+        });
+    }
+
+    private void decodeTile(long key, int sample, int col, int row) {
+        final int gen = generation;
+        final int span = TILE_SIZE * sample;
+        final Rect region = new Rect(col * span, row * span,
+                Math.min((col + 1) * span, sourceWidth),
+                Math.min((row + 1) * span, sourceHeight));
+        decodeExecutor.execute(() -> {
+            Bitmap tile = null;
+            TileWindow window = wanted;
+            if (gen == generation && decoderGeneration == gen && decoder != null
+                    && window != null && window.contains(key)) {
+                try {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = sample;
+                    options.inPreferredConfig = tileConfig;
+                    tile = decoder.decodeRegion(region, options);
+                } catch (Exception e) {
+                    Log.w(TAG, "Tile decode failed: " + region, e);
+                }
+            }
+            final Bitmap decoded = tile;
+            mainHandler.post(() -> {
+                pending.remove(key);
+                if (decoded == null) return;
+                if (gen != generation) {
+                    decoded.recycle();
+                    return;
+                }
+                cache.put(key, decoded);
+                cacheBytes += decoded.getAllocationByteCount();
+                for (int i = 0; i < visibleCount; i++) {
+                    if (visibleKeys[i] == key) {
+                        visibleTiles[i] = decoded;
+                        break;
+                    }
+                }
+                trimCache(cacheBudget);
+                redraw();
+            });
+        });
+    }
+
+    private void trimCache(long budget) {
+        TileWindow window = wanted;
+        Iterator<Map.Entry<Long, Bitmap>> it = cache.entrySet().iterator();
+        while (cacheBytes > budget && it.hasNext()) {
+            Map.Entry<Long, Bitmap> eldest = it.next();
+            // Never evict what is on screen unless dropping everything; clearVisible() comes first then
+            if (budget > 0 && window != null && window.contains(eldest.getKey())) continue;
+            Bitmap bitmap = eldest.getValue();
+            cacheBytes -= bitmap.getAllocationByteCount();
+            it.remove();
+            bitmap.recycle();
+        }
+    }
+
+    private boolean isJpeg(String target) {
+        String type = getContext().getContentResolver().getType(Uri.parse(target));
+        if (type != null) return type.equals("image/jpeg");
+        String lower = target.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+    }
+
+    /** Decode thread only. */
+    private void closeDecoder() {
+        if (decoder != null) {
+            decoder.recycle();
+            decoder = null;
+            decoderGeneration = -1;
+        }
+    }
+
+    private static long key(int sample, int col, int row) {
+        return ((long) Integer.numberOfTrailingZeros(sample) << 56) | ((long) col << 28) | row;
+    }
+
+    /** The range of tiles on screen; immutable, so the decode thread can read it without locking. */
+    private static final class TileWindow {
+        final int sample;
+        final int firstCol;
+        final int firstRow;
+        final int lastCol;
+        final int lastRow;
+
+        TileWindow(int sample, int firstCol, int firstRow, int lastCol, int lastRow) {
+            this.sample = sample;
+            this.firstCol = firstCol;
+            this.firstRow = firstRow;
+            this.lastCol = lastCol;
+            this.lastRow = lastRow;
+        }
+
+        boolean is(int sample, int firstCol, int firstRow, int lastCol, int lastRow) {
+            return this.sample == sample && this.firstCol == firstCol && this.firstRow == firstRow
+                    && this.lastCol == lastCol && this.lastRow == lastRow;
+        }
+
+        boolean contains(long key) {
+            int col = (int) ((key >>> 28) & 0xFFFFFFF);
+            int row = (int) (key & 0xFFFFFFF);
+            return (int) (key >>> 56) == Integer.numberOfTrailingZeros(sample)
+                    && col >= firstCol && col <= lastCol && row >= firstRow && row <= lastRow;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.cl.pic;
+
+import android.view.Choreographer;
+
+/**
+ * Fling, spring-back and animated zoom for a {@link ViewportTransform}.
+ *
+ * Fling and spring-back are one integrator: inside the bounds the velocity
+ * decays exponentially; outside them a critically damped spring pulls the
+ * content back to the nearest edge. A fling that hits an edge therefore
+ * overshoots a little and settles, and releasing an overscrolled drag is
+ * just a fling with zero velocity. Zoom animates the scale with an ease-out
+ * curve about a fixed focus point.
+ *
+ * Steps run on Choreographer frame callbacks and use the real frame time, so
+ * a dropped frame makes the next step longer rather than the motion slower.
+ * Each step is pushed to the views in the frame that computed it. No
+ * allocation per frame. Main thread only.
+ */
+class ViewportAnimator implements Choreographer.FrameCallback {
+
+    interface Listener {
+        /** The viewport came to rest inside its bounds. */
+        void onSettled();
+    }
+
+    // Velocity falls to 1/e every 1/FRICTION seconds
+    private static final float FRICTION = 4.0f;
+    private static final float SPRING_STIFFNESS = 170.0f;
+    // 2 * sqrt(stiffness): critically damped, no bounce past the edge
+    private static final float SPRING_DAMPING = 26.0f;
+    // px/s and px below which motion counts as stopped
+    private static final float MIN_VELOCITY = 20.0f;
+    private static final float REST_DISTANCE = 0.5f;
+    // Longest step we integrate; keeps the spring stable after a long stall
+    private static final float MAX_STEP_SECONDS = 1 / 30f;
+    private static final long ZOOM_DURATION_NANOS = 250_000_000L;
+
+    private static final int IDLE = 0;
+    private static final int FLING = 1;
+    private static final int ZOOM = 2;
+
+    private final ViewportTransform viewport;
+    private final Listener listener;
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    private int mode = IDLE;
+    private long lastFrameNanos;
+
+    // Fling state, px/s
+    private float velocityX;
+    private float velocityY;
+    // Result of stepAxis()
+    private float stepPosition;
+    private float stepVelocity;
+
+    // Zoom state
+    private float zoomFrom;
+    private float zoomTo;
+    private float focusX;
+    private float focusY;
+    private long zoomStartNanos;
+
+    ViewportAnimator(ViewportTransform viewport, Listener listener) {
+        this.viewport = viewport;
+        this.listener = listener;
+    }
+
+    boolean isRunning() {
+        return mode != IDLE;
+    }
+
+    /**
+     * Coast with the given release velocity in px/s, then spring back into
+     * bounds if needed.
+     */
+    void fling(float vx, float vy) {
+        if (!viewport.hasContent()) return;
+        velocityX = vx;
+        velocityY = vy;
+        start(FLING);
+    }
+
+    /** Animate to {@code scale}, keeping the screen point ({@code fx}, {@code fy}) still. */
+    void zoomTo(float scale, float fx, float fy) {
+        if (!viewport.hasContent()) return;
+        zoomFrom = viewport.getScale();
+        zoomTo = Math.max(viewport.getBaseScale(), Math.min(scale, viewport.getMaxScale()));
+        focusX = fx;
+        focusY = fy;
+        start(ZOOM);
+    }
+
+    /** Stop where we are, e.g. when a finger touches down. The viewport may be left out of bounds. */
+    void stop() {
+        if (mode == IDLE) return;
+        mode = IDLE;
+        choreographer.removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mode == IDLE) return;
+        if (lastFrameNanos == 0) {
+            // First frame: nothing elapsed yet
+            lastFrameNanos = frameTimeNanos;
+            if (mode == ZOOM) zoomStartNanos = frameTimeNanos;
+            choreographer.postFrameCallback(this);
+            return;
+        }
+        float dt = Math.min((frameTimeNanos - lastFrameNanos) / 1e9f, MAX_STEP_SECONDS);
+        lastFrameNanos = frameTimeNanos;
+
+        boolean done = mode == FLING ? stepFling(dt) : stepZoom(frameTimeNanos);
+        // Already inside this vsync's callbacks; waiting for the viewport's own would show it a frame late
+        viewport.applyNow();
+        if (done) {
+            mode = IDLE;
+            listener.onSettled();
+        } else {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    private void start(int newMode) {
+        stop();
+        mode = newMode;
+        lastFrameNanos = 0;
+        choreographer.postFrameCallback(this);
+    }
+
+    private boolean stepFling(float dt) {
+        if (!viewport.hasContent()) return true;
+        viewport.updateBounds();
+        float x = viewport.getTranslateX();
+        float y = viewport.getTranslateY();
+
+        stepAxis(x, viewport.clampX(x), velocityX, dt);
+        float newX = stepPosition;
+        velocityX = stepVelocity;
+        stepAxis(y, viewport.clampY(y), velocityY, dt);
+        float newY = stepPosition;
+        velocityY = stepVelocity;
+
+        float restX = viewport.clampX(newX);
+        float restY = viewport.clampY(newY);
+        boolean settled = Math.abs(velocityX) < MIN_VELOCITY && Math.abs(velocityY) < MIN_VELOCITY
+                && Math.abs(newX - restX) < REST_DISTANCE && Math.abs(newY - restY) < REST_DISTANCE;
+        if (settled) {
+            viewport.translateTo(restX, restY);
+            return true;
+        }
+        viewport.translateTo(newX, newY);
+        return false;
+    }
+
+    /** Advance one axis by {@code dt}; writes stepPosition and stepVelocity. */
+    private void stepAxis(float position, float rest, float velocity, float dt) {
+        float offset = position - rest;
+        if (offset != 0) {
+            // Out of bounds: spring towards the edge (semi-implicit Euler)
+            velocity += (-SPRING_STIFFNESS * offset - SPRING_DAMPING * velocity) * dt;
+        } else {
+            velocity *= (float) Math.exp(-FRICTION * dt);
+            if (Math.abs(velocity) < MIN_VELOCITY) velocity = 0;
+        }
+        stepPosition = position + velocity * dt;
+        stepVelocity = velocity;
+    }
+
+    private boolean stepZoom(long frameTimeNanos) {
+        float t = Math.min(1f, (frameTimeNanos - zoomStartNanos) / (float) ZOOM_DURATION_NANOS);
+        // Ease out (cubic)
+        float inv = 1f - t;
+        float eased = 1f - inv * inv * inv;
+        viewport.scaleTo(zoomFrom + (zoomTo - zoomFrom) * eased, focusX, focusY);
+        return t >= 1f;
+    }
+}
@@ -0,0 +1,292 @@
+package com.cl.pic;
+
+import android.graphics.Matrix;
+import android.view.Choreographer;
+
+/**
+ * Pan/zoom state of the image and the bounds it has to stay in.
+ *
+ * Touch input edits the matrix right away, which is cheap, but the views only
+ * see it once per frame: every change schedules one Choreographer callback,
+ * and however many move events arrive before the next vsync are pushed to
+ * the views together. Nothing here allocates after construction.
+ *
+ * Main thread only.
+ */
+class ViewportTransform implements Choreographer.FrameCallback {
+
+    interface Target {
+        void onMatrixChanged(Matrix matrix);
+    }
+
+    private final Matrix matrix;
+    private final Target target;
+    private final float maxScaleMultiplier;
+    private final float[] values = new float[9];
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    private int viewportWidth;
+    private int viewportHeight;
+    private int contentWidth;
+    private int contentHeight;
+    private float baseScale = 1.0f;
+    private boolean frameScheduled;
+
+    // Translation bounds, filled by updateBounds()
+    private final ViewportBounds bounds = new ViewportBounds();
+
+    // Instrumentation
+    private boolean trackAllocations;
+    private long frames;
+    private long updates;
+    private long touchAllocations;
+    private long frameAllocations;
+    private int worstFrameAllocations;
+
+    ViewportTransform(Matrix matrix, float maxScaleMultiplier, Target target) {
+        this.matrix = matrix;
+        this.maxScaleMultiplier = maxScaleMultiplier;
+        this.target = target;
+    }
+
+    Matrix getMatrix() {
+        return matrix;
+    }
+
+    void setViewportSize(int width, int height) {
+        viewportWidth = width;
+        viewportHeight = height;
+    }
+
+    /** Size of the bitmap the matrix applies to; 0 when nothing is shown. */
+    void setContentSize(int width, int height) {
+        contentWidth = width;
+        contentHeight = height;
+    }
+
+    /** Smallest allowed scale: the content exactly fills the viewport width. */
+    void setBaseScale(float scale) {
+        baseScale = scale;
+    }
+
+    float getBaseScale() {
+        return baseScale;
+    }
+
+    float getMaxScale() {
+        return baseScale * maxScaleMultiplier;
+    }
+
+    boolean hasContent() {
+        return contentWidth > 0 && contentHeight > 0;
+    }
+
+    int getViewportWidth() {
+        return viewportWidth;
+    }
+
+    int getViewportHeight() {
+        return viewportHeight;
+    }
+
+    float getScale() {
+        matrix.getValues(values);
+        return values[Matrix.MSCALE_X];
+    }
+
+    float getTranslateX() {
+        matrix.getValues(values);
+        return values[Matrix.MTRANS_X];
+    }
+
+    float getTranslateY() {
+        matrix.getValues(values);
+        return values[Matrix.MTRANS_Y];
+    }
+
+    /**
+     * Count allocations made by the transform math on the touch path and by
+     * each frame callback, views included, to check both stay at zero. The
+     * counter only runs inside those calls; still, debug builds only.
+     */
+    void setTrackAllocations(boolean enabled) {
+        trackAllocations = enabled;
+    }
+
+    /**
+     * Pan during a drag. Past the bounds the content follows the finger with
+     * resistance, up to {@code maxOverscroll} of the viewport; call
+     * {@link #clampToBounds} or animate back afterwards.
+     */
+    void dragBy(float dx, float dy, float resistance, float maxOverscroll) {
+        if (!hasContent()) return;
+        int before = allocCount();
+        updateBounds();
+        float x = values[Matrix.MTRANS_X];
+        float y = values[Matrix.MTRANS_Y];
+        float minX = bounds.getMinX();
+        float maxX = bounds.getMaxX();
+        float minY = bounds.getMinY();
+        float maxY = bounds.getMaxY();
+        if (x + dx > maxX || x + dx < minX) dx *= resistance;
+        if (y + dy > maxY || y + dy < minY) dy *= resistance;
+        float overX = viewportWidth * maxOverscroll;
+        float overY = viewportHeight * maxOverscroll;
+        values[Matrix.MTRANS_X] = Math.max(minX - overX, Math.min(x + dx, maxX + overX));
+        values[Matrix.MTRANS_Y] = Math.max(minY - overY, Math.min(y + dy, maxY + overY));
+        matrix.setValues(values);
+        changed(before);
+    }
+
+    /** Move to an absolute translation without clamping; for animations. */
+    void translateTo(float x, float y) {
+        int before = allocCount();
+        matrix.getValues(values);
+        values[Matrix.MTRANS_X] = x;
+        values[Matrix.MTRANS_Y] = y;
+        matrix.setValues(values);
+        changed(before);
+    }
+
+    /** Set an absolute scale about a focus point, within base..max, then clamp. */
+    void scaleTo(float scale, float focusX, float focusY) {
+        int before = allocCount();
+        scale = Math.max(baseScale, Math.min(scale, getMaxScale()));
+        float factor = scale / getScale();
+        matrix.postScale(factor, factor, focusX, focusY);
+        clampToBounds();
+        changed(before);
+    }
+
+    /** Zoom about a focus point; each step is limited to 0.7–1.3x for smoothness. */
+    void zoomBy(float factor, float focusX, float focusY) {
+        int before = allocCount();
+        factor = Math.max(0.7f, Math.min(factor, 1.3f));
+
+        float currentScale = getScale();
+        float minScale = baseScale;
+        float maxScale = baseScale * maxScaleMultiplier;
+        float targetScale = currentScale * factor;
+        if (targetScale < minScale) {
+            factor = minScale / currentScale;
+        } else if (targetScale > maxScale) {
+            factor = maxScale / currentScale;
+        }
+
+        matrix.postScale(factor, factor, focusX, focusY);
+        clampToBounds();
+        changed(before);
+    }
+
+    /**
+     * Keep the content at least as wide as the viewport, and panned so no
+     * empty space shows; content shorter than the viewport is centred
+     * vertically.
+     */
+    void clampToBounds() {
+        if (!hasContent()) return;
+        updateBounds();
+        values[Matrix.MTRANS_X] = clampX(values[Matrix.MTRANS_X]);
+        values[Matrix.MTRANS_Y] = clampY(values[Matrix.MTRANS_Y]);
+        matrix.setValues(values);
+    }
+
+    /**
+     * Recompute the translation bounds for the current scale, first raising
+     * the scale if the content no longer fills the viewport width. Leaves the
+     * current matrix values in the scratch array.
+     */
+    void updateBounds() {
+        matrix.getValues(values);
+        float scale = values[Matrix.MSCALE_X];
+        float fitted = bounds.update(viewportWidth, viewportHeight, contentWidth, contentHeight, scale);
+        if (fitted != scale) {
+            // Narrower than the viewport: snap back to fit-width
+            matrix.setScale(fitted, fitted);
+            baseScale = fitted;
+            matrix.getValues(values);
+        }
+    }
+
+    /** {@code x} moved into the bounds from the last {@link #updateBounds}. */
+    float clampX(float x) {
+        return bounds.clampX(x);
+    }
+
+    float clampY(float y) {
+        return bounds.clampY(y);
+    }
+
+    /**
+     * Push the matrix to the target now, e.g. after a new image was laid out,
+     * or from another frame callback that just changed it, which would
+     * otherwise only show on the next vsync.
+     */
+    void applyNow() {
+        if (frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+        }
+        push();
+    }
+
+    /** Drop a pending frame, e.g. when the activity goes away. */
+    void cancel() {
+        if (frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        push();
+    }
+
+    private void push() {
+        frames++;
+        if (!trackAllocations) {
+            target.onMatrixChanged(matrix);
+            return;
+        }
+        int before = AllocCounter.begin();
+        try {
+            target.onMatrixChanged(matrix);
+        } finally {
+            int allocated = AllocCounter.read() - before;
+            AllocCounter.end();
+            frameAllocations += allocated;
+            worstFrameAllocations = Math.max(worstFrameAllocations, allocated);
+        }
+    }
+
+    String stats() {
+        String line = "viewport frames=" + frames + " updates=" + updates
+                + " coalesced=" + Math.max(0, updates - frames);
+        return trackAllocations
+                ? line + " touchAllocs=" + touchAllocations + " frameAllocs=" + frameAllocations
+                        + " worstFrameAllocs=" + worstFrameAllocations
+                : line;
+    }
+
+    private void changed(int allocsBefore) {
+        updates++;
+        if (!frameScheduled) {
+            frameScheduled = true;
+            choreographer.postFrameCallback(this);
+        }
+        countAllocations(allocsBefore);
+    }
+
+    private int allocCount() {
+        return trackAllocations ? AllocCounter.begin() : 0;
+    }
+
+    private void countAllocations(int before) {
+        if (trackAllocations) {
+            touchAllocations += AllocCounter.read() - before;
+            AllocCounter.end();
+        }
+    }
+}
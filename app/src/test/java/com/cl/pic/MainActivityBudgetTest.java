@@ -0,0 +1,238 @@
+package com.cl.pic;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.Button;
+import android.widget.EditText;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Drives MainActivity headless with scripted touch sequences over a
+ * recorded playlist and fails when any operation in {@link BudgetMonitor}
+ * goes over its committed budget.
+ *
+ * The script runs twice and only the second pass is judged, so class
+ * loading and first-call setup don't count.
+ *
+ * Only what holds on the JVM is asserted: no operation may write the prefs
+ * file, and none may take longer than {@link #JVM_CEILING_MS}, which catches
+ * blocking work on the main thread without depending on how fast the build
+ * machine is. The per-call times in {@link BudgetMonitor} are device numbers
+ * and the allocation counter reads nothing off-device, so both are left to
+ * the live checks in debug builds; their worst cases are in the report.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(qualifiers = "w960dp-h540dp-land-mdpi")
+public class MainActivityBudgetTest {
+
+    private static final int PLAYLIST_SIZE = 6;
+    private static final long FRAME_MS = 16;
+    // Robolectric's shadows run far slower than a device; this is for stalls, not frames
+    private static final long JVM_CEILING_MS = 250;
+
+    private ActivityController<MainActivity> controller;
+    private MainActivity activity;
+    private View root;
+    private long downTime;
+
+    @Before
+    public void setUp() throws IOException {
+        List<String> playlist = recordPlaylist(RuntimeEnvironment.getApplication(), PLAYLIST_SIZE);
+        controller = Robolectric.buildActivity(MainActivity.class).setup();
+        activity = controller.get();
+        activity.budgets.setEnabled(true);
+        root = activity.findViewById(R.id.rootLayout);
+
+        // Through the URL box, as a driver would; each one is prepended to the playlist
+        EditText url = activity.findViewById(R.id.etUrl);
+        Button load = activity.findViewById(R.id.btnLoadUrl);
+        for (String uri : playlist) {
+            url.setText(uri);
+            load.performClick();
+            advance(FRAME_MS);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        controller.pause().stop().destroy();
+    }
+
+    @Test
+    public void scriptedSessionStaysWithinBudgets() {
+        BudgetMonitor budgets = activity.budgets;
+        runScript();
+        for (OperationBudget op : budgets.all) {
+            op.reset();
+        }
+
+        runScript();
+
+        // Every budget was exercised
+        for (OperationBudget op : budgets.all) {
+            assertTrue(op.name + " never ran", op.calls() > 0);
+        }
+        for (OperationBudget op : budgets.all) {
+            assertEquals(op.toString(), 0, op.worstPrefsWrites());
+            assertTrue(op.toString(), op.worstNanos() <= JVM_CEILING_MS * 1_000_000L);
+        }
+    }
+
+    private void runScript() {
+        // Brightness: a horizontal drag adjusts mode 1, a vertical one mode 2
+        drag(0.3f, 0.8f, 0.6f, 0.8f);
+        drag(0.3f, 0.7f, 0.3f, 0.3f);
+        // Pinch out about the middle, then pan with two fingers
+        pinch(0.5f, 0.5f, 0.05f, 0.3f);
+        twoFingerPan(0.5f, 0.5f, -0.2f, 0.1f);
+        // Right half: next image, twice
+        doubleTap(0.8f, 0.5f);
+        doubleTap(0.8f, 0.5f);
+        // Left half: open the config panel (refreshing history), then close it
+        doubleTap(0.1f, 0.5f);
+        doubleTap(0.1f, 0.5f);
+        // Let decodes, animations and the prefs flush finish between passes
+        advance(2_000);
+    }
+
+    private void drag(float fromX, float fromY, float toX, float toY) {
+        down(fromX, fromY);
+        for (int i = 1; i <= 10; i++) {
+            advance(FRAME_MS);
+            float t = i / 10f;
+            send(MotionEvent.ACTION_MOVE, fromX + (toX - fromX) * t, fromY + (toY - fromY) * t);
+        }
+        send(MotionEvent.ACTION_UP, toX, toY);
+        advance(500);
+    }
+
+    /** Two fingers either side of the centre, spreading from {@code from} to {@code to} apart. */
+    private void pinch(float cx, float cy, float from, float to) {
+        down(cx - from, cy);
+        advance(FRAME_MS);
+        send(pointerAction(MotionEvent.ACTION_POINTER_DOWN), cx - from, cy, cx + from, cy);
+        float half = from;
+        for (int i = 1; i <= 10; i++) {
+            advance(FRAME_MS);
+            half = from + (to - from) * i / 10f;
+            send(MotionEvent.ACTION_MOVE, cx - half, cy, cx + half, cy);
+        }
+        send(pointerAction(MotionEvent.ACTION_POINTER_UP), cx - half, cy, cx + half, cy);
+        send(MotionEvent.ACTION_UP, cx - half, cy);
+        advance(1_000);
+    }
+
+    private void twoFingerPan(float cx, float cy, float dx, float dy) {
+        float gap = 0.1f;
+        down(cx - gap, cy);
+        advance(FRAME_MS);
+        send(pointerAction(MotionEvent.ACTION_POINTER_DOWN), cx - gap, cy, cx + gap, cy);
+        float x = cx;
+        float y = cy;
+        for (int i = 1; i <= 10; i++) {
+            advance(FRAME_MS);
+            x = cx + dx * i / 10f;
+            y = cy + dy * i / 10f;
+            send(MotionEvent.ACTION_MOVE, x - gap, y, x + gap, y);
+        }
+        send(pointerAction(MotionEvent.ACTION_POINTER_UP), x - gap, y, x + gap, y);
+        send(MotionEvent.ACTION_UP, x - gap, y);
+        // Any fling settles and saves
+        advance(1_000);
+    }
+
+    private void doubleTap(float x, float y) {
+        down(x, y);
+        advance(50);
+        send(MotionEvent.ACTION_UP, x, y);
+        advance(100);
+        down(x, y);
+        advance(50);
+        send(MotionEvent.ACTION_UP, x, y);
+        // Past the double-tap timeout, so the next tap starts afresh
+        advance(500);
+    }
+
+    private void down(float x, float y) {
+        downTime = SystemClock.uptimeMillis();
+        send(MotionEvent.ACTION_DOWN, x, y);
+    }
+
+    private static int pointerAction(int action) {
+        return action | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+    }
+
+    /** One event now; coordinates are fractions of the root, one x/y pair per pointer. */
+    private void send(int action, float... xy) {
+        int count = xy.length / 2;
+        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[count];
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[count];
+        for (int i = 0; i < count; i++) {
+            properties[i] = new MotionEvent.PointerProperties();
+            properties[i].id = i;
+            properties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[i] = new MotionEvent.PointerCoords();
+            coords[i].x = xy[2 * i] * root.getWidth();
+            coords[i].y = xy[2 * i + 1] * root.getHeight();
+            coords[i].pressure = 1f;
+            coords[i].size = 1f;
+        }
+        MotionEvent event = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), action, count,
+                properties, coords, 0, 0, 1f, 1f, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+        root.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    /** Move the clock on, running whatever the main looper has due. */
+    private static void advance(long ms) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ms));
+    }
+
+    /** Small solid PNGs in the cache dir, named like camera files. */
+    private static List<String> recordPlaylist(Context context, int count) throws IOException {
+        File dir = new File(context.getCacheDir(), "playlist");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        List<String> uris = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            File file = new File(dir, String.format(Locale.US, "IMG_%04d.png", i));
+            Bitmap bitmap = Bitmap.createBitmap(1920, 1080, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(0xFF000000 | (i * 0x202020));
+            try (OutputStream out = new FileOutputStream(file)) {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            }
+            bitmap.recycle();
+            uris.add(Uri.fromFile(file).toString());
+        }
+        return uris;
+    }
+}
@@ -0,0 +1,200 @@
+package com.cl.pic;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs the slideshow through thousands of transitions on Robolectric's clock
+ * against a host that decodes like {@link NeighborPrefetcher}: one request
+ * ahead, replaced by the next, taken when shown. Decodes produce real
+ * bitmaps, recycled when replaced or taken off screen. Some decodes are
+ * slower than the lead time, and touches pause it now and then.
+ *
+ * The heap floor the controller samples must not grow between its first
+ * window and its last; a leaked bitmap per transition would add gigabytes.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SlideshowControllerSoakTest {
+
+    private static final int PLAYLIST_SIZE = 40;
+    private static final long DWELL_MS = 1_000;
+    private static final long LEAD_MS = 400;
+    private static final int TRANSITIONS = 5_000;
+    private static final long STEP_MS = 50;
+    private static final int BITMAP_WIDTH = 960;
+    private static final int BITMAP_HEIGHT = 540;
+    // Room for collector noise, well under one bitmap per hundred transitions
+    private static final long HEAP_GROWTH_LIMIT_BYTES = 16L * 1024 * 1024;
+
+    @Test
+    public void shuffledSoakStaysBounded() {
+        soak(true);
+    }
+
+    @Test
+    public void inOrderSoakStaysBounded() {
+        soak(false);
+    }
+
+    private static void soak(boolean shuffled) {
+        FakeHost host = new FakeHost(new Random(7));
+        SlideshowController slideshow = new SlideshowController(host);
+        slideshow.configure(DWELL_MS, LEAD_MS, shuffled);
+        slideshow.start();
+
+        Random touches = new Random(11);
+        while (host.transitions < TRANSITIONS) {
+            idle(STEP_MS);
+            if (touches.nextInt(400) == 0) {
+                slideshow.pause();
+                idle(3_000);
+                slideshow.resume();
+            }
+            // The image on screen plus at most the next one
+            assertTrue("decoding " + host.decoding.size(), host.decoding.size() <= 1);
+            assertTrue("held " + host.held(), host.held() <= 2);
+            assertEquals(host.held(), host.created - host.recycled);
+        }
+
+        slideshow.stop();
+        assertEquals(0, host.decoding.size());
+        // Only the image on screen is left
+        assertEquals(1, host.created - host.recycled);
+        // One decode started per transition, and the one in hand when stopped
+        assertTrue("requests " + host.requests, host.requests <= host.transitions + 1);
+        assertEquals(0, host.repeats);
+
+        assertTrue(slideshow.stats(), slideshow.heapFirstFloor() > 0);
+        assertTrue(slideshow.stats(),
+                slideshow.heapLastFloor() - slideshow.heapFirstFloor() < HEAP_GROWTH_LIMIT_BYTES);
+
+        // Every image comes up equally often; the first pass may skip the one already shown
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int count : host.shownCount) {
+            min = Math.min(min, count);
+            max = Math.max(max, count);
+        }
+        assertTrue("shown " + min + ".." + max, max - min <= 2);
+    }
+
+    private static void idle(long ms) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ms));
+    }
+
+    private static final class FakeHost implements SlideshowController.Host {
+        private final Random random;
+        private final Handler handler = new Handler(Looper.getMainLooper());
+        private final Set<String> decoding = new HashSet<>();
+        private final Map<String, Bitmap> decoded = new HashMap<>();
+        private final int[] shownCount = new int[PLAYLIST_SIZE];
+        private Bitmap onScreen;
+        private String aheadUri;
+        private int current;
+        private int transitions;
+        private int requests;
+        private int repeats;
+        private long created;
+        private long recycled;
+
+        FakeHost(Random random) {
+            this.random = random;
+        }
+
+        int held() {
+            return decoded.size() + (onScreen != null ? 1 : 0);
+        }
+
+        @Override
+        public int playlistSize() {
+            return PLAYLIST_SIZE;
+        }
+
+        @Override
+        public String playlistUri(int index) {
+            return String.format(Locale.US, "file:///sdcard/DCIM/IMG_%04d.jpg", index);
+        }
+
+        @Override
+        public int currentIndex() {
+            return current;
+        }
+
+        @Override
+        public void decodeAhead(String uri) {
+            if (aheadUri != null && !aheadUri.equals(uri)) {
+                // Replaced: cancelled if running, released if done
+                decoding.remove(aheadUri);
+                recycle(decoded.remove(aheadUri));
+            }
+            aheadUri = uri;
+            if (uri == null || decoding.contains(uri) || decoded.containsKey(uri)) return;
+            requests++;
+            decoding.add(uri);
+            // Mostly well inside the lead time; one in ten misses it and the transition waits
+            long decodeMs = random.nextInt(10) == 0 ? 600 + random.nextInt(1_500) : 50 + random.nextInt(250);
+            handler.postDelayed(() -> {
+                if (decoding.remove(uri)) {
+                    decoded.put(uri, decode());
+                }
+            }, decodeMs);
+        }
+
+        @Override
+        public boolean isDecoded(String uri) {
+            return decoded.containsKey(uri);
+        }
+
+        @Override
+        public void showSlide(String uri) {
+            int index = Integer.parseInt(uri.substring(uri.length() - 8, uri.length() - 4));
+            if (index == current) repeats++;
+            // Taken for the screen; not decoded means the controller gave up waiting and
+            // the normal load path decodes it, while the ahead request stays until replaced
+            Bitmap bitmap = decoded.remove(uri);
+            if (bitmap != null && uri.equals(aheadUri)) {
+                aheadUri = null;
+            }
+            recycle(onScreen);
+            onScreen = bitmap != null ? bitmap : decode();
+            current = index;
+            shownCount[index]++;
+            transitions++;
+            if (transitions % 100 == 50) {
+                // Once per heap window, so the controller's floor sees the live set
+                System.gc();
+            }
+        }
+
+        private Bitmap decode() {
+            created++;
+            Bitmap bitmap = Bitmap.createBitmap(BITMAP_WIDTH, BITMAP_HEIGHT, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(0xFF000000 | (int) created);
+            return bitmap;
+        }
+
+        private void recycle(Bitmap bitmap) {
+            if (bitmap != null) {
+                bitmap.recycle();
+                recycled++;
+            }
+        }
+    }
+}
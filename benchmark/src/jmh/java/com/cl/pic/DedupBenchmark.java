@@ -0,0 +1,68 @@
+package com.cl.pic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content dedup of a scan's worth of files, a fifth of them copies. The
+ * first scan hashes every file; later ones find them in the hash index and
+ * only stat them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DedupBenchmark {
+
+    private static final int FILE_SIZE = 256 * 1024;
+
+    @Param({"100", "1000"})
+    public int files;
+
+    private File dir;
+    private List<String> paths;
+    private ContentHashIndex warmIndex;
+    private ExecutorService pool;
+    private final ContentDeduplicator.Opener opener = uri -> ContentDeduplicator.openFile(new File(uri));
+
+    @Setup(Level.Trial)
+    public void createFiles() throws Exception {
+        File tmp = File.createTempFile("clpic-dedup", "");
+        if (!tmp.delete()) throw new IOException("Cannot delete " + tmp);
+        dir = tmp;
+        paths = SyntheticTree.createPhotos(dir, files, FILE_SIZE, 42);
+        pool = Executors.newFixedThreadPool(DeviceScanner.defaultParallelism());
+        warmIndex = ContentHashIndex.empty();
+        new ContentDeduplicator(warmIndex, opener, null, pool).filter(paths, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        pool.shutdownNow();
+        SyntheticTree.delete(dir);
+    }
+
+    @Benchmark
+    public int firstScan() throws InterruptedException {
+        return new ContentDeduplicator(ContentHashIndex.empty(), opener, null, pool).filter(paths, null).size();
+    }
+
+    @Benchmark
+    public int indexedRescan() throws InterruptedException {
+        return new ContentDeduplicator(warmIndex, opener, null, pool).filter(paths, null).size();
+    }
+}
@@ -0,0 +1,82 @@
+package com.cl.pic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History on disk: replaying the journal at launch, and the append made for
+ * every image shown.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryStoreBenchmark {
+
+    // Same as MainActivity.MAX_HISTORY
+    private static final int MAX_ENTRIES = 5000;
+
+    @Param({"1000", "5000"})
+    public int entries;
+
+    private File journal;
+    // Separate file, so appends never change what openAndList replays
+    private File liveJournal;
+    private List<String> uris;
+    private HistoryStore store;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void writeJournal() throws IOException {
+        journal = File.createTempFile("clpic-history", ".log");
+        liveJournal = File.createTempFile("clpic-history", ".log");
+        uris = SyntheticTree.uris(entries, 3);
+        fill(journal);
+        fill(liveJournal);
+        store = HistoryStore.open(liveJournal, MAX_ENTRIES);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() {
+        store.close();
+        journal.delete();
+        liveJournal.delete();
+    }
+
+    @Benchmark
+    public int openAndList() {
+        HistoryStore opened = HistoryStore.open(journal, MAX_ENTRIES);
+        try {
+            return opened.list(HistoryStore.PUBLIC, 120).size();
+        } finally {
+            opened.close();
+        }
+    }
+
+    @Benchmark
+    public boolean touch() {
+        String uri = uris.get(next);
+        next = (next + 1) % uris.size();
+        return store.touch(HistoryStore.PUBLIC, uri);
+    }
+
+    private void fill(File file) {
+        HistoryStore writer = HistoryStore.open(file, MAX_ENTRIES);
+        for (int i = 0; i < uris.size(); i++) {
+            writer.touch(i % 4 == 0 ? HistoryStore.PRIVATE : HistoryStore.PUBLIC, uris.get(i));
+        }
+        writer.close();
+    }
+}
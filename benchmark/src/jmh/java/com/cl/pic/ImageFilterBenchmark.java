@@ -0,0 +1,44 @@
+package com.cl.pic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of the extension check run on every directory entry. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageFilterBenchmark {
+
+    private static final int NAMES = 1024;
+
+    private final String[] names = new String[NAMES];
+
+    @Setup
+    public void createNames() {
+        String[] samples = {
+                "IMG_20240101_120000.jpg", "IMG_0001.JPEG", "Screenshot_1.png", "VID_0001.mp4",
+                "notes.txt", "DSC00042.JPG", "sticker.webp", "IMG_0002.jpg.xmp",
+        };
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = samples[i % samples.length];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public int isImageFile() {
+        int matches = 0;
+        for (String name : names) {
+            if (DeviceScanner.isImageFile(name)) matches++;
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,65 @@
+package com.cl.pic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the playlist from scan results: each batch is sorted
+ * case-insensitively, as the scan thread does, then merged with duplicates
+ * dropped. Plus the per-navigation lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlaylistBenchmark {
+
+    // Same as MainActivity.SCAN_BATCH_SIZE
+    private static final int BATCH_SIZE = 200;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private List<String> uris;
+    private Playlist full;
+    private String probe;
+
+    @Setup
+    public void createUris() {
+        uris = SyntheticTree.uris(size, 7);
+        full = build();
+        probe = uris.get(uris.size() / 2);
+    }
+
+    @Benchmark
+    public int sortAndMerge() {
+        return build().size();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int indexOf() {
+        return full.indexOf(probe);
+    }
+
+    private Playlist build() {
+        Playlist playlist = new Playlist();
+        for (int start = 0; start < uris.size(); start += BATCH_SIZE) {
+            List<String> batch = new ArrayList<>(uris.subList(start, Math.min(start + BATCH_SIZE, uris.size())));
+            Collections.sort(batch, String.CASE_INSENSITIVE_ORDER);
+            playlist.mergeSorted(batch);
+        }
+        return playlist;
+    }
+}
@@ -0,0 +1,66 @@
+package com.cl.pic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Device scan throughput over synthetic trees. A cold scan lists every
+ * directory; a rescan reuses the index from the previous scan, which is the
+ * normal case for the scan button.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int files;
+
+    @Param({"true", "false"})
+    public boolean nio;
+
+    private File root;
+    private List<File> roots;
+    private ScanIndex index;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        root = SyntheticTree.create(files, 42);
+        roots = Collections.singletonList(root);
+        index = new DeviceScanner(DeviceScanner.defaultParallelism(), nio)
+                .setIndex(ScanIndex.empty(), true)
+                .scan(roots).index;
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() {
+        SyntheticTree.delete(root);
+    }
+
+    @Benchmark
+    public int coldScan() {
+        return new DeviceScanner(DeviceScanner.defaultParallelism(), nio)
+                .scan(roots).paths.size();
+    }
+
+    @Benchmark
+    public int indexedRescan() {
+        return new DeviceScanner(DeviceScanner.defaultParallelism(), nio)
+                .setIndex(index, false)
+                .scan(roots).paths.size();
+    }
+}
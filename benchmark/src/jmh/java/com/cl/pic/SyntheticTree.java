@@ -0,0 +1,115 @@
+package com.cl.pic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Throwaway directory trees and URI lists shaped like a phone's storage:
+ * a few top-level folders, nested album folders of up to 50 entries, mostly
+ * JPEGs with some videos, sidecars and hidden files mixed in.
+ */
+final class SyntheticTree {
+
+    private static final int FILES_PER_DIR = 50;
+    private static final int DIRS_PER_DIR = 8;
+    private static final String[] OTHER_EXTENSIONS = {".mp4", ".txt", ".xmp", ".json"};
+
+    private SyntheticTree() {
+    }
+
+    /** Create {@code fileCount} empty files under a new temporary directory. */
+    static File create(int fileCount, long seed) throws IOException {
+        File root = File.createTempFile("clpic-bench", "");
+        if (!root.delete() || !root.mkdirs()) {
+            throw new IOException("Cannot create " + root);
+        }
+        Random random = new Random(seed);
+        List<File> dirs = new ArrayList<>();
+        dirs.add(root);
+        int created = 0;
+        int next = 0;
+        while (created < fileCount) {
+            File dir = dirs.get(next++);
+            for (int i = 0; i < FILES_PER_DIR && created < fileCount; i++, created++) {
+                touch(new File(dir, fileName(random, created)));
+            }
+            for (int i = 0; i < DIRS_PER_DIR; i++) {
+                File sub = new File(dir, "album_" + dirs.size());
+                if (!sub.mkdir()) throw new IOException("Cannot create " + sub);
+                dirs.add(sub);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * {@code count} content URIs over a few hundred folders, about one in ten
+     * a repeat of an earlier one, in random order.
+     */
+    static List<String> uris(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> uris = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && random.nextInt(10) == 0) {
+                uris.add(uris.get(random.nextInt(i)));
+            } else {
+                uris.add("file:///storage/emulated/0/DCIM/Folder" + random.nextInt(300)
+                        + "/IMG_" + random.nextInt(1_000_000) + (random.nextBoolean() ? ".jpg" : ".JPG"));
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * {@code count} files of random bytes, {@code size} long, in the new
+     * directory {@code dir}; about one in five is a copy of an earlier one.
+     * Returns their paths in creation order.
+     */
+    static List<String> createPhotos(File dir, int count, int size, long seed) throws IOException {
+        if (!dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        Random random = new Random(seed);
+        List<byte[]> contents = new ArrayList<>();
+        List<String> paths = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] content;
+            if (i > 0 && random.nextInt(5) == 0) {
+                content = contents.get(random.nextInt(contents.size()));
+            } else {
+                content = new byte[size];
+                random.nextBytes(content);
+                contents.add(content);
+            }
+            File file = new File(dir, "IMG_" + i + ".jpg");
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(content);
+            }
+            paths.add(file.getPath());
+        }
+        return paths;
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String fileName(Random random, int n) {
+        int kind = random.nextInt(20);
+        if (kind == 0) return ".hidden_" + n + ".jpg";
+        if (kind < 4) return "VID_" + n + OTHER_EXTENSIONS[kind % OTHER_EXTENSIONS.length];
+        return "IMG_" + n + (kind % 2 == 0 ? ".jpg" : ".JPEG");
+    }
+
+    private static void touch(File file) throws IOException {
+        if (!file.createNewFile()) throw new IOException("Cannot create " + file);
+    }
+}
@@ -0,0 +1,37 @@
+package com.cl.pic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-gesture cost of the bounds math: one two-finger pan of 120 move
+ * events, each recomputing the bounds at a slowly growing zoom and clamping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ViewportBoundsBenchmark {
+
+    private static final int MOVES = 120;
+
+    private final ViewportBounds bounds = new ViewportBounds();
+
+    @Benchmark
+    public float panGesture() {
+        float scale = 0.5f;
+        float x = 0;
+        float y = 0;
+        for (int i = 0; i < MOVES; i++) {
+            scale = bounds.update(1920, 720, 4000, 3000, scale * 1.005f);
+            x = bounds.clampX(x - 13);
+            y = bounds.clampY(y - 7);
+        }
+        return x + y + scale;
+    }
+}
@@ -0,0 +1,17 @@
+package com.cl.pic;
+
+/**
+ * Cooperative cancellation flag shared between the UI thread and background work.
+ */
+public final class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,484 @@
+package com.cl.pic;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Drops scanned images whose content was already seen under another URI,
+ * e.g. the same photo synced into DCIM, Pictures and Downloads.
+ *
+ * Two tiers, so most files are never read in full:
+ * <ol>
+ *   <li>A fingerprint of the size plus the first and last {@link #BLOCK_SIZE}
+ *       bytes. Files with different fingerprints are different.</li>
+ *   <li>Only when a fingerprint matches an earlier file are both hashed in
+ *       full; equal full hashes make the later file a duplicate.</li>
+ * </ol>
+ * Hashes are 64 bits of SHA-1 and, with the size also matching, are taken
+ * as equality. Both tiers read files in parallel on the given executor and
+ * are cached in a {@link ContentHashIndex}. The cache is checked with the
+ * size and mtime the caller listed a file with, or failing that a
+ * {@link Stat}, so an unchanged file is not opened at all; only without
+ * either is it opened for them.
+ *
+ * Optionally a perceptual hash collapses near-duplicate bursts: a kept image
+ * whose {@link PerceptualHash} is within {@link #NEAR_DISTANCE} bits of one
+ * already kept and modified within {@link #BURST_WINDOW_MS} of it is dropped
+ * as well. That needs a decode per image, so it is off unless a hasher is
+ * given.
+ *
+ * Within and across batches the first URI seen wins. {@link #filter} may be
+ * called from several threads; batches are processed one at a time.
+ */
+public final class ContentDeduplicator {
+
+    public static final int BLOCK_SIZE = 16 * 1024;
+    public static final int NEAR_DISTANCE = 6;
+    public static final long BURST_WINDOW_MS = 10_000;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Steps run per item on the executor
+    private static final int FINGERPRINT = 0;
+    private static final int FULL_HASH = 1;
+    private static final int PERCEPTUAL = 2;
+
+    /** An opened image: its size, mtime and positional reads. */
+    public interface Source extends Closeable {
+        long size() throws IOException;
+
+        long lastModified() throws IOException;
+
+        /** Read up to {@code length} bytes at {@code position}; -1 at the end. */
+        int read(long position, byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    public interface Opener {
+        Source open(String uri) throws IOException;
+    }
+
+    /**
+     * Size and mtime without opening, where that is cheaper than
+     * {@link Opener#open}; in the same units as the opened {@link Source}.
+     */
+    public interface Stat {
+        /** @return {size, mtime}, or null to open the file for them instead */
+        long[] stat(String uri) throws IOException;
+    }
+
+    /** Decodes {@code uri} and returns its {@link PerceptualHash#dHash}. */
+    public interface PerceptualHasher {
+        long hash(String uri) throws IOException;
+    }
+
+    private final ContentHashIndex index;
+    private final Opener opener;
+    private final PerceptualHasher perceptual;
+    private final ExecutorService executor;
+    private Stat stat;
+
+    // Resolution state, guarded by this
+    private final Map<Long, List<Item>> byFingerprint = new HashMap<>();
+    // Kept images by mtime / BURST_WINDOW_MS
+    private final Map<Long, List<Item>> byBurstWindow = new HashMap<>();
+    private final Set<String> seen = new HashSet<>();
+
+    // Stats, guarded by this
+    private int files;
+    private int cached;
+    private int partialHashed;
+    private int fullHashed;
+    private int perceptualHashed;
+    private int duplicates;
+    private int nearDuplicates;
+    private int errors;
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[READ_BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * @param perceptual null to only drop exact duplicates
+     * @param executor   runs the reads and hashes; owned by the caller
+     */
+    public ContentDeduplicator(ContentHashIndex index, Opener opener, PerceptualHasher perceptual,
+                               ExecutorService executor) {
+        this.index = index;
+        this.opener = opener;
+        this.perceptual = perceptual;
+        this.executor = executor;
+    }
+
+    /** Set before the first {@link #filter}; null opens every file the caller gave no metadata for. */
+    public ContentDeduplicator setStat(Stat stat) {
+        this.stat = stat;
+        return this;
+    }
+
+    /** Opens plain file paths; for tools and benchmarks. */
+    public static Source openFile(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final long mtime = file.lastModified();
+        return new Source() {
+            @Override
+            public long size() throws IOException {
+                return raf.length();
+            }
+
+            @Override
+            public long lastModified() {
+                return mtime;
+            }
+
+            @Override
+            public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+                raf.seek(position);
+                return raf.read(buffer, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                raf.close();
+            }
+        };
+    }
+
+    /**
+     * The URIs of {@code uris} whose content has not been seen before, in
+     * their original order. Unreadable files are kept; the loader reports them.
+     * Returns an empty list once {@code token} is cancelled.
+     */
+    public List<String> filter(List<String> uris, CancellationToken token) throws InterruptedException {
+        return filter(uris, null, null, token);
+    }
+
+    /**
+     * Same as {@link #filter(List, CancellationToken)}, with the size and
+     * mtime each file was listed with, parallel to {@code uris} and in the
+     * units of {@link Source}. Either array may be null, and -1 in it means
+     * not known.
+     */
+    public synchronized List<String> filter(List<String> uris, long[] sizes, long[] mtimes,
+                                            CancellationToken token) throws InterruptedException {
+        List<Item> items = new ArrayList<>(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            String uri = uris.get(i);
+            if (seen.add(uri)) {
+                items.add(new Item(uri, sizes != null ? sizes[i] : -1, mtimes != null ? mtimes[i] : -1));
+            }
+        }
+        files += items.size();
+
+        // Tier 1: size and partial hash of every file, in parallel
+        runAll(items, FINGERPRINT, token);
+        if (isCancelled(token)) return Collections.emptyList();
+        for (Item item : items) {
+            if (item.entry == null) {
+                errors++;
+            } else if (item.fromCache) {
+                cached++;
+            } else {
+                partialHashed++;
+            }
+        }
+
+        // First file with a fingerprint is kept; later ones need a full hash
+        List<Item> collisions = new ArrayList<>();
+        for (Item item : items) {
+            if (item.entry == null) continue;
+            List<Item> same = byFingerprint.get(item.entry.partialHash);
+            if (same == null) {
+                keep(item);
+            } else {
+                item.collidesWith = same;
+                collisions.add(item);
+            }
+        }
+
+        // Tier 2: full hashes of the collisions and whatever they collided with
+        if (!collisions.isEmpty()) {
+            List<Item> full = new ArrayList<>(collisions);
+            Set<Item> earlier = new HashSet<>();
+            for (Item item : collisions) {
+                earlier.addAll(item.collidesWith);
+            }
+            for (Item kept : earlier) {
+                if (!kept.entry.hasFull()) full.add(kept);
+            }
+            runAll(full, FULL_HASH, token);
+            if (isCancelled(token)) return Collections.emptyList();
+            for (Item item : full) {
+                if (item.fullHashed) {
+                    fullHashed++;
+                } else if (!item.entry.hasFull()) {
+                    errors++;
+                }
+            }
+
+            for (Item item : collisions) {
+                if (isDuplicate(item)) {
+                    item.dropped = true;
+                    duplicates++;
+                } else {
+                    keep(item);
+                }
+            }
+        }
+
+        if (perceptual != null) {
+            List<Item> kept = new ArrayList<>();
+            for (Item item : items) {
+                if (item.entry != null && !item.dropped) kept.add(item);
+            }
+            runAll(kept, PERCEPTUAL, token);
+            if (isCancelled(token)) return Collections.emptyList();
+            for (Item item : kept) {
+                if (item.perceptualHashed) {
+                    perceptualHashed++;
+                } else if (!item.entry.hasPerceptual()) {
+                    errors++;
+                }
+                if (isNearDuplicate(item)) {
+                    item.dropped = true;
+                    nearDuplicates++;
+                }
+            }
+        }
+
+        List<String> result = new ArrayList<>(items.size());
+        for (Item item : items) {
+            if (!item.dropped) result.add(item.uri);
+        }
+        return result;
+    }
+
+    /** Forget entries of files not seen by this deduplicator; call after a complete scan. */
+    public synchronized void pruneIndex() {
+        index.retainAll(seen);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "dedup %d files (%d cached), hashed %d partial %d full %d perceptual, dropped %d duplicates %d near, %d errors",
+                files, cached, partialHashed, fullHashed, perceptualHashed, duplicates, nearDuplicates, errors);
+    }
+
+    private void keep(Item item) {
+        List<Item> same = byFingerprint.get(item.entry.partialHash);
+        if (same == null) {
+            same = new ArrayList<>(1);
+            byFingerprint.put(item.entry.partialHash, same);
+        }
+        same.add(item);
+    }
+
+    private static boolean isDuplicate(Item item) {
+        if (!item.entry.hasFull()) return false;
+        for (Item kept : item.collidesWith) {
+            ContentHashIndex.Entry other = kept.entry;
+            if (other.hasFull() && other.size == item.entry.size && other.fullHash == item.entry.fullHash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Only images from this window and the two next to it can be close enough in time. */
+    private boolean isNearDuplicate(Item item) {
+        if (!item.entry.hasPerceptual()) return false;
+        long window = item.entry.mtime / BURST_WINDOW_MS;
+        for (long w = window - 1; w <= window + 1; w++) {
+            List<Item> candidates = byBurstWindow.get(w);
+            if (candidates == null) continue;
+            for (Item kept : candidates) {
+                ContentHashIndex.Entry other = kept.entry;
+                if (Math.abs(other.mtime - item.entry.mtime) <= BURST_WINDOW_MS
+                        && PerceptualHash.distance(other.perceptualHash, item.entry.perceptualHash) <= NEAR_DISTANCE) {
+                    return true;
+                }
+            }
+        }
+        List<Item> same = byBurstWindow.get(window);
+        if (same == null) {
+            same = new ArrayList<>();
+            byBurstWindow.put(window, same);
+        }
+        same.add(item);
+        return false;
+    }
+
+    private static boolean isCancelled(CancellationToken token) {
+        return token != null && token.isCancelled();
+    }
+
+    private void runAll(List<Item> items, int step, CancellationToken token) throws InterruptedException {
+        List<Callable<Void>> tasks = new ArrayList<>(items.size());
+        for (Item item : items) {
+            tasks.add(() -> {
+                if (!isCancelled(token)) run(item, step);
+                return null;
+            });
+        }
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // run() catches I/O errors; anything else is a bug
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Called on executor threads, while {@link #filter} holds the lock: only
+     * touches the item and the thread-safe index.
+     */
+    private void run(Item item, int step) {
+        try {
+            switch (step) {
+                case FINGERPRINT:
+                    fingerprint(item);
+                    break;
+                case FULL_HASH:
+                    if (!item.entry.hasFull()) {
+                        item.entry = item.entry.withFull(fullHash(item.uri, item.entry));
+                        item.fullHashed = true;
+                        index.put(item.uri, item.entry);
+                    }
+                    break;
+                case PERCEPTUAL:
+                    if (!item.entry.hasPerceptual()) {
+                        item.entry = item.entry.withPerceptual(perceptual.hash(item.uri));
+                        item.perceptualHashed = true;
+                        index.put(item.uri, item.entry);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("step " + step);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Keep the file; without the hash it cannot be matched
+        }
+    }
+
+    private void fingerprint(Item item) throws IOException {
+        long size = item.listedSize;
+        long mtime = item.listedMtime;
+        if ((size < 0 || mtime < 0) && stat != null) {
+            long[] known = stat.stat(item.uri);
+            if (known != null) {
+                size = known[0];
+                mtime = known[1];
+            }
+        }
+        if (size >= 0 && mtime >= 0 && fromCache(item, size, mtime)) return;
+
+        try (Source source = opener.open(item.uri)) {
+            size = source.size();
+            mtime = source.lastModified();
+            // The listing may have been stale
+            if (fromCache(item, size, mtime)) return;
+            long partial = hash(source, size, true);
+            ContentHashIndex.Entry entry = new ContentHashIndex.Entry(size, mtime, partial, 0, 0, 0);
+            index.put(item.uri, entry);
+            item.entry = entry;
+        }
+    }
+
+    private boolean fromCache(Item item, long size, long mtime) {
+        ContentHashIndex.Entry entry = index.get(item.uri, size, mtime);
+        if (entry == null) return false;
+        item.entry = entry;
+        item.fromCache = true;
+        return true;
+    }
+
+    private long fullHash(String uri, ContentHashIndex.Entry entry) throws IOException {
+        try (Source source = opener.open(uri)) {
+            if (source.size() != entry.size) throw new IOException("Changed while scanning: " + uri);
+            return hash(source, entry.size, false);
+        }
+    }
+
+    /** SHA-1 of the size and either the whole file or its first and last block, folded to 64 bits. */
+    private static long hash(Source source, long size, boolean partial) throws IOException {
+        MessageDigest digest = sha1();
+        for (int i = 56; i >= 0; i -= 8) {
+            digest.update((byte) (size >>> i));
+        }
+        byte[] buffer = BUFFERS.get();
+        if (!partial || size <= 2L * BLOCK_SIZE) {
+            update(digest, source, 0, size, buffer);
+        } else {
+            update(digest, source, 0, BLOCK_SIZE, buffer);
+            update(digest, source, size - BLOCK_SIZE, BLOCK_SIZE, buffer);
+        }
+        byte[] sum = digest.digest();
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (sum[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    private static void update(MessageDigest digest, Source source, long position, long length, byte[] buffer)
+            throws IOException {
+        long end = position + length;
+        while (position < end) {
+            int n = source.read(position, buffer, 0, (int) Math.min(buffer.length, end - position));
+            if (n < 0) throw new IOException("Unexpected end of file");
+            digest.update(buffer, 0, n);
+            position += n;
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime has SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** One URI of the batch being filtered. */
+    private static final class Item {
+        final String uri;
+        // As listed by the caller, or -1
+        final long listedSize;
+        final long listedMtime;
+        // Written by executor threads; invokeAll() publishes them
+        ContentHashIndex.Entry entry;
+        boolean fromCache;
+        boolean fullHashed;
+        boolean perceptualHashed;
+        List<Item> collidesWith;
+        boolean dropped;
+
+        Item(String uri, long listedSize, long listedMtime) {
+            this.uri = uri;
+            this.listedSize = listedSize;
+            this.listedMtime = listedMtime;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.cl.pic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent cache of content hashes, keyed by URI, so each file is read and
+ * hashed once rather than on every scan.
+ *
+ * An entry is only reused while the file's size and mtime are the ones it
+ * was hashed at. The full and perceptual hashes are optional: they are only
+ * computed for files that need them, and kept once they have been.
+ *
+ * File layout (big-endian, DataOutputStream):
+ *   int magic, int version, int count, then per entry: UTF uri, long size,
+ *   long mtime, long partialHash, long fullHash, long perceptualHash,
+ *   byte flags.
+ *
+ * Thread-safe.
+ */
+public final class ContentHashIndex {
+
+    private static final int MAGIC = 0x436C4348; // "ClCH"
+    private static final int VERSION = 1;
+
+    public static final int HAS_FULL = 1;
+    public static final int HAS_PERCEPTUAL = 2;
+
+    public static final class Entry {
+        public final long size;
+        public final long mtime;
+        /** Size, first and last block; see ContentDeduplicator */
+        public final long partialHash;
+        public final long fullHash;
+        public final long perceptualHash;
+        public final int flags;
+
+        public Entry(long size, long mtime, long partialHash, long fullHash, long perceptualHash, int flags) {
+            this.size = size;
+            this.mtime = mtime;
+            this.partialHash = partialHash;
+            this.fullHash = fullHash;
+            this.perceptualHash = perceptualHash;
+            this.flags = flags;
+        }
+
+        public boolean hasFull() {
+            return (flags & HAS_FULL) != 0;
+        }
+
+        public boolean hasPerceptual() {
+            return (flags & HAS_PERCEPTUAL) != 0;
+        }
+
+        public Entry withFull(long hash) {
+            return new Entry(size, mtime, partialHash, hash, perceptualHash, flags | HAS_FULL);
+        }
+
+        public Entry withPerceptual(long hash) {
+            return new Entry(size, mtime, partialHash, fullHash, hash, flags | HAS_PERCEPTUAL);
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    private ContentHashIndex(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    public static ContentHashIndex empty() {
+        return new ContentHashIndex(new ConcurrentHashMap<String, Entry>());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** The entry for {@code uri} if the file has not changed since it was hashed, else null. */
+    public Entry get(String uri, long size, long mtime) {
+        Entry entry = entries.get(uri);
+        if (entry == null || entry.size != size || entry.mtime != mtime) return null;
+        return entry;
+    }
+
+    public void put(String uri, Entry entry) {
+        entries.put(uri, entry);
+    }
+
+    /** Drop entries for files no longer found, after a complete scan. */
+    public void retainAll(Collection<String> uris) {
+        Iterator<String> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (!uris.contains(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    /** Load an index, or return an empty one if the file is missing or unreadable. */
+    public static ContentHashIndex load(File file) {
+        if (!file.isFile()) return empty();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return empty();
+            int count = in.readInt();
+            if (count < 0) return empty();
+
+            Map<String, Entry> entries = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                String uri = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long partial = in.readLong();
+                long full = in.readLong();
+                long perceptual = in.readLong();
+                int flags = in.readByte();
+                entries.put(uri, new Entry(size, mtime, partial, full, perceptual, flags));
+            }
+            return new ContentHashIndex(entries);
+        } catch (IOException | RuntimeException e) {
+            return empty();
+        }
+    }
+
+    /** Write to a temp file and rename, so a crash never leaves a torn index. */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            // Snapshot the count with the entries; writers may still be running
+            List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> e : snapshot) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.partialHash);
+                out.writeLong(entry.fullHash);
+                out.writeLong(entry.perceptualHash);
+                out.writeByte(entry.flags);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.cl.pic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Walks image directories on a bounded work-stealing pool.
+ *
+ * Every directory is one fork-join task. Workers append matches to their own
+ * bucket, so nothing is shared while walking; the buckets are concatenated once
+ * the pool is quiescent. Entries are classified with a single attribute read
+ * (NIO) instead of separate isDirectory/isFile/isHidden calls.
+ *
+ * With a {@link Listener}, each worker also hands its new matches over in
+ * batches (every {@code batchSize} files or {@code batchIntervalMs}, whichever
+ * comes first) so callers can show results before the walk finishes.
+ *
+ * With a previous {@link ScanIndex}, directories whose mtime is unchanged are
+ * not listed again; their cached entries are reused and only their
+ * subdirectories are visited. The result then carries an updated index.
+ *
+ * Kept free of android.* so it can run on a plain JVM.
+ */
+public final class DeviceScanner {
+
+    private static final String[] IMAGE_EXTENSIONS = {
+            ".jpg", ".jpeg", ".png", ".bmp", ".webp", ".gif"
+    };
+
+    private static final String[] NO_NAMES = new String[0];
+
+    /** Receives partial results; called on worker threads. */
+    public interface Listener {
+        void onBatch(List<String> paths);
+    }
+
+    private final int parallelism;
+    private final boolean useNio;
+    private int batchSize = 500;
+    private long batchIntervalNanos = 250_000_000L;
+    private ScanIndex previousIndex;
+    private boolean fullVerify;
+
+    /**
+     * @param parallelism max worker threads; clamped to at least 1
+     * @param useNio      use java.nio.file (API 26+), otherwise File.listFiles()
+     */
+    public DeviceScanner(int parallelism, boolean useNio) {
+        this.parallelism = Math.max(1, parallelism);
+        this.useNio = useNio;
+    }
+
+    /** Configure how often a {@link Listener} is fed while the walk runs. */
+    public DeviceScanner setBatching(int batchSize, long batchIntervalMs) {
+        this.batchSize = Math.max(1, batchSize);
+        this.batchIntervalNanos = Math.max(0, batchIntervalMs) * 1_000_000L;
+        return this;
+    }
+
+    /**
+     * Reuse {@code previous} for unchanged directories and build a new index.
+     * With {@code fullVerify} every directory is listed again, but the new
+     * index is still produced.
+     */
+    public DeviceScanner setIndex(ScanIndex previous, boolean fullVerify) {
+        this.previousIndex = previous != null ? previous : ScanIndex.empty();
+        this.fullVerify = fullVerify;
+        return this;
+    }
+
+    /** Default pool size: all cores but capped, the scan is I/O bound past that. */
+    public static int defaultParallelism() {
+        return Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static boolean isImageFile(String filename) {
+        int len = filename.length();
+        for (String ext : IMAGE_EXTENSIONS) {
+            int extLen = ext.length();
+            if (len > extLen && filename.regionMatches(true, len - extLen, ext, 0, extLen)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scan all roots and return absolute paths of the image files found.
+     * Roots that don't exist or are nested inside another root are skipped.
+     * The returned paths are in walk order, not sorted.
+     */
+    public Result scan(List<File> roots) {
+        return scan(roots, null, null);
+    }
+
+    /**
+     * Same as {@link #scan(List)}, but stops early once {@code token} is cancelled
+     * and streams matches to {@code listener}. Every path in the result has been
+     * delivered to the listener by the time this returns, unless cancelled.
+     */
+    public Result scan(List<File> roots, CancellationToken token, Listener listener) {
+        long startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        Walk walk = new Walk(token, listener, batchSize, batchIntervalNanos,
+                previousIndex, fullVerify);
+
+        List<DirTask> tasks = new ArrayList<>();
+        for (File root : distinctRoots(roots)) {
+            tasks.add(new DirTask(walk, root, -1));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (DirTask task : tasks) {
+                pool.execute(task);
+            }
+            for (DirTask task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        walk.flushAll();
+        return walk.merge(System.nanoTime() - startNanos, startMillis);
+    }
+
+    static List<File> distinctRoots(List<File> roots) {
+        List<File> candidates = new ArrayList<>();
+        for (File root : roots) {
+            if (root != null && root.isDirectory()) {
+                candidates.add(root.getAbsoluteFile());
+            }
+        }
+        // Shortest first, so a parent is always accepted before its children
+        Collections.sort(candidates, (a, b) -> a.getPath().length() - b.getPath().length());
+
+        List<File> result = new ArrayList<>();
+        for (File root : candidates) {
+            String path = root.getPath();
+            boolean covered = false;
+            for (File accepted : result) {
+                String acceptedPath = accepted.getPath();
+                if (path.equals(acceptedPath) || path.startsWith(acceptedPath + File.separator)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                result.add(root);
+            }
+        }
+        return result;
+    }
+
+    /** Per-worker accumulator; only ever touched by its owning thread while walking. */
+    private static final class Bucket {
+        final ArrayList<String> paths = new ArrayList<>(256);
+        final ArrayList<ScanIndex.DirEntry> entries = new ArrayList<>();
+        int directories;
+        int cachedDirectories;
+        int errors;
+        int flushedUpTo;
+        long lastFlushNanos;
+    }
+
+    /** State of one scan() call. */
+    private static final class Walk {
+        private final CancellationToken token;
+        private final Listener listener;
+        private final int batchSize;
+        private final long batchIntervalNanos;
+        private final ScanIndex previousIndex;
+        private final boolean fullVerify;
+        private final List<Bucket> buckets = new ArrayList<>();
+        private final ThreadLocal<Bucket> local = new ThreadLocal<Bucket>() {
+            @Override
+            protected Bucket initialValue() {
+                Bucket bucket = new Bucket();
+                // Once per worker thread, not per directory
+                synchronized (buckets) {
+                    buckets.add(bucket);
+                }
+                return bucket;
+            }
+        };
+
+        Walk(CancellationToken token, Listener listener, int batchSize, long batchIntervalNanos,
+             ScanIndex previousIndex, boolean fullVerify) {
+            this.token = token;
+            this.listener = listener;
+            this.batchSize = batchSize;
+            this.batchIntervalNanos = batchIntervalNanos;
+            this.previousIndex = previousIndex;
+            this.fullVerify = fullVerify;
+        }
+
+        Bucket bucket() {
+            return local.get();
+        }
+
+        boolean isCancelled() {
+            return token != null && token.isCancelled();
+        }
+
+        boolean isIndexing() {
+            return previousIndex != null;
+        }
+
+        ScanIndex.DirEntry cached(String path, long mtime) {
+            if (previousIndex == null || fullVerify) return null;
+            return previousIndex.getIfUnchanged(path, mtime);
+        }
+
+        /** Called by the owning worker after each directory. */
+        void maybeFlush(Bucket bucket) {
+            if (listener == null) return;
+            int pending = bucket.paths.size() - bucket.flushedUpTo;
+            if (pending == 0) return;
+
+            // lastFlushNanos starts at 0, so a worker's first match goes out immediately
+            long now = System.nanoTime();
+            if (pending >= batchSize || now - bucket.lastFlushNanos >= batchIntervalNanos) {
+                flush(bucket);
+                bucket.lastFlushNanos = now;
+            }
+        }
+
+        /** Called once the pool is quiescent. */
+        void flushAll() {
+            if (listener == null) return;
+            synchronized (buckets) {
+                for (Bucket b : buckets) {
+                    flush(b);
+                }
+            }
+        }
+
+        private void flush(Bucket bucket) {
+            int size = bucket.paths.size();
+            if (size == bucket.flushedUpTo || isCancelled()) return;
+            List<String> batch = new ArrayList<>(bucket.paths.subList(bucket.flushedUpTo, size));
+            bucket.flushedUpTo = size;
+            listener.onBatch(batch);
+        }
+
+        Result merge(long wallNanos, long startMillis) {
+            synchronized (buckets) {
+                int total = 0;
+                int entryCount = 0;
+                for (Bucket b : buckets) {
+                    total += b.paths.size();
+                    entryCount += b.entries.size();
+                }
+
+                List<String> paths = new ArrayList<>(total);
+                int directories = 0;
+                int cachedDirectories = 0;
+                int errors = 0;
+                for (Bucket b : buckets) {
+                    paths.addAll(b.paths);
+                    directories += b.directories;
+                    cachedDirectories += b.cachedDirectories;
+                    errors += b.errors;
+                }
+
+                // A cancelled walk saw only part of the tree, don't let it replace the index
+                ScanIndex index = null;
+                if (isIndexing() && !isCancelled()) {
+                    Map<String, ScanIndex.DirEntry> dirs = new HashMap<>(Math.max(16, entryCount * 4 / 3 + 1));
+                    for (Bucket b : buckets) {
+                        for (ScanIndex.DirEntry entry : b.entries) {
+                            dirs.put(entry.path, entry);
+                        }
+                    }
+                    long lastFullVerify = fullVerify ? startMillis : previousIndex.getLastFullVerifyMillis();
+                    index = new ScanIndex(dirs, startMillis, lastFullVerify);
+                }
+
+                ScanStats stats = new ScanStats(paths.size(), directories, cachedDirectories, errors,
+                        buckets.size(), wallNanos);
+                return new Result(paths, stats, index, isCancelled());
+            }
+        }
+    }
+
+    private final class DirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Walk walk;
+        private final File dir;
+        /** Already known from the parent's listing, or -1 */
+        private final long knownMtime;
+
+        DirTask(Walk walk, File dir, long knownMtime) {
+            this.walk = walk;
+            this.dir = dir;
+            this.knownMtime = knownMtime;
+        }
+
+        @Override
+        protected void compute() {
+            if (walk.isCancelled()) return;
+
+            Bucket bucket = walk.bucket();
+            bucket.directories++;
+
+            String dirPath = dir.getPath();
+            List<DirTask> children = new ArrayList<>();
+
+            long mtime = -1;
+            ScanIndex.DirEntry cached = null;
+            if (walk.isIndexing()) {
+                mtime = knownMtime >= 0 ? knownMtime : dir.lastModified();
+                cached = walk.cached(dirPath, mtime);
+            }
+
+            if (cached != null) {
+                bucket.cachedDirectories++;
+                for (String name : cached.images) {
+                    bucket.paths.add(dirPath + File.separator + name);
+                }
+                for (String name : cached.subdirs) {
+                    children.add(new DirTask(walk, new File(dir, name), -1));
+                }
+                bucket.entries.add(cached);
+            } else {
+                List<String> images = new ArrayList<>();
+                List<String> subdirs = new ArrayList<>();
+                try {
+                    if (useNio) {
+                        listNio(bucket, images, subdirs, children);
+                    } else {
+                        listLegacy(bucket, images, subdirs, children);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    bucket.errors++;
+                    // Don't cache a listing that may be incomplete
+                    mtime = -1;
+                }
+
+                for (String name : images) {
+                    bucket.paths.add(dirPath + File.separator + name);
+                }
+                if (walk.isIndexing() && mtime > 0 && !walk.isCancelled()) {
+                    bucket.entries.add(new ScanIndex.DirEntry(dirPath, mtime,
+                            subdirs.toArray(NO_NAMES), images.toArray(NO_NAMES)));
+                }
+            }
+
+            walk.maybeFlush(bucket);
+
+            if (!children.isEmpty() && !walk.isCancelled()) {
+                invokeAll(children);
+            }
+        }
+
+        private void listNio(Bucket bucket, List<String> images, List<String> subdirs,
+                             List<DirTask> children) throws IOException {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+                for (Path entry : stream) {
+                    if (walk.isCancelled()) return;
+                    String name = entry.getFileName().toString();
+                    if (name.startsWith(".")) continue; // Hidden, no stat needed
+
+                    BasicFileAttributes attrs;
+                    try {
+                        // One stat per entry; don't follow links so cycles can't trap the walk
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        bucket.errors++;
+                        continue;
+                    }
+
+                    if (attrs.isDirectory()) {
+                        subdirs.add(name);
+                        // The child's mtime comes for free with this stat
+                        children.add(new DirTask(walk, new File(dir, name), attrs.lastModifiedTime().toMillis()));
+                    } else if (attrs.isRegularFile() && isImageFile(name)) {
+                        images.add(name);
+                    }
+                }
+            }
+        }
+
+        private void listLegacy(Bucket bucket, List<String> images, List<String> subdirs,
+                                List<DirTask> children) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                throw new IllegalStateException("Cannot list " + dir);
+            }
+            for (File file : files) {
+                if (walk.isCancelled()) return;
+                String name = file.getName();
+                if (name.startsWith(".")) continue;
+
+                // Only image-named entries need the isFile check
+                if (isImageFile(name) && file.isFile()) {
+                    images.add(name);
+                } else if (file.isDirectory()) {
+                    subdirs.add(name);
+                    children.add(new DirTask(walk, file, -1));
+                }
+            }
+        }
+    }
+
+    public static final class Result {
+        public final List<String> paths;
+        public final ScanStats stats;
+        /** Index to persist for the next scan; null if not indexing or cancelled */
+        public final ScanIndex index;
+        public final boolean cancelled;
+
+        Result(List<String> paths, ScanStats stats, ScanIndex index, boolean cancelled) {
+            this.paths = paths;
+            this.stats = stats;
+            this.index = index;
+            this.cancelled = cancelled;
+        }
+    }
+}
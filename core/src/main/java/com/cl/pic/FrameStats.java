@@ -0,0 +1,76 @@
+package com.cl.pic;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Histogram of frame or draw durations, for comparing render paths.
+ *
+ * Durations fall into 0.25 ms buckets up to 64 ms, plus one overflow bucket,
+ * so recording is a single array increment and percentiles are accurate to a
+ * bucket. Thread-safe; frame metrics may arrive off the main thread.
+ */
+public final class FrameStats {
+
+    private static final long BUCKET_NANOS = 250_000L;
+    private static final int BUCKETS = 256;
+    // One 60 Hz vsync
+    private static final long FRAME_BUDGET_NANOS = 16_666_667L;
+
+    private final String name;
+    private final long[] buckets = new long[BUCKETS + 1];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long overBudget;
+
+    public FrameStats(String name) {
+        this.name = name;
+    }
+
+    public synchronized void record(long durationNanos) {
+        if (durationNanos < 0) return;
+        int bucket = (int) Math.min(durationNanos / BUCKET_NANOS, BUCKETS);
+        buckets[bucket]++;
+        count++;
+        totalNanos += durationNanos;
+        if (durationNanos > maxNanos) maxNanos = durationNanos;
+        if (durationNanos > FRAME_BUDGET_NANOS) overBudget++;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    /** Upper edge of the bucket holding the {@code percentile} (0-100) sample, in ms. */
+    public synchronized float percentileMillis(float percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i <= BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return i == BUCKETS ? maxNanos / 1e6f : (i + 1) * BUCKET_NANOS / 1e6f;
+            }
+        }
+        return maxNanos / 1e6f;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        overBudget = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (count == 0) return name + " frames=0";
+        return String.format(Locale.US,
+                "%s frames=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms over16ms=%d",
+                name, count, totalNanos / 1e6 / count,
+                percentileMillis(50), percentileMillis(90), percentileMillis(99),
+                maxNanos / 1e6, overBudget);
+    }
+}
@@ -0,0 +1,321 @@
+package com.cl.pic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recently viewed images, most recent first, in separate public and private
+ * namespaces.
+ *
+ * Each namespace is a hash map over a doubly-linked recency list, so touch,
+ * remove and {@link #latest} are O(1) whatever the size. Changes are appended
+ * to a journal as small touch/remove records; loading replays it. Once the
+ * journal holds more than twice the live entries it is rewritten from memory,
+ * oldest first, so replaying restores the same order.
+ *
+ * Not thread-safe.
+ */
+public final class HistoryStore {
+
+    public static final int PUBLIC = 0;
+    public static final int PRIVATE = 1;
+    private static final int NAMESPACES = 2;
+
+    private static final int MAGIC = 0x436C4853; // "ClHS"
+    private static final int VERSION = 1;
+    private static final int OP_TOUCH = 1;
+    private static final int OP_REMOVE = 2;
+    // Longer than any URI we store; anything bigger is a corrupt length
+    private static final int MAX_URI_BYTES = 64 * 1024;
+
+    private static final class Node {
+        final String uri;
+        Node newer;
+        Node older;
+
+        Node(String uri) {
+            this.uri = uri;
+        }
+    }
+
+    private static final class Namespace {
+        final Map<String, Node> nodes = new HashMap<>();
+        Node newest;
+        Node oldest;
+
+        void unlink(Node node) {
+            if (node.newer != null) node.newer.older = node.older; else newest = node.older;
+            if (node.older != null) node.older.newer = node.newer; else oldest = node.newer;
+            node.newer = null;
+            node.older = null;
+        }
+
+        void pushNewest(Node node) {
+            node.older = newest;
+            if (newest != null) newest.newer = node; else oldest = node;
+            newest = node;
+        }
+    }
+
+    private final File file;
+    private final int maxEntries;
+    private final Namespace[] namespaces = new Namespace[NAMESPACES];
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private FileOutputStream out;
+    private int recordsInLog;
+    // Journal ends in a torn record; rewrite before appending
+    private boolean needsCompact;
+    private IOException lastError;
+
+    private HistoryStore(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        for (int i = 0; i < NAMESPACES; i++) {
+            namespaces[i] = new Namespace();
+        }
+    }
+
+    /** Load the journal at {@code file}; a missing or corrupt file yields an empty store. */
+    public static HistoryStore open(File file, int maxEntries) {
+        HistoryStore store = new HistoryStore(file, maxEntries);
+        store.load();
+        return store;
+    }
+
+    public int size(int namespace) {
+        return namespaces[namespace].nodes.size();
+    }
+
+    public boolean isEmpty(int namespace) {
+        return namespaces[namespace].newest == null;
+    }
+
+    /** Most recent entry, or null. */
+    public String latest(int namespace) {
+        Node newest = namespaces[namespace].newest;
+        return newest != null ? newest.uri : null;
+    }
+
+    public boolean contains(int namespace, String uri) {
+        return namespaces[namespace].nodes.containsKey(uri);
+    }
+
+    /** Up to {@code limit} entries, most recent first. */
+    public List<String> list(int namespace, int limit) {
+        Namespace ns = namespaces[namespace];
+        List<String> result = new ArrayList<>(Math.min(limit, ns.nodes.size()));
+        for (Node node = ns.newest; node != null && result.size() < limit; node = node.older) {
+            result.add(node.uri);
+        }
+        return result;
+    }
+
+    /** Last write error, or null. The in-memory history stays valid either way. */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Move {@code uri} to the front, adding it if new. Touching the current
+     * front entry writes nothing.
+     *
+     * @return false if the change could not be persisted
+     */
+    public boolean touch(int namespace, String uri) {
+        if (!touchInMemory(namespaces[namespace], uri)) return true;
+        return persist(OP_TOUCH, namespace, uri);
+    }
+
+    /** @return false if the change could not be persisted */
+    public boolean remove(int namespace, String uri) {
+        if (!removeInMemory(namespaces[namespace], uri)) return true;
+        return persist(OP_REMOVE, namespace, uri);
+    }
+
+    /**
+     * Import a legacy history, most recent first. Entries already present keep
+     * their place; imported ones go behind them.
+     */
+    public void importLegacy(int namespace, List<String> newestFirst) {
+        Namespace ns = namespaces[namespace];
+        for (String uri : newestFirst) {
+            if (ns.nodes.containsKey(uri) || ns.nodes.size() >= maxEntries) continue;
+            Node node = new Node(uri);
+            ns.nodes.put(uri, node);
+            // Append as oldest
+            node.newer = ns.oldest;
+            if (ns.oldest != null) ns.oldest.older = node; else ns.newest = node;
+            ns.oldest = node;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            lastError = e;
+        }
+    }
+
+    public void close() {
+        closeOutput();
+    }
+
+    /** @return false if nothing changed, i.e. {@code uri} was already newest */
+    private boolean touchInMemory(Namespace ns, String uri) {
+        Node node = ns.nodes.get(uri);
+        if (node != null) {
+            if (node == ns.newest) return false;
+            ns.unlink(node);
+        } else {
+            node = new Node(uri);
+            ns.nodes.put(uri, node);
+        }
+        ns.pushNewest(node);
+
+        if (ns.nodes.size() > maxEntries) {
+            Node eldest = ns.oldest;
+            ns.unlink(eldest);
+            ns.nodes.remove(eldest.uri);
+        }
+        return true;
+    }
+
+    private boolean removeInMemory(Namespace ns, String uri) {
+        Node node = ns.nodes.remove(uri);
+        if (node == null) return false;
+        ns.unlink(node);
+        return true;
+    }
+
+    private boolean persist(int op, int namespace, String uri) {
+        try {
+            if (needsCompact || recordsInLog > Math.max(256, totalSize() * 2)) {
+                compact();
+            } else {
+                append(op, namespace, uri);
+            }
+            return true;
+        } catch (IOException e) {
+            lastError = e;
+            closeOutput();
+            // A partial append leaves a torn record behind
+            needsCompact = true;
+            return false;
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 16 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                needsCompact = true;
+                return;
+            }
+            while (true) {
+                int op = in.read();
+                if (op < 0) break;
+                try {
+                    int namespace = in.readUnsignedByte();
+                    int length = in.readInt();
+                    if (namespace >= NAMESPACES || length < 0 || length > MAX_URI_BYTES
+                            || (op != OP_TOUCH && op != OP_REMOVE)) {
+                        // Garbage from here on; keep what was read so far
+                        needsCompact = true;
+                        break;
+                    }
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    String uri = new String(bytes, StandardCharsets.UTF_8);
+                    if (op == OP_TOUCH) {
+                        touchInMemory(namespaces[namespace], uri);
+                    } else {
+                        removeInMemory(namespaces[namespace], uri);
+                    }
+                    recordsInLog++;
+                } catch (EOFException e) {
+                    // Torn final record
+                    needsCompact = true;
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            lastError = e;
+            needsCompact = true;
+        }
+    }
+
+    private void append(int op, int namespace, String uri) throws IOException {
+        if (out == null) {
+            if (!file.isFile()) {
+                compact();
+                return;
+            }
+            out = new FileOutputStream(file, true);
+        }
+        recordBuffer.reset();
+        writeRecord(new DataOutputStream(recordBuffer), op, namespace, uri);
+        // One write call per record
+        recordBuffer.writeTo(out);
+        recordsInLog++;
+    }
+
+    /** Rewrite the journal with only the live entries, oldest first. */
+    private void compact() throws IOException {
+        closeOutput();
+        File tmp = new File(file.getPath() + ".tmp");
+        int records = 0;
+        try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 16 * 1024))) {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            for (int namespace = 0; namespace < NAMESPACES; namespace++) {
+                for (Node node = namespaces[namespace].oldest; node != null; node = node.newer) {
+                    writeRecord(data, OP_TOUCH, namespace, node.uri);
+                    records++;
+                }
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+        recordsInLog = records;
+        needsCompact = false;
+    }
+
+    private static void writeRecord(DataOutputStream data, int op, int namespace, String uri) throws IOException {
+        byte[] bytes = uri.getBytes(StandardCharsets.UTF_8);
+        data.writeByte(op);
+        data.writeByte(namespace);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private int totalSize() {
+        int total = 0;
+        for (Namespace ns : namespaces) {
+            total += ns.nodes.size();
+        }
+        return total;
+    }
+
+    private void closeOutput() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.cl.pic;
+
+/**
+ * Tells a progressive JPEG from a baseline one by its frame header.
+ *
+ * A progressive file sends the whole image at low quality first and refines
+ * it with each later scan, so a prefix of it decodes to something worth
+ * showing. A baseline prefix only decodes to the top rows.
+ */
+public final class JpegProbe {
+
+    /** More bytes are needed before the frame header is reached. */
+    public static final int UNKNOWN = 0;
+    public static final int BASELINE = 1;
+    public static final int PROGRESSIVE = 2;
+    public static final int NOT_JPEG = 3;
+
+    private JpegProbe() {
+    }
+
+    /** Walk the marker segments of {@code data[0..length)} up to the first SOFn. */
+    public static int probe(byte[] data, int length) {
+        if (length < 2) return UNKNOWN;
+        if ((data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) return NOT_JPEG;
+
+        int pos = 2;
+        while (pos + 4 <= length) {
+            if ((data[pos] & 0xFF) != 0xFF) return NOT_JPEG;
+            int marker = data[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte
+                pos++;
+                continue;
+            }
+            switch (marker) {
+                case 0xC2: case 0xC6: case 0xCA: case 0xCE:
+                    return PROGRESSIVE;
+                case 0xC0: case 0xC1: case 0xC3: case 0xC5: case 0xC7:
+                case 0xC9: case 0xCB: case 0xCD: case 0xCF:
+                    return BASELINE;
+                case 0xD9: case 0xDA:
+                    // End of image or scan data before any frame header
+                    return NOT_JPEG;
+                default:
+                    break;
+            }
+            int segment = ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+            if (segment < 2) return NOT_JPEG;
+            pos += 2 + segment;
+        }
+        return UNKNOWN;
+    }
+}
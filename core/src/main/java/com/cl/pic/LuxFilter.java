@@ -0,0 +1,98 @@
+package com.cl.pic;
+
+/**
+ * Turns raw ambient light readings into a stable day/night decision.
+ *
+ * Readings are smoothed with an exponential moving average over log lux, so a
+ * passing shadow or a street lamp moves the average by the same fraction at
+ * 10 lux as at 10 000. The decision then needs the average to cross the far
+ * side of a hysteresis band, and the previous decision to have held for a
+ * minimum time, before it flips.
+ *
+ * Pure logic, driven by sample timestamps rather than the clock, so recorded
+ * lux traces replay the same way on a plain JVM. Not thread-safe.
+ */
+public final class LuxFilter {
+
+    private final double darkBelow;
+    private final double brightAbove;
+    private final double timeConstantMs;
+    private final long minDwellMs;
+
+    private boolean hasState;
+    private boolean dark;
+    private double smoothed;
+    private long lastSampleMs;
+    private long lastSwitchMs;
+
+    /**
+     * @param darkLux        go dark once the average falls below this
+     * @param brightLux      go bright once the average rises above this; above darkLux
+     * @param timeConstantMs how long the average takes to cover ~63% of a step
+     * @param minDwellMs     shortest time a decision is kept
+     */
+    public LuxFilter(float darkLux, float brightLux, long timeConstantMs, long minDwellMs) {
+        if (!(brightLux > darkLux) || darkLux < 0) {
+            throw new IllegalArgumentException("Need 0 <= darkLux < brightLux");
+        }
+        this.darkBelow = toLog(darkLux);
+        this.brightAbove = toLog(brightLux);
+        this.timeConstantMs = Math.max(1, timeConstantMs);
+        this.minDwellMs = minDwellMs;
+    }
+
+    /**
+     * Feed one reading taken at {@code timeMs} (any monotonic clock).
+     *
+     * @return true if the decision changed, including the very first one
+     */
+    public boolean update(long timeMs, float lux) {
+        if (Float.isNaN(lux) || lux < 0) return false;
+        double sample = toLog(lux);
+        if (!hasState) {
+            hasState = true;
+            smoothed = sample;
+            lastSampleMs = timeMs;
+            lastSwitchMs = timeMs;
+            // Inside the band, pick the nearer side
+            dark = sample < (darkBelow + brightAbove) / 2;
+            return true;
+        }
+
+        long dt = timeMs - lastSampleMs;
+        if (dt <= 0) return false;
+        lastSampleMs = timeMs;
+        smoothed += (sample - smoothed) * (1 - Math.exp(-dt / timeConstantMs));
+
+        if (timeMs - lastSwitchMs < minDwellMs) return false;
+        boolean next = dark ? smoothed < brightAbove : smoothed < darkBelow;
+        if (next == dark) return false;
+        dark = next;
+        lastSwitchMs = timeMs;
+        return true;
+    }
+
+    public boolean hasState() {
+        return hasState;
+    }
+
+    public boolean isDark() {
+        return dark;
+    }
+
+    public float getSmoothedLux() {
+        return hasState ? (float) (Math.exp(smoothed) - 1) : 0;
+    }
+
+    /** Forget everything; the next reading decides straight away. */
+    public void reset() {
+        hasState = false;
+        dark = false;
+        smoothed = 0;
+    }
+
+    private static double toLog(float lux) {
+        // +1 keeps pitch darkness finite
+        return Math.log(lux + 1.0);
+    }
+}
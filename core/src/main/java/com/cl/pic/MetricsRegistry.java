@@ -0,0 +1,124 @@
+package com.cl.pic;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named counters and duration histograms.
+ *
+ * Histograms use power-of-two microsecond buckets, so one covers 1 us to over
+ * an hour in 32 longs and recording is a bit count plus an increment.
+ * Percentiles are reported as the upper edge of their bucket, i.e. within a
+ * factor of two, which is plenty for spotting where launch time goes.
+ *
+ * Pure Java and thread-safe.
+ */
+public final class MetricsRegistry {
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public void count(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, key -> new AtomicLong());
+        }
+        counter.addAndGet(delta);
+    }
+
+    public void record(String name, long durationNanos) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(name, key -> new Histogram());
+        }
+        histogram.record(durationNanos);
+    }
+
+    public long counter(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /** Number of durations recorded under {@code name}. */
+    public long samples(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram.count() : 0;
+    }
+
+    public void clear() {
+        counters.clear();
+        histograms.clear();
+    }
+
+    /**
+     * One line per metric, sorted by name:
+     * {@code counter <name> <value>} and
+     * {@code histogram <name> count= mean_ms= p50_ms= p90_ms= p99_ms= max_ms= buckets=<le_us>:<n>,...}.
+     */
+    public void export(Writer out) throws IOException {
+        for (Map.Entry<String, AtomicLong> e : new TreeMap<>(counters).entrySet()) {
+            out.write("counter " + e.getKey() + " " + e.getValue().get() + "\n");
+        }
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            out.write("histogram " + e.getKey() + " " + e.getValue() + "\n");
+        }
+    }
+
+    private static final class Histogram {
+        private static final int BUCKETS = 33;
+
+        // Bucket i holds durations below 2^i us
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void record(long durationNanos) {
+            if (durationNanos < 0) return;
+            long micros = durationNanos / 1000;
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+            buckets[bucket]++;
+            count++;
+            totalNanos += durationNanos;
+            if (durationNanos > maxNanos) maxNanos = durationNanos;
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        private double percentileMillis(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, maxNanos / 1000.0) / 1000.0;
+                }
+            }
+            return maxNanos / 1e6;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "count=%d mean_ms=%.3f p50_ms=%.3f p90_ms=%.3f p99_ms=%.3f max_ms=%.3f",
+                    count, count > 0 ? totalNanos / 1e6 / count : 0.0,
+                    percentileMillis(50), percentileMillis(90), percentileMillis(99), maxNanos / 1e6));
+            sb.append(" buckets=");
+            boolean first = true;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (buckets[i] == 0) continue;
+                if (!first) sb.append(',');
+                sb.append(1L << i).append(':').append(buckets[i]);
+                first = false;
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.cl.pic;
+
+import java.util.Locale;
+
+/**
+ * A main-thread operation and the most it may cost per call: wall time,
+ * allocations, and SharedPreferences writes.
+ *
+ * Only writes that reach the file count against the budget. Changes handed
+ * to a write-behind front cost nothing until it flushes, so they are
+ * recorded for the report but not limited.
+ *
+ * The caller samples its counters around the operation and hands them to
+ * {@link #begin} and {@link #end}; this class only does the bookkeeping, so
+ * it has no Android dependency and allocates nothing unless a call goes over
+ * budget. Nested calls of the same operation are measured as one.
+ *
+ * Not thread-safe.
+ */
+public final class OperationBudget {
+
+    public final String name;
+    private final long maxNanos;
+    private final int maxAllocations;
+    private final int maxPrefsWrites;
+
+    private int depth;
+    private long startNanos;
+    private int startAllocations;
+    private int startPrefsChanges;
+    private int startPrefsWrites;
+
+    private long calls;
+    private long overBudget;
+    private long totalNanos;
+    private long worstNanos;
+    private int worstAllocations;
+    private int worstPrefsChanges;
+    private int worstPrefsWrites;
+
+    public OperationBudget(String name, float maxMillis, int maxAllocations, int maxPrefsWrites) {
+        this.name = name;
+        this.maxNanos = (long) (maxMillis * 1_000_000L);
+        this.maxAllocations = maxAllocations;
+        this.maxPrefsWrites = maxPrefsWrites;
+    }
+
+    public void begin(long nanos, int allocations, int prefsChanges, int prefsWrites) {
+        if (depth++ > 0) return;
+        startNanos = nanos;
+        startAllocations = allocations;
+        startPrefsChanges = prefsChanges;
+        startPrefsWrites = prefsWrites;
+    }
+
+    /**
+     * @return null if the call stayed within budget, otherwise a line saying
+     *         what it cost
+     */
+    public String end(long nanos, int allocations, int prefsChanges, int prefsWrites) {
+        if (depth == 0 || --depth > 0) return null;
+        long elapsed = nanos - startNanos;
+        int allocated = allocations - startAllocations;
+        int changes = prefsChanges - startPrefsChanges;
+        int writes = prefsWrites - startPrefsWrites;
+
+        calls++;
+        totalNanos += elapsed;
+        worstNanos = Math.max(worstNanos, elapsed);
+        worstAllocations = Math.max(worstAllocations, allocated);
+        worstPrefsChanges = Math.max(worstPrefsChanges, changes);
+        worstPrefsWrites = Math.max(worstPrefsWrites, writes);
+
+        if (elapsed <= maxNanos && allocated <= maxAllocations && writes <= maxPrefsWrites) {
+            return null;
+        }
+        overBudget++;
+        return String.format(Locale.US,
+                "%s over budget: %.2fms/%.2fms allocs=%d/%d prefsWrites=%d/%d prefsChanges=%d",
+                name, elapsed / 1e6, maxNanos / 1e6, allocated, maxAllocations,
+                writes, maxPrefsWrites, changes);
+    }
+
+    public long calls() {
+        return calls;
+    }
+
+    public long overBudget() {
+        return overBudget;
+    }
+
+    public long worstNanos() {
+        return worstNanos;
+    }
+
+    public int worstPrefsWrites() {
+        return worstPrefsWrites;
+    }
+
+    /** Forget the calls so far, e.g. the ones that warmed up the code path. */
+    public void reset() {
+        depth = 0;
+        calls = 0;
+        overBudget = 0;
+        totalNanos = 0;
+        worstNanos = 0;
+        worstAllocations = 0;
+        worstPrefsChanges = 0;
+        worstPrefsWrites = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%s calls=%d over=%d mean=%.2fms worst=%.2fms worstAllocs=%d worstPrefsChanges=%d worstPrefsWrites=%d",
+                name, calls, overBudget, calls > 0 ? totalNanos / 1e6 / calls : 0.0, worstNanos / 1e6,
+                worstAllocations, worstPrefsChanges, worstPrefsWrites);
+    }
+}
@@ -0,0 +1,50 @@
+package com.cl.pic;
+
+/**
+ * 64-bit difference hash (dHash) of an image, for spotting near-duplicates.
+ *
+ * The image is shrunk to {@link #WIDTH} x {@link #HEIGHT} grey pixels by the
+ * caller; each bit says whether a pixel is brighter than its right-hand
+ * neighbour. Re-encodes, small exposure changes and the next frame of a burst
+ * flip only a few bits, so two hashes a small {@link #distance} apart are
+ * almost certainly the same picture.
+ */
+public final class PerceptualHash {
+
+    public static final int WIDTH = 9;
+    public static final int HEIGHT = 8;
+
+    private PerceptualHash() {
+    }
+
+    /** Hash of a {@code WIDTH x HEIGHT} luma grid, row-major. */
+    public static long dHash(int[] luma) {
+        if (luma.length != WIDTH * HEIGHT) {
+            throw new IllegalArgumentException("Expected " + WIDTH * HEIGHT + " pixels, got " + luma.length);
+        }
+        long hash = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            int row = y * WIDTH;
+            for (int x = 0; x < WIDTH - 1; x++) {
+                hash <<= 1;
+                if (luma[row + x] > luma[row + x + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /** Rec. 601 luma of an ARGB pixel, 0..255. */
+    public static int luma(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        return (r * 299 + g * 587 + b * 114) / 1000;
+    }
+
+    /** Number of differing bits, 0..64. */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
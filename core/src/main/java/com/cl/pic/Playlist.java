@@ -0,0 +1,307 @@
+package com.cl.pic;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ordered, duplicate-free list of image URIs.
+ *
+ * Each URI is split at its last '/' into a prefix (the folder, interned in a
+ * shared table) and a name. Entries are stored once, by an id that never
+ * changes, in parallel arrays; the list order is a separate array of ids,
+ * right-aligned so prepending only moves the head. A primitive
+ * open-addressing hash table maps URIs to ids without ever concatenating
+ * prefix and name, which makes {@link #indexOf} O(1) and allocation-free.
+ *
+ * The list has two regions: entries added with {@link #prepend} stay at the
+ * front in insertion order; entries added with {@link #mergeSorted} follow,
+ * sorted case-insensitively. A merge only appends the new entries, inserts
+ * them into the hash table and shifts the ids in front of the last one, so
+ * building a playlist batch by batch does not copy or rehash it each time.
+ *
+ * Not thread-safe; use from the main thread.
+ */
+public final class Playlist {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Interned folder prefixes
+    private final Map<String, Integer> prefixIds = new HashMap<>();
+    private String[] prefixes = new String[8];
+    private int prefixCount;
+
+    // Entries by id, in the order they were added
+    private int[] prefixOf = new int[MIN_CAPACITY];
+    private String[] names = new String[MIN_CAPACITY];
+    private int[] hashes = new int[MIN_CAPACITY];
+    // Slot of each id in order
+    private int[] slotOf = new int[MIN_CAPACITY];
+    private int count;
+
+    // Ids in list order in slots [head, order.length); logical index i is slot head + i
+    private int[] order = new int[MIN_CAPACITY];
+    private int head = MIN_CAPACITY;
+    private int pinnedCount;
+
+    // id + 1, 0 = empty
+    private int[] table = new int[MIN_CAPACITY * 2];
+
+    public int size() {
+        return order.length - head;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public String get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+        }
+        int id = order[head + index];
+        return prefixes[prefixOf[id]].concat(names[id]);
+    }
+
+    public boolean contains(String uri) {
+        return indexOf(uri) >= 0;
+    }
+
+    public int indexOf(String uri) {
+        int id = findId(uri, uri.hashCode());
+        return id < 0 ? -1 : slotOf[id] - head;
+    }
+
+    public void clear() {
+        prefixIds.clear();
+        Arrays.fill(prefixes, 0, prefixCount, null);
+        prefixCount = 0;
+        prefixOf = new int[MIN_CAPACITY];
+        names = new String[MIN_CAPACITY];
+        hashes = new int[MIN_CAPACITY];
+        slotOf = new int[MIN_CAPACITY];
+        count = 0;
+        order = new int[MIN_CAPACITY];
+        head = MIN_CAPACITY;
+        pinnedCount = 0;
+        table = new int[MIN_CAPACITY * 2];
+    }
+
+    /**
+     * Insert {@code uri} at index 0 unless already present.
+     *
+     * @return the index of {@code uri} afterwards
+     */
+    public int prepend(String uri) {
+        int hash = uri.hashCode();
+        int existing = findId(uri, hash);
+        if (existing >= 0) return slotOf[existing] - head;
+
+        if (head == 0) {
+            growOrder(1);
+        }
+        int id = add(uri, hash);
+        order[--head] = id;
+        slotOf[id] = head;
+        pinnedCount++;
+        return 0;
+    }
+
+    /**
+     * Merge URIs into the sorted region, skipping any already present.
+     * {@code sortedUris} must be sorted with {@link String#CASE_INSENSITIVE_ORDER}.
+     *
+     * @return number of entries added
+     */
+    public int mergeSorted(List<String> sortedUris) {
+        // New ids come out in sorted order; the table catches duplicates within the batch too
+        int first = count;
+        for (int i = 0, n = sortedUris.size(); i < n; i++) {
+            String uri = sortedUris.get(i);
+            int hash = uri.hashCode();
+            if (findId(uri, hash) < 0) {
+                add(uri, hash);
+            }
+        }
+        int added = count - first;
+        if (added == 0) return 0;
+
+        if (head < added) {
+            growOrder(added);
+        }
+        // Pinned entries keep their place at the front
+        int newHead = head - added;
+        System.arraycopy(order, head, order, newHead, pinnedCount);
+        for (int slot = newHead; slot < newHead + pinnedCount; slot++) {
+            slotOf[order[slot]] = slot;
+        }
+
+        // Merge into the gap left of the sorted region: binary-search where each
+        // new entry goes and shift the run before it down. The write position
+        // trails the read position by the new entries still to place, so
+        // everything after the last new entry stays where it is.
+        int out = newHead + pinnedCount;
+        int src = head + pinnedCount;
+        for (int id = first; id < count; id++) {
+            int end = upperBound(src, order.length, id);
+            int run = end - src;
+            System.arraycopy(order, src, order, out, run);
+            for (int slot = out; slot < out + run; slot++) {
+                slotOf[order[slot]] = slot;
+            }
+            out += run;
+            src = end;
+            order[out] = id;
+            slotOf[id] = out++;
+        }
+        head = newHead;
+        return added;
+    }
+
+    /** Store a new entry and hash it; it is not in the list order yet. */
+    private int add(String uri, int hash) {
+        if (count == names.length) {
+            int capacity = count * 2;
+            prefixOf = Arrays.copyOf(prefixOf, capacity);
+            names = Arrays.copyOf(names, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            slotOf = Arrays.copyOf(slotOf, capacity);
+        }
+        int id = count++;
+        int split = uri.lastIndexOf('/') + 1;
+        prefixOf[id] = internPrefix(uri.substring(0, split));
+        names[id] = uri.substring(split);
+        hashes[id] = hash;
+
+        if (count * 2 > table.length) {
+            rebuildTable();
+        } else {
+            insertIntoTable(id, hash);
+        }
+        return id;
+    }
+
+    private int internPrefix(String prefix) {
+        Integer id = prefixIds.get(prefix);
+        if (id != null) return id;
+
+        if (prefixCount == prefixes.length) {
+            prefixes = Arrays.copyOf(prefixes, prefixCount * 2);
+        }
+        prefixes[prefixCount] = prefix;
+        prefixIds.put(prefix, prefixCount);
+        return prefixCount++;
+    }
+
+    /** Re-home the list order into a larger array with room for {@code extra} more, keeping it right-aligned. */
+    private void growOrder(int extra) {
+        int size = size();
+        int capacity = Math.max(MIN_CAPACITY, Math.max(size + extra, size * 2));
+        int newHead = capacity - size;
+
+        int[] newOrder = new int[capacity];
+        System.arraycopy(order, head, newOrder, newHead, size);
+        order = newOrder;
+        head = newHead;
+        for (int slot = head; slot < capacity; slot++) {
+            slotOf[order[slot]] = slot;
+        }
+    }
+
+    private void rebuildTable() {
+        int tableSize = Integer.highestOneBit(Math.max(MIN_CAPACITY, count * 2) - 1) << 1;
+        table = new int[tableSize];
+        for (int id = 0; id < count; id++) {
+            insertIntoTable(id, hashes[id]);
+        }
+    }
+
+    private void insertIntoTable(int id, int hash) {
+        int mask = table.length - 1;
+        int i = mix(hash) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id + 1;
+    }
+
+    private int findId(String uri, int hash) {
+        int mask = table.length - 1;
+        int i = mix(hash) & mask;
+        int entry;
+        while ((entry = table[i]) != 0) {
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(id, uri)) {
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean matches(int id, String uri) {
+        String prefix = prefixes[prefixOf[id]];
+        String name = names[id];
+        int prefixLen = prefix.length();
+        return prefixLen + name.length() == uri.length()
+                && uri.startsWith(prefix)
+                && uri.regionMatches(prefixLen, name, 0, name.length());
+    }
+
+    /** First slot in [from, to) whose entry sorts after {@code id}. */
+    private int upperBound(int from, int to, int id) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (compareIds(order[mid], id) <= 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /** Case-insensitive compare of two entries, like CASE_INSENSITIVE_ORDER on the full URIs. */
+    private int compareIds(int a, int b) {
+        String nameA = names[a];
+        String nameB = names[b];
+        if (prefixOf[a] == prefixOf[b]) {
+            return String.CASE_INSENSITIVE_ORDER.compare(nameA, nameB);
+        }
+        String prefixA = prefixes[prefixOf[a]];
+        String prefixB = prefixes[prefixOf[b]];
+        int byPrefix = String.CASE_INSENSITIVE_ORDER.compare(prefixA, prefixB);
+        // Anything but the length difference was decided by a character inside both prefixes
+        if (byPrefix != prefixA.length() - prefixB.length()) {
+            return byPrefix;
+        }
+        int splitA = prefixA.length();
+        int splitB = prefixB.length();
+        int len1 = splitA + nameA.length();
+        int len2 = splitB + nameB.length();
+        int n = Math.min(len1, len2);
+        for (int i = 0; i < n; i++) {
+            char c1 = i < splitA ? prefixA.charAt(i) : nameA.charAt(i - splitA);
+            char c2 = i < splitB ? prefixB.charAt(i) : nameB.charAt(i - splitB);
+            if (c1 != c2) {
+                c1 = Character.toUpperCase(c1);
+                c2 = Character.toUpperCase(c2);
+                if (c1 != c2) {
+                    c1 = Character.toLowerCase(c1);
+                    c2 = Character.toLowerCase(c2);
+                    if (c1 != c2) {
+                        return c1 - c2;
+                    }
+                }
+            }
+        }
+        return len1 - len2;
+    }
+
+    private static int mix(int hash) {
+        // String hashes of paths differ mostly in the low bits of the tail; spread them
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
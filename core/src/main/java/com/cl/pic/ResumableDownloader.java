@@ -0,0 +1,389 @@
+package com.cl.pic;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads images over HTTP into a disk cache, picking up where a dropped
+ * connection left off.
+ *
+ * Bytes land in {@code <key>.part} as they arrive, with the server's
+ * validator (a strong ETag, else Last-Modified) in {@code <key>.meta}. A
+ * retry asks for the rest with {@code Range} and {@code If-Range}: a 206
+ * appends, a 200 means the file changed and starts over. Without a
+ * validator a partial file cannot be trusted, so the retry starts from
+ * zero. Failed attempts back off exponentially; an attempt that
+ * made progress resets the count, so a link that keeps dropping but keeps
+ * delivering still finishes. A finished file is renamed to {@code <key>} and
+ * served from disk from then on; the cache is trimmed oldest-first to its
+ * byte budget.
+ *
+ * A semaphore caps the fetches running at once, so a burst of requests on a
+ * weak link shares it between a few downloads instead of starving all of
+ * them. Thread-safe; {@link #download} blocks.
+ */
+public final class ResumableDownloader {
+
+    /** Called on the downloading thread as bytes arrive. */
+    public interface Listener {
+        /** @param total the full length, or -1 if the server did not say */
+        void onProgress(File partial, long bytes, long total);
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String PART = ".part";
+    private static final String META = ".meta";
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 15000;
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int MAX_FAILURES = 5;
+    private static final long BACKOFF_BASE_MS = 500;
+    private static final long BACKOFF_MAX_MS = 8000;
+    // Leftovers of downloads nobody came back for
+    private static final long STALE_PART_MS = 24 * 60 * 60 * 1000L;
+
+    private final File dir;
+    private final long maxCacheBytes;
+    private final Semaphore slots;
+    // Keys being fetched; a second request for one waits rather than sharing its .part
+    private final Set<String> active = new HashSet<>();
+
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong resumes = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+
+    public ResumableDownloader(File dir, int maxConcurrent, long maxCacheBytes) {
+        this.dir = dir;
+        this.maxCacheBytes = maxCacheBytes;
+        this.slots = new Semaphore(Math.max(1, maxConcurrent), true);
+    }
+
+    /** The finished download of {@code url}, or null if it is not cached. */
+    public File cached(String url) {
+        File file = new File(dir, key(url));
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Fetch {@code url} unless it is already cached, and return the finished
+     * file. The partial file is kept on failure or cancellation so the next
+     * call resumes it.
+     */
+    public File download(String url, CancellationToken token, Listener listener) throws IOException {
+        String key = key(url);
+        File done = new File(dir, key);
+        if (done.isFile()) {
+            cacheHits.incrementAndGet();
+            // Recently used files survive the trim
+            done.setLastModified(System.currentTimeMillis());
+            return done;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File part = new File(dir, key + PART);
+        File meta = new File(dir, key + META);
+
+        claim(key, token);
+        try {
+            if (done.isFile()) {
+                // Finished by the request we waited for
+                cacheHits.incrementAndGet();
+                return done;
+            }
+            acquire(token);
+            try {
+                return fetchToCache(url, done, part, meta, token, listener);
+            } finally {
+                slots.release();
+            }
+        } finally {
+            unclaim(key);
+        }
+    }
+
+    private File fetchToCache(String url, File done, File part, File meta, CancellationToken token,
+                              Listener listener) throws IOException {
+        int failures = 0;
+        while (true) {
+            checkCancelled(token);
+            long before = part.length();
+            try {
+                if (fetch(url, part, meta, token, listener)) break;
+            } catch (InterruptedIOException e) {
+                if (token != null && token.isCancelled()) throw e;
+                failures = failed(e, part.length() > before ? 0 : failures + 1);
+            } catch (IOException e) {
+                failures = failed(e, part.length() > before ? 0 : failures + 1);
+            }
+            sleep(token, Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.max(0, failures - 1)));
+        }
+
+        meta.delete();
+        if (!part.renameTo(done)) {
+            throw new IOException("Failed to replace " + done);
+        }
+        downloads.incrementAndGet();
+        trim(done);
+        return done;
+    }
+
+    private int failed(IOException e, int failures) throws IOException {
+        if (failures >= MAX_FAILURES) throw e;
+        retries.incrementAndGet();
+        return failures;
+    }
+
+    /**
+     * One request, appending to {@code part} when the server honours the
+     * range. Returns true once the file is complete, false to start over.
+     */
+    private boolean fetch(String url, File part, File meta, CancellationToken token, Listener listener) throws IOException {
+        long have = part.length();
+        String validator = have > 0 ? readValidator(meta) : null;
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            // Range offsets count the bytes on disk, not a decompressed body
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            if (validator != null) {
+                conn.setRequestProperty("Range", "bytes=" + have + "-");
+                conn.setRequestProperty("If-Range", validator);
+            }
+
+            int code = conn.getResponseCode();
+            long total;
+            boolean append;
+            if (code == HttpURLConnection.HTTP_PARTIAL && validator != null) {
+                long[] range = parseContentRange(conn.getHeaderField("Content-Range"));
+                if (range == null || range[0] != have) {
+                    throw new IOException("Unexpected Content-Range " + conn.getHeaderField("Content-Range"));
+                }
+                total = range[1];
+                append = true;
+                resumes.incrementAndGet();
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                if (have > 0) restarts.incrementAndGet();
+                total = conn.getContentLengthLong();
+                append = false;
+                have = 0;
+                writeMeta(meta, validatorOf(conn));
+            } else if (code == 416) {
+                // Our partial file no longer matches the resource; start over
+                restarts.incrementAndGet();
+                part.delete();
+                meta.delete();
+                return false;
+            } else {
+                throw new IOException("HTTP " + code + " for " + url);
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = conn.getInputStream();
+                 OutputStream out = new FileOutputStream(part, append)) {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                    have += n;
+                    bytesFetched.addAndGet(n);
+                    checkCancelled(token);
+                    if (listener != null) {
+                        listener.onProgress(part, have, total);
+                    }
+                }
+            }
+            if (total >= 0 && have < total) {
+                throw new EOFException("Connection closed at " + have + " of " + total + " bytes");
+            }
+            return true;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /** {@code bytes start-end/total} as {start, total}; total is -1 for {@code *}. */
+    static long[] parseContentRange(String header) {
+        if (header == null || !header.startsWith("bytes ")) return null;
+        int dash = header.indexOf('-');
+        int slash = header.indexOf('/');
+        if (dash < 0 || slash < dash) return null;
+        try {
+            long start = Long.parseLong(header.substring(6, dash).trim());
+            String total = header.substring(slash + 1).trim();
+            return new long[] {start, "*".equals(total) ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** A strong ETag or Last-Modified; weak ETags are not allowed in If-Range. */
+    private static String validatorOf(HttpURLConnection conn) {
+        String etag = conn.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return conn.getHeaderField("Last-Modified");
+    }
+
+    private static String readValidator(File meta) {
+        if (!meta.isFile()) return null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(meta), UTF_8))) {
+            String line = in.readLine();
+            return line == null || line.isEmpty() ? null : line;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeMeta(File meta, String validator) throws IOException {
+        if (validator == null) {
+            meta.delete();
+            return;
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(meta), UTF_8)) {
+            out.write(validator);
+            out.write('\n');
+        }
+    }
+
+    /** Delete least recently used files, except {@code keep}, until the cache fits its budget. */
+    private synchronized void trim(File keep) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        long now = System.currentTimeMillis();
+        List<File> finished = new ArrayList<>();
+        long size = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(PART) || name.endsWith(META)) {
+                if (now - file.lastModified() > STALE_PART_MS) {
+                    file.delete();
+                }
+                continue;
+            }
+            if (!file.equals(keep)) {
+                finished.add(file);
+            }
+            size += file.length();
+        }
+        if (size <= maxCacheBytes) return;
+
+        Collections.sort(finished, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : finished) {
+            if (size <= maxCacheBytes) break;
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private void claim(String key, CancellationToken token) throws IOException {
+        synchronized (active) {
+            try {
+                while (active.contains(key)) {
+                    checkCancelled(token);
+                    active.wait(250);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + key);
+            }
+            active.add(key);
+        }
+    }
+
+    private void unclaim(String key) {
+        synchronized (active) {
+            active.remove(key);
+            active.notifyAll();
+        }
+    }
+
+    private void acquire(CancellationToken token) throws IOException {
+        try {
+            while (!slots.tryAcquire(250, TimeUnit.MILLISECONDS)) {
+                checkCancelled(token);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a download slot");
+        }
+    }
+
+    private static void sleep(CancellationToken token, long ms) throws IOException {
+        long end = System.currentTimeMillis() + ms;
+        try {
+            long left;
+            while ((left = end - System.currentTimeMillis()) > 0) {
+                checkCancelled(token);
+                Thread.sleep(Math.min(left, 250));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during backoff");
+        }
+    }
+
+    private static void checkCancelled(CancellationToken token) throws InterruptedIOException {
+        if (token != null && token.isCancelled()) {
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : Arrays.copyOf(digest, 16)) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResumableDownloader{downloads=" + downloads.get()
+                + ", cacheHits=" + cacheHits.get()
+                + ", resumes=" + resumes.get()
+                + ", restarts=" + restarts.get()
+                + ", retries=" + retries.get()
+                + ", bytes=" + bytesFetched.get() + "}";
+    }
+}
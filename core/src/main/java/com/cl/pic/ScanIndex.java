@@ -0,0 +1,161 @@
+package com.cl.pic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent result of the last device scan, keyed by directory path.
+ *
+ * Each directory keeps its mtime plus the names of its image files and
+ * subdirectories. A directory's mtime only changes when entries are added,
+ * removed or renamed in it, so a rescan can reuse the cached listing of any
+ * directory whose mtime is unchanged and only stat it.
+ *
+ * File layout (big-endian, DataOutputStream):
+ *   int magic, int version, long scannedAt, long lastFullVerify, int dirCount,
+ *   then per directory: UTF path, long mtime, int n, n x UTF subdir,
+ *   int m, m x UTF image name.
+ */
+public final class ScanIndex {
+
+    private static final int MAGIC = 0x436C5049; // "ClPI"
+    private static final int VERSION = 1;
+
+    /**
+     * Directories modified this close to the previous scan are always listed
+     * again. FAT/exFAT cards only store mtimes with 2 s granularity, so a file
+     * added right after a scan could otherwise leave the mtime unchanged.
+     */
+    private static final long RACY_WINDOW_MS = 2000;
+
+    public static final class DirEntry {
+        public final String path;
+        public final long mtime;
+        public final String[] subdirs;
+        public final String[] images;
+
+        public DirEntry(String path, long mtime, String[] subdirs, String[] images) {
+            this.path = path;
+            this.mtime = mtime;
+            this.subdirs = subdirs;
+            this.images = images;
+        }
+    }
+
+    private final Map<String, DirEntry> dirs;
+    private final long scannedAtMillis;
+    private final long lastFullVerifyMillis;
+
+    public ScanIndex(Map<String, DirEntry> dirs, long scannedAtMillis, long lastFullVerifyMillis) {
+        this.dirs = dirs;
+        this.scannedAtMillis = scannedAtMillis;
+        this.lastFullVerifyMillis = lastFullVerifyMillis;
+    }
+
+    public static ScanIndex empty() {
+        return new ScanIndex(Collections.<String, DirEntry>emptyMap(), 0, 0);
+    }
+
+    /** When the scan that produced this index started, wall clock. */
+    public long getScannedAtMillis() {
+        return scannedAtMillis;
+    }
+
+    /** When a scan last listed every directory without trusting the index. */
+    public long getLastFullVerifyMillis() {
+        return lastFullVerifyMillis;
+    }
+
+    public int size() {
+        return dirs.size();
+    }
+
+    public Collection<DirEntry> entries() {
+        return dirs.values();
+    }
+
+    /**
+     * The cached listing for {@code path}, or null if it must be listed again
+     * because it is unknown, its mtime changed, or it changed too close to the
+     * last scan to trust the mtime.
+     */
+    public DirEntry getIfUnchanged(String path, long mtime) {
+        DirEntry entry = dirs.get(path);
+        if (entry == null || entry.mtime != mtime || mtime <= 0) return null;
+        if (mtime >= scannedAtMillis - RACY_WINDOW_MS) return null;
+        return entry;
+    }
+
+    /** Load an index, or return an empty one if the file is missing or unreadable. */
+    public static ScanIndex load(File file) {
+        if (!file.isFile()) return empty();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return empty();
+            long scannedAt = in.readLong();
+            long lastFullVerify = in.readLong();
+            int count = in.readInt();
+
+            Map<String, DirEntry> dirs = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long mtime = in.readLong();
+                String[] subdirs = readNames(in);
+                String[] images = readNames(in);
+                dirs.put(path, new DirEntry(path, mtime, subdirs, images));
+            }
+            return new ScanIndex(dirs, scannedAt, lastFullVerify);
+        } catch (IOException | RuntimeException e) {
+            return empty();
+        }
+    }
+
+    /** Write to a temp file and rename, so a crash never leaves a torn index. */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(scannedAtMillis);
+            out.writeLong(lastFullVerifyMillis);
+            out.writeInt(dirs.size());
+            for (DirEntry entry : dirs.values()) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.mtime);
+                writeNames(out, entry.subdirs);
+                writeNames(out, entry.images);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    private static String[] readNames(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) throw new IOException("Corrupt index");
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = in.readUTF();
+        }
+        return names;
+    }
+
+    private static void writeNames(DataOutputStream out, String[] names) throws IOException {
+        out.writeInt(names.length);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+}
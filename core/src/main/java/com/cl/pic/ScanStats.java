@@ -0,0 +1,42 @@
+package com.cl.pic;
+
+import java.util.Locale;
+
+/**
+ * Counters for one device scan.
+ */
+public final class ScanStats {
+
+    public final int files;
+    public final int directories;
+    /** Directories served from the scan index without being listed */
+    public final int cachedDirectories;
+    public final int errors;
+    public final int workers;
+    public final long wallTimeNanos;
+
+    public ScanStats(int files, int directories, int cachedDirectories, int errors, int workers,
+                     long wallTimeNanos) {
+        this.files = files;
+        this.directories = directories;
+        this.cachedDirectories = cachedDirectories;
+        this.errors = errors;
+        this.workers = workers;
+        this.wallTimeNanos = wallTimeNanos;
+    }
+
+    public long wallTimeMillis() {
+        return wallTimeNanos / 1_000_000L;
+    }
+
+    public double filesPerSecond() {
+        if (wallTimeNanos <= 0) return 0;
+        return files * 1_000_000_000.0 / wallTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d files in %d dirs (%d cached), %d ms (%.0f files/s, %d workers, %d errors)",
+                files, directories, cachedDirectories, wallTimeMillis(), filesPerSecond(), workers, errors);
+    }
+}
@@ -0,0 +1,64 @@
+package com.cl.pic;
+
+import java.util.Random;
+
+/**
+ * Shuffled playback order over indices {@code [0, size)}.
+ *
+ * Every index comes up once per pass, in a Fisher-Yates permutation; the
+ * next pass is a fresh permutation that never starts with the index the
+ * previous one ended on, so nothing shows twice in a row. A change of size
+ * (the playlist grew during a scan) starts a new pass over the new range.
+ *
+ * Not thread-safe.
+ */
+public final class ShuffleOrder {
+
+    private final Random random;
+    private int[] order = new int[0];
+    private int position;
+    private int last = -1;
+
+    public ShuffleOrder(Random random) {
+        this.random = random;
+    }
+
+    /** Next index to show out of {@code size}, or -1 if {@code size} is 0. */
+    public int next(int size) {
+        if (size <= 0) return -1;
+        if (size != order.length) {
+            order = new int[size];
+            shuffle();
+        } else if (position == size) {
+            shuffle();
+        }
+        last = order[position++];
+        return last;
+    }
+
+    /** Forget the current pass; the next call starts a new one. */
+    public void reset() {
+        position = order.length;
+        last = -1;
+    }
+
+    private void shuffle() {
+        int size = order.length;
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        if (size > 1 && order[0] == last) {
+            // Swap the repeat anywhere else in the pass
+            int j = 1 + random.nextInt(size - 1);
+            order[0] = order[j];
+            order[j] = last;
+        }
+        position = 0;
+    }
+}
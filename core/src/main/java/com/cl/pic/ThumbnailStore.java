@@ -0,0 +1,225 @@
+package com.cl.pic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Packed file of small raw-pixel thumbnails with an in-memory offset index.
+ *
+ * Records are appended one after another: a 16-byte header (key, width,
+ * height, byte count) followed by the pixels exactly as the caller gave them,
+ * so serving a thumbnail is a copy out of the memory-mapped file with no
+ * decoding. The index is rebuilt on open by hopping from header to header.
+ * When the file would outgrow its budget it is simply started afresh; the
+ * thumbnails are cheap to regenerate.
+ *
+ * Thread-safe.
+ */
+public final class ThumbnailStore {
+
+    private static final int MAGIC = 0x436C5468; // "ClTh"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    /** A stored thumbnail; {@link #pixels} is a read-only view into the mapped file. */
+    public static final class Thumbnail {
+        public final int width;
+        public final int height;
+        public final ByteBuffer pixels;
+
+        Thumbnail(int width, int height, ByteBuffer pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+    }
+
+    private final File file;
+    private final int format;
+    private final long maxBytes;
+    // key -> offset of the record header
+    private final Map<Long, Long> index = new HashMap<>();
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long end;
+    private IOException lastError;
+
+    private ThumbnailStore(File file, int format, long maxBytes) {
+        this.file = file;
+        this.format = format;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Open or create the store. {@code format} identifies the pixel layout and
+     * size the caller writes; a file written with another format is discarded.
+     */
+    public static ThumbnailStore open(File file, int format, long maxBytes) {
+        ThumbnailStore store = new ThumbnailStore(file, format, maxBytes);
+        try {
+            store.load();
+        } catch (IOException e) {
+            store.lastError = e;
+            store.close();
+        }
+        return store;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized boolean contains(long key) {
+        return index.containsKey(key);
+    }
+
+    public synchronized IOException getLastError() {
+        return lastError;
+    }
+
+    /** @return the thumbnail, or null if absent or unreadable */
+    public synchronized Thumbnail get(long key) {
+        Long offset = index.get(key);
+        if (offset == null || channel == null) return null;
+        try {
+            if (mapped == null || mapped.capacity() < end) {
+                // Appended since the last mapping
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+            }
+            int at = offset.intValue();
+            int width = mapped.getShort(at + 8) & 0xFFFF;
+            int height = mapped.getShort(at + 10) & 0xFFFF;
+            int length = mapped.getInt(at + 12);
+            int start = at + RECORD_HEADER_SIZE;
+
+            ByteBuffer pixels = mapped.duplicate();
+            pixels.position(start);
+            pixels.limit(start + length);
+            return new Thumbnail(width, height, pixels.slice().asReadOnlyBuffer());
+        } catch (IOException e) {
+            lastError = e;
+            return null;
+        }
+    }
+
+    /** Store {@code pixels} (position to limit) under {@code key}, replacing any earlier entry. */
+    public synchronized boolean put(long key, int width, int height, ByteBuffer pixels) {
+        if (channel == null) return false;
+        int length = pixels.remaining();
+        try {
+            if (end + RECORD_HEADER_SIZE + length > maxBytes) {
+                recreate();
+            }
+            recordHeader.clear();
+            recordHeader.putLong(key).putShort((short) width).putShort((short) height).putInt(length);
+            recordHeader.flip();
+            long offset = end;
+            writeFully(recordHeader, offset);
+            writeFully(pixels.duplicate(), offset + RECORD_HEADER_SIZE);
+            end = offset + RECORD_HEADER_SIZE + length;
+            index.put(key, offset);
+            return true;
+        } catch (IOException e) {
+            lastError = e;
+            // The record may be half written; the next open truncates it
+            close();
+            return false;
+        }
+    }
+
+    public synchronized void close() {
+        mapped = null;
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+        }
+        raf = null;
+        channel = null;
+    }
+
+    private void load() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        long length = channel.size();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (length >= HEADER_SIZE) {
+            readFully(header, 0);
+            header.flip();
+        }
+        if (length < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != format) {
+            channel.truncate(0);
+            writeHeader();
+            return;
+        }
+
+        long offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= length) {
+            recordHeader.clear();
+            readFully(recordHeader, offset);
+            recordHeader.flip();
+            long key = recordHeader.getLong();
+            recordHeader.getInt();
+            int recordLength = recordHeader.getInt();
+            long next = offset + RECORD_HEADER_SIZE + recordLength;
+            if (recordLength < 0 || next > length) break;
+            index.put(key, offset);
+            offset = next;
+        }
+        if (offset != length) {
+            // Torn final record
+            channel.truncate(offset);
+        }
+        end = offset;
+    }
+
+    /**
+     * Start a new, empty file. The old one is unlinked rather than truncated:
+     * buffers handed out by {@link #get} stay readable, where touching a
+     * truncated mapping would crash.
+     */
+    private void recreate() throws IOException {
+        close();
+        index.clear();
+        if (!file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(format);
+        header.flip();
+        writeFully(header, 0);
+        end = HEADER_SIZE;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of " + file);
+            position += read;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
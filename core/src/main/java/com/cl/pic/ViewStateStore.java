@@ -0,0 +1,262 @@
+package com.cl.pic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saved pan/zoom per image, replacing the pos_/pos_x_/scale_ keys that made
+ * PicPrefs grow without bound.
+ *
+ * Entries are keyed by a 64-bit hash of the URI and kept in an access-ordered
+ * map capped at {@code maxEntries}, so the least recently viewed images fall
+ * out. Every change is appended to a log as one fixed 24-byte record; loading
+ * replays the log, later records winning. Once the log holds more than twice
+ * the live entries it is rewritten from memory.
+ *
+ * Not thread-safe.
+ */
+public final class ViewStateStore {
+
+    private static final int MAGIC = 0x436C5653; // "ClVS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 24;
+
+    private static final String LEGACY_Y = "pos_";
+    private static final String LEGACY_X = "pos_x_";
+    private static final String LEGACY_SCALE = "scale_";
+
+    public static final class State {
+        public final float x;
+        public final float y;
+        public final float scale;
+        /** Width of the bitmap the matrix applied to, 0 if unknown */
+        public final int imageWidth;
+
+        State(float x, float y, float scale, int imageWidth) {
+            this.x = x;
+            this.y = y;
+            this.scale = scale;
+            this.imageWidth = imageWidth;
+        }
+    }
+
+    private final File file;
+    private final int maxEntries;
+    private final LinkedHashMap<Long, State> states;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private FileChannel channel;
+    private int recordsInLog;
+    private IOException lastError;
+
+    private ViewStateStore(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.states = new LinkedHashMap<Long, State>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, State> eldest) {
+                return size() > ViewStateStore.this.maxEntries;
+            }
+        };
+    }
+
+    /** Load the log at {@code file}; a missing or corrupt file yields an empty store. */
+    public static ViewStateStore open(File file, int maxEntries) {
+        ViewStateStore store = new ViewStateStore(file, maxEntries);
+        store.load();
+        return store;
+    }
+
+    public State get(String uri) {
+        return states.get(hash(uri));
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    /** Last write error, or null. The in-memory state stays valid either way. */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Record the view state for {@code uri}. Unchanged values are not written.
+     *
+     * @return false if the change could not be persisted
+     */
+    public boolean put(String uri, float x, float y, float scale, int imageWidth) {
+        long key = hash(uri);
+        State old = states.get(key);
+        if (old != null && old.x == x && old.y == y && old.scale == scale && old.imageWidth == imageWidth) {
+            return true;
+        }
+        states.put(key, new State(x, y, scale, imageWidth));
+
+        try {
+            if (recordsInLog > Math.max(64, states.size() * 2)) {
+                compact();
+            } else {
+                append(key, x, y, scale, imageWidth);
+            }
+            return true;
+        } catch (IOException e) {
+            lastError = e;
+            closeChannel();
+            return false;
+        }
+    }
+
+    /**
+     * Import the legacy per-image keys from a SharedPreferences dump.
+     *
+     * @return the keys that were imported and can be removed from prefs
+     */
+    public List<String> importLegacy(Map<String, ?> prefs) {
+        Map<String, float[]> byUri = new HashMap<>();
+        List<String> consumed = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : prefs.entrySet()) {
+            String key = entry.getKey();
+            if (!(entry.getValue() instanceof Float)) continue;
+            float value = (Float) entry.getValue();
+
+            // pos_x_ must be tested before its prefix pos_
+            int slot;
+            String uri;
+            if (key.startsWith(LEGACY_X)) {
+                slot = 0;
+                uri = key.substring(LEGACY_X.length());
+            } else if (key.startsWith(LEGACY_Y)) {
+                slot = 1;
+                uri = key.substring(LEGACY_Y.length());
+            } else if (key.startsWith(LEGACY_SCALE)) {
+                slot = 2;
+                uri = key.substring(LEGACY_SCALE.length());
+            } else {
+                continue;
+            }
+            float[] values = byUri.get(uri);
+            if (values == null) {
+                values = new float[3];
+                byUri.put(uri, values);
+            }
+            values[slot] = value;
+            consumed.add(key);
+        }
+
+        for (Map.Entry<String, float[]> entry : byUri.entrySet()) {
+            float[] v = entry.getValue();
+            // Legacy entries didn't record the bitmap size
+            states.put(hash(entry.getKey()), new State(v[0], v[1], v[2], 0));
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            lastError = e;
+        }
+        return consumed;
+    }
+
+    public void close() {
+        closeChannel();
+    }
+
+    private void load() {
+        if (!file.isFile()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 16 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return;
+            while (true) {
+                long key;
+                State state;
+                try {
+                    key = in.readLong();
+                    state = new State(in.readFloat(), in.readFloat(), in.readFloat(), in.readInt());
+                } catch (EOFException e) {
+                    // End of log, or a torn final record
+                    break;
+                }
+                // Re-insert so log order becomes access order
+                states.remove(key);
+                states.put(key, state);
+                recordsInLog++;
+            }
+        } catch (IOException e) {
+            lastError = e;
+        }
+    }
+
+    private void append(long key, float x, float y, float scale, int imageWidth) throws IOException {
+        if (channel == null) {
+            // Missing, or ends in a torn record: appending would misalign everything after it
+            if (file.length() != HEADER_SIZE + (long) recordsInLog * RECORD_SIZE) {
+                compact();
+                return;
+            }
+            channel = new FileOutputStream(file, true).getChannel();
+        }
+        record.clear();
+        record.putLong(key).putFloat(x).putFloat(y).putFloat(scale).putInt(imageWidth);
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        recordsInLog++;
+    }
+
+    /** Rewrite the log with only the live entries, eldest first. */
+    private void compact() throws IOException {
+        closeChannel();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 16 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<Long, State> entry : states.entrySet()) {
+                State s = entry.getValue();
+                out.writeLong(entry.getKey());
+                out.writeFloat(s.x);
+                out.writeFloat(s.y);
+                out.writeFloat(s.scale);
+                out.writeInt(s.imageWidth);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+        recordsInLog = states.size();
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+
+    /** 64-bit FNV-1a over the UTF-16 chars; collisions are negligible at this size. */
+    public static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
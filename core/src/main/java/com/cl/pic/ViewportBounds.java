@@ -0,0 +1,75 @@
+package com.cl.pic;
+
+/**
+ * Where the image may sit on screen at a given scale.
+ *
+ * The content must be at least as wide as the viewport, and must not be
+ * panned so empty space shows; content shorter than the viewport is centred
+ * vertically. This is the clamp half of the viewport, kept free of
+ * android.graphics so it runs (and is benchmarked) on a plain JVM.
+ *
+ * Not thread-safe; no allocation.
+ */
+public final class ViewportBounds {
+
+    private float minX;
+    private float maxX;
+    private float minY;
+    private float maxY;
+
+    /**
+     * Recompute the translation bounds for content of {@code contentWidth} x
+     * {@code contentHeight} shown at {@code scale}.
+     *
+     * @return the scale the bounds were computed for: {@code scale}, or the
+     *         fit-width scale if the content would be narrower than the viewport
+     */
+    public float update(int viewportWidth, int viewportHeight, int contentWidth, int contentHeight, float scale) {
+        float displayW = contentWidth * scale;
+
+        // 1. Min Scale Check: Width cannot be less than screen width
+        if (displayW < viewportWidth) {
+            scale = viewportWidth / (float) contentWidth;
+            displayW = contentWidth * scale;
+        }
+        float displayH = contentHeight * scale;
+
+        // 2. Pan Bounds Check
+        minX = displayW <= viewportWidth ? 0 : viewportWidth - displayW;
+        maxX = 0;
+        if (displayH <= viewportHeight) {
+            // Center vertically
+            minY = (viewportHeight - displayH) / 2f;
+            maxY = minY;
+        } else {
+            minY = viewportHeight - displayH;
+            maxY = 0;
+        }
+        return scale;
+    }
+
+    /** {@code x} moved into the bounds from the last {@link #update}. */
+    public float clampX(float x) {
+        return Math.max(minX, Math.min(x, maxX));
+    }
+
+    public float clampY(float y) {
+        return Math.max(minY, Math.min(y, maxY));
+    }
+
+    public float getMinX() {
+        return minX;
+    }
+
+    public float getMaxX() {
+        return maxX;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+    public float getMaxY() {
+        return maxY;
+    }
+}
@@ -0,0 +1,159 @@
+package com.cl.pic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContentDeduplicatorTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+    private final AtomicInteger opens = new AtomicInteger();
+    private final ContentDeduplicator.Opener opener = uri -> {
+        opens.incrementAndGet();
+        return ContentDeduplicator.openFile(new File(uri));
+    };
+    private final ContentHashIndex index = ContentHashIndex.empty();
+    private List<String> paths;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] photo = bytes(1, 100_000);
+        paths = Arrays.asList(
+                write("DCIM/a.jpg", photo),
+                write("DCIM/b.jpg", bytes(2, 100_000)),
+                write("Download/a copy.jpg", photo),
+                write("Pictures/c.jpg", bytes(3, 5_000)));
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void dropsCopiesUnderOtherNames() throws InterruptedException {
+        List<String> unique = dedup().filter(paths, null);
+
+        assertEquals(Arrays.asList(paths.get(0), paths.get(1), paths.get(3)), unique);
+    }
+
+    @Test
+    public void listedSizeAndMtimeSkipOpeningUnchangedFiles() throws InterruptedException {
+        dedup().filter(paths, sizes(), mtimes(), null);
+        opens.set(0);
+
+        ContentDeduplicator again = dedup();
+        List<String> unique = again.filter(paths, sizes(), mtimes(), null);
+
+        assertEquals(3, unique.size());
+        assertEquals(0, opens.get());
+        assertTrue(again.toString(), again.toString().contains("(4 cached)"));
+    }
+
+    @Test
+    public void statSkipsOpeningUnchangedFiles() throws InterruptedException {
+        dedup().filter(paths, null);
+        opens.set(0);
+
+        ContentDeduplicator again = dedup().setStat(uri -> {
+            File file = new File(uri);
+            return new long[] {file.length(), file.lastModified()};
+        });
+
+        assertEquals(3, again.filter(paths, null).size());
+        assertEquals(0, opens.get());
+    }
+
+    @Test
+    public void withoutMetadataEveryFileIsOpened() throws InterruptedException {
+        dedup().filter(paths, null);
+        opens.set(0);
+
+        ContentDeduplicator again = dedup();
+        again.filter(paths, null);
+
+        assertEquals(paths.size(), opens.get());
+        assertTrue(again.toString(), again.toString().contains("(4 cached)"));
+    }
+
+    @Test
+    public void changedFileIsHashedAgain() throws IOException, InterruptedException {
+        dedup().filter(paths, sizes(), mtimes(), null);
+        // The copy is replaced by a different image
+        File copy = new File(paths.get(2));
+        Files.write(copy.toPath(), bytes(4, 100_000));
+        assertTrue(copy.setLastModified(copy.lastModified() + 2_000));
+        opens.set(0);
+
+        List<String> unique = dedup().filter(paths, sizes(), mtimes(), null);
+
+        assertEquals(paths, unique);
+        assertEquals(1, opens.get());
+    }
+
+    @Test
+    public void staleListingFallsBackToTheOpenedFile() throws InterruptedException {
+        dedup().filter(paths, null);
+        opens.set(0);
+        long[] sizes = sizes();
+        sizes[1]++;
+
+        ContentDeduplicator again = dedup();
+        again.filter(paths, sizes, mtimes(), null);
+
+        // Only the misreported file is opened, and its entry is still good
+        assertEquals(1, opens.get());
+        assertTrue(again.toString(), again.toString().contains("(4 cached)"));
+    }
+
+    private ContentDeduplicator dedup() {
+        return new ContentDeduplicator(index, opener, null, pool);
+    }
+
+    private long[] sizes() {
+        long[] sizes = new long[paths.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new File(paths.get(i)).length();
+        }
+        return sizes;
+    }
+
+    private long[] mtimes() {
+        long[] mtimes = new long[paths.size()];
+        for (int i = 0; i < mtimes.length; i++) {
+            mtimes[i] = new File(paths.get(i)).lastModified();
+        }
+        return mtimes;
+    }
+
+    private String write(String name, byte[] content) throws IOException {
+        File file = new File(temp.getRoot(), name);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content);
+        return file.getPath();
+    }
+
+    private static byte[] bytes(long seed, int size) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
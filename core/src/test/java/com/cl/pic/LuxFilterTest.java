@@ -0,0 +1,155 @@
+package com.cl.pic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays lux traces through the filter with the settings the app uses:
+ * dark below 30 lux, bright above 150, a 3 s average and a 15 s dwell,
+ * sampled once a second like the sensor is asked to.
+ */
+public class LuxFilterTest {
+
+    private static final long PERIOD_MS = 1_000;
+
+    private LuxFilter filter;
+    private int switches;
+
+    @Before
+    public void setUp() {
+        filter = new LuxFilter(30f, 150f, 3_000, 15_000);
+        switches = 0;
+    }
+
+    @Test
+    public void firstReadingDecidesStraightAway() {
+        assertTrue(filter.update(0, 5f));
+        assertTrue(filter.isDark());
+
+        filter.reset();
+        assertTrue(filter.update(0, 500f));
+        assertFalse(filter.isDark());
+    }
+
+    @Test
+    public void holdsInsideTheHysteresisBand() {
+        feed(0, 60_000, 500f);
+        assertFalse(filter.isDark());
+
+        // Dusk: well below bright, not yet dark
+        assertEquals(-1, feed(60_000, 180_000, 60f));
+        assertFalse(filter.isDark());
+
+        assertTrue(feed(180_000, 240_000, 10f) > 0);
+        assertTrue(filter.isDark());
+
+        // Back into the band from below keeps it dark
+        assertEquals(-1, feed(240_000, 360_000, 60f));
+        assertTrue(filter.isDark());
+
+        assertTrue(feed(360_000, 420_000, 400f) > 0);
+        assertFalse(filter.isDark());
+        // The first reading counts as a change too
+        assertEquals(3, switches);
+    }
+
+    @Test
+    public void flickerAcrossBothThresholdsDoesNotToggle() {
+        feed(0, 60_000, 500f);
+        // Tree shadows: alternating 20 and 200 lux, each past its threshold
+        for (long t = 60_000; t < 360_000; t += PERIOD_MS) {
+            sample(t, (t / PERIOD_MS) % 2 == 0 ? 20f : 200f);
+        }
+        assertFalse(filter.isDark());
+        assertEquals(1, switches);
+    }
+
+    @Test
+    public void stepIntoTunnelSwitchesWithinAboutOneTimeConstant() {
+        feed(0, 60_000, 500f);
+        long switchedAt = feed(60_000, 90_000, 5f);
+
+        assertTrue(filter.isDark());
+        long latency = switchedAt - 60_000;
+        assertTrue("latency " + latency, latency >= 2_000 && latency <= 4_000);
+    }
+
+    @Test
+    public void dwellDelaysASwitchBackRightAfterAnother() {
+        feed(0, 60_000, 500f);
+        // A short tunnel: dark after about 3 s, out again a second later
+        long dark = feed(60_000, 64_000, 5f);
+        assertTrue(dark > 0);
+
+        // The average is bright again within seconds, but the dark decision
+        // has to be kept for the dwell
+        long bright = feed(64_000, 120_000, 500f);
+        assertEquals(dark + 15_000, bright);
+        assertFalse(filter.isDark());
+    }
+
+    @Test
+    public void ignoresInvalidReadingsDuringDropout() {
+        feed(0, 60_000, 500f);
+        float smoothed = filter.getSmoothedLux();
+
+        for (long t = 60_000; t < 120_000; t += PERIOD_MS) {
+            assertFalse(filter.update(t, Float.NaN));
+            assertFalse(filter.update(t, -1f));
+        }
+        assertFalse(filter.isDark());
+        assertEquals(smoothed, filter.getSmoothedLux(), 0f);
+
+        // Sensor back at the same level: nothing to do
+        assertEquals(-1, feed(120_000, 180_000, 500f));
+        assertFalse(filter.isDark());
+    }
+
+    @Test
+    public void silentSensorKeepsTheLastDecision() {
+        feed(0, 60_000, 5f);
+        assertTrue(filter.isDark());
+
+        // No events for ten minutes, then the same darkness again
+        assertEquals(-1, feed(660_000, 720_000, 5f));
+        assertTrue(filter.isDark());
+        assertEquals(1, switches);
+    }
+
+    @Test
+    public void ignoresRepeatedAndOutOfOrderTimestamps() {
+        feed(0, 60_000, 500f);
+        float smoothed = filter.getSmoothedLux();
+
+        // A batch replayed after a sensor reconnect
+        assertFalse(filter.update(59_000, 0f));
+        assertFalse(filter.update(30_000, 0f));
+        assertEquals(smoothed, filter.getSmoothedLux(), 0f);
+        assertFalse(filter.isDark());
+    }
+
+    /**
+     * One reading per period over [fromMs, toMs).
+     *
+     * @return when the decision first changed, or -1
+     */
+    private long feed(long fromMs, long toMs, float lux) {
+        long first = -1;
+        for (long t = fromMs; t < toMs; t += PERIOD_MS) {
+            if (sample(t, lux) && first < 0) {
+                first = t;
+            }
+        }
+        return first;
+    }
+
+    private boolean sample(long timeMs, float lux) {
+        boolean changed = filter.update(timeMs, lux);
+        if (changed) switches++;
+        return changed;
+    }
+}
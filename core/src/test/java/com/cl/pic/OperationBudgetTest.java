@@ -0,0 +1,80 @@
+package com.cl.pic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OperationBudgetTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final OperationBudget budget = new OperationBudget("op", 16f, 100, 0);
+
+    @Test
+    public void callWithinEveryLimitPasses() {
+        budget.begin(0, 1_000, 10, 5);
+        assertNull(budget.end(16 * MS, 1_100, 10, 5));
+        assertEquals(1, budget.calls());
+        assertEquals(0, budget.overBudget());
+    }
+
+    @Test
+    public void eachLimitFailsOnItsOwn() {
+        budget.begin(0, 0, 0, 0);
+        assertNotNull(budget.end(16 * MS + 1, 0, 0, 0));
+
+        budget.begin(0, 0, 0, 0);
+        assertNotNull(budget.end(0, 101, 0, 0));
+
+        budget.begin(0, 0, 0, 0);
+        String over = budget.end(0, 0, 0, 1);
+        assertNotNull(over);
+        assertTrue(over, over.contains("prefsWrites=1/0"));
+
+        assertEquals(3, budget.calls());
+        assertEquals(3, budget.overBudget());
+        assertEquals(16 * MS + 1, budget.worstNanos());
+        assertEquals(1, budget.worstPrefsWrites());
+    }
+
+    @Test
+    public void prefsChangesAreReportedButNotLimited() {
+        // Three puts that the write-behind front folds into a later write
+        budget.begin(0, 0, 7, 2);
+        assertNull(budget.end(MS, 0, 10, 2));
+        assertTrue(budget.toString(), budget.toString().contains("worstPrefsChanges=3"));
+    }
+
+    @Test
+    public void nestedCallsAreMeasuredAsOne() {
+        budget.begin(0, 0, 0, 0);
+        budget.begin(5 * MS, 50, 0, 0);
+        assertNull(budget.end(6 * MS, 60, 0, 0));
+        // Outer end spans both: 20 ms, over the time limit
+        assertNotNull(budget.end(20 * MS, 90, 0, 0));
+        assertEquals(1, budget.calls());
+        assertEquals(1, budget.overBudget());
+    }
+
+    @Test
+    public void unmatchedEndIsIgnored() {
+        assertNull(budget.end(100 * MS, 1_000, 0, 9));
+        assertEquals(0, budget.calls());
+    }
+
+    @Test
+    public void resetForgetsWarmUpCalls() {
+        budget.begin(0, 0, 0, 0);
+        budget.end(100 * MS, 0, 0, 0);
+        budget.reset();
+        assertEquals(0, budget.calls());
+        assertEquals(0, budget.overBudget());
+
+        budget.begin(0, 0, 0, 0);
+        assertNull(budget.end(MS, 0, 0, 0));
+        assertEquals(1, budget.calls());
+    }
+}
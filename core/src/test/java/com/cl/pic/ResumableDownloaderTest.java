@@ -0,0 +1,340 @@
+package com.cl.pic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives the downloader against a local server that can cut a response off
+ * mid-body, ignore Range, leave out Content-Length, trickle the body out, or
+ * change the resource between attempts.
+ */
+public class ResumableDownloaderTest {
+
+    private static final int SIZE = 1024 * 1024;
+    private static final int CHUNK = 16 * 1024;
+    // A whole number of chunks, so the client ends up with exactly this much
+    private static final int DROP_AT = 20 * CHUNK;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private HttpServer server;
+    private String url;
+    private ResumableDownloader downloader;
+
+    // What the server serves; changed by tests between attempts
+    private volatile byte[] body = bytes(1);
+    private volatile String etag = "\"v1\"";
+    private volatile boolean honourRange = true;
+    // Chunked, with no Content-Length and a Content-Range of unknown total
+    private volatile boolean unknownLength;
+    // Pause after each chunk, like a weak link
+    private volatile long throttleMs;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    // Per request, bytes of body to send before dropping the connection; empty sends it all
+    private final ConcurrentLinkedQueue<Integer> drops = new ConcurrentLinkedQueue<>();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+
+    private static final class Request {
+        final String range;
+        final String ifRange;
+
+        Request(String range, String ifRange) {
+            this.range = range;
+            this.ifRange = ifRange;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::serve);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/image.jpg";
+        downloader = new ResumableDownloader(temp.newFolder("cache"), 2, 64L * 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void resumesWithRangeAfterMidBodyDrop() throws IOException {
+        drops.add(DROP_AT);
+
+        File file = downloader.download(url, new CancellationToken(), null);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(2, requests.size());
+        assertNull(requests.get(0).range);
+        assertEquals("bytes=" + DROP_AT + "-", requests.get(1).range);
+        assertEquals("\"v1\"", requests.get(1).ifRange);
+        assertTrue(downloader.toString(), downloader.toString().contains("resumes=1"));
+        assertTrue(downloader.toString(), downloader.toString().contains("restarts=0"));
+    }
+
+    @Test
+    public void restartsWhenServerAnswers200InsteadOf206() throws IOException {
+        honourRange = false;
+        drops.add(DROP_AT);
+
+        File file = downloader.download(url, new CancellationToken(), null);
+
+        // The whole body once, not the dropped prefix with the full body appended
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(2, requests.size());
+        assertEquals("bytes=" + DROP_AT + "-", requests.get(1).range);
+        assertTrue(downloader.toString(), downloader.toString().contains("restarts=1"));
+        assertTrue(downloader.toString(), downloader.toString().contains("resumes=0"));
+    }
+
+    @Test
+    public void restartsWhenTheValidatorNoLongerMatches() throws IOException {
+        byte[] updated = bytes(2);
+        drops.add(DROP_AT);
+        // The image is replaced just before the first attempt is cut off
+        File file = downloader.download(url, new CancellationToken(), (partial, bytes, total) -> {
+            if (bytes >= DROP_AT - CHUNK) {
+                body = updated;
+                etag = "\"v2\"";
+            }
+        });
+
+        assertArrayEquals(updated, Files.readAllBytes(file.toPath()));
+        assertEquals(2, requests.size());
+        // Asked for the rest of v1, got all of v2
+        assertEquals("\"v1\"", requests.get(1).ifRange);
+        assertTrue(downloader.toString(), downloader.toString().contains("restarts=1"));
+    }
+
+    @Test
+    public void startsOverWithoutAValidator() throws IOException {
+        etag = null;
+        drops.add(DROP_AT);
+
+        File file = downloader.download(url, new CancellationToken(), null);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(2, requests.size());
+        // A partial file with nothing to check it against is not resumed
+        assertNull(requests.get(1).range);
+    }
+
+    @Test
+    public void weakEtagIsNotUsedToResume() throws IOException {
+        etag = "W/\"v1\"";
+        drops.add(DROP_AT);
+
+        File file = downloader.download(url, new CancellationToken(), null);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertNull(requests.get(1).range);
+    }
+
+    @Test
+    public void cancelledDownloadIsResumedByTheNextCall() throws IOException {
+        CancellationToken token = new CancellationToken();
+        try {
+            downloader.download(url, token, (partial, bytes, total) -> {
+                if (bytes >= DROP_AT) token.cancel();
+            });
+            fail("Expected cancellation");
+        } catch (InterruptedIOException expected) {
+            // Partial file kept
+        }
+        assertNull(downloader.cached(url));
+
+        File file = downloader.download(url, new CancellationToken(), null);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(1).range, requests.get(1).range.startsWith("bytes="));
+        assertEquals("\"v1\"", requests.get(1).ifRange);
+    }
+
+    @Test
+    public void finishedDownloadIsServedFromDisk() throws IOException {
+        downloader.download(url, new CancellationToken(), null);
+        File file = downloader.download(url, new CancellationToken(), null);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(1, requests.size());
+        assertTrue(downloader.toString(), downloader.toString().contains("cacheHits=1"));
+    }
+
+    @Test
+    public void droppedBodyOfUnknownLengthIsNotPromoted() throws IOException {
+        unknownLength = true;
+        drops.add(DROP_AT);
+
+        File file = downloader.download(url, new CancellationToken(), (partial, bytes, total) -> {
+            assertEquals(-1, total);
+        });
+
+        // The cut-off first response was retried, not renamed into the cache
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(2, requests.size());
+        assertEquals("bytes=" + DROP_AT + "-", requests.get(1).range);
+        assertTrue(downloader.toString(), downloader.toString().contains("resumes=1"));
+    }
+
+    @Test
+    public void unknownLengthBodyThatEndsCleanlyIsCached() throws IOException {
+        unknownLength = true;
+
+        File file = downloader.download(url, new CancellationToken(), null);
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void slowLinkDeliversInOrderWithProgress() throws IOException {
+        throttleMs = 5;
+        drops.add(DROP_AT);
+        AtomicLong last = new AtomicLong();
+        AtomicInteger calls = new AtomicInteger();
+
+        File file = downloader.download(url, new CancellationToken(), (partial, bytes, total) -> {
+            assertTrue(bytes + " after " + last.get(), bytes > last.get());
+            last.set(bytes);
+            calls.incrementAndGet();
+        });
+
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(SIZE, last.get());
+        // At least one report per chunk the server trickled out
+        assertTrue("progress calls " + calls.get(), calls.get() >= SIZE / CHUNK);
+        assertTrue(downloader.toString(), downloader.toString().contains("resumes=1"));
+    }
+
+    @Test
+    public void concurrentDownloadsAreCappedAtTheServer() throws Exception {
+        throttleMs = 2;
+        int count = 6;
+        ExecutorService callers = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<File>> files = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String each = url + "?n=" + i;
+                files.add(callers.submit(() -> downloader.download(each, new CancellationToken(), null)));
+            }
+            for (Future<File> future : files) {
+                assertArrayEquals(body, Files.readAllBytes(future.get(60, TimeUnit.SECONDS).toPath()));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertEquals(count, requests.size());
+        // The downloader was built with two slots; both were used
+        assertEquals(2, peakInFlight.get());
+    }
+
+    @Test
+    public void parsesContentRange() {
+        assertArrayEquals(new long[] {100, 1000}, ResumableDownloader.parseContentRange("bytes 100-999/1000"));
+        assertArrayEquals(new long[] {0, -1}, ResumableDownloader.parseContentRange("bytes 0-99/*"));
+        assertNull(ResumableDownloader.parseContentRange("bytes */1000"));
+        assertNull(ResumableDownloader.parseContentRange("items 0-1/2"));
+        assertNull(ResumableDownloader.parseContentRange(null));
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        boolean counted = true;
+        boolean dropped = false;
+        try {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            requests.add(new Request(range, ifRange));
+            byte[] content = body;
+            String tag = etag;
+            if (tag != null) {
+                exchange.getResponseHeaders().add("ETag", tag);
+            }
+
+            int start = 0;
+            if (honourRange && range != null && tag != null && tag.equals(ifRange)) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                exchange.getResponseHeaders().add("Content-Range",
+                        "bytes " + start + "-" + (content.length - 1) + "/" + (unknownLength ? "*" : content.length));
+                exchange.sendResponseHeaders(206, unknownLength ? 0 : content.length - start);
+            } else {
+                exchange.sendResponseHeaders(200, unknownLength ? 0 : content.length);
+            }
+
+            Integer dropAfter = drops.poll();
+            OutputStream out = exchange.getResponseBody();
+            int sent = 0;
+            for (int pos = start; pos < content.length; pos += CHUNK) {
+                int length = Math.min(CHUNK, content.length - pos);
+                if (pos + length == content.length) {
+                    // The client may start its next request as soon as it has the last byte
+                    inFlight.decrementAndGet();
+                    counted = false;
+                }
+                out.write(content, pos, length);
+                out.flush();
+                sent += length;
+                if (dropAfter != null && sent >= dropAfter && pos + length < content.length) {
+                    // Throwing makes the server drop the connection; close() would end a chunked body cleanly
+                    dropped = true;
+                    throw new IOException("Dropped at " + sent);
+                }
+                if (throttleMs > 0) {
+                    Thread.sleep(throttleMs);
+                }
+            }
+            out.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (counted) {
+                inFlight.decrementAndGet();
+            }
+            if (!dropped) {
+                exchange.close();
+            }
+        }
+    }
+
+    private static byte[] bytes(long seed) {
+        byte[] bytes = new byte[SIZE];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,89 @@
+package com.cl.pic;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ShuffleOrderTest {
+
+    @Test
+    public void emptyPlaylistHasNoNext() {
+        ShuffleOrder shuffle = new ShuffleOrder(new Random(1));
+        assertEquals(-1, shuffle.next(0));
+    }
+
+    @Test
+    public void everyPassIsAPermutation() {
+        ShuffleOrder shuffle = new ShuffleOrder(new Random(1));
+        for (int size : new int[] {1, 2, 3, 10, 257}) {
+            shuffle.reset();
+            for (int pass = 0; pass < 20; pass++) {
+                int[] seen = pass(shuffle, size);
+                Arrays.sort(seen);
+                for (int i = 0; i < size; i++) {
+                    assertEquals("size " + size + " pass " + pass, i, seen[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void passesReachEveryOrder() {
+        ShuffleOrder shuffle = new ShuffleOrder(new Random(2));
+        Set<String> orders = new HashSet<>();
+        for (int pass = 0; pass < 5_000; pass++) {
+            orders.add(Arrays.toString(pass(shuffle, 4)));
+        }
+        // 4! orders; the no-repeat rule only forbids some of them per pass
+        assertEquals(24, orders.size());
+    }
+
+    @Test
+    public void noRepeatAcrossReshuffles() {
+        for (int size = 2; size <= 6; size++) {
+            ShuffleOrder shuffle = new ShuffleOrder(new Random(size));
+            int previous = -1;
+            for (int i = 0; i < 10_000; i++) {
+                int index = shuffle.next(size);
+                assertNotEquals("size " + size + " step " + i, previous, index);
+                previous = index;
+            }
+        }
+    }
+
+    @Test
+    public void sizeChangeStartsAPassOverTheNewRange() {
+        ShuffleOrder shuffle = new ShuffleOrder(new Random(3));
+        shuffle.next(5);
+        shuffle.next(5);
+        int[] seen = pass(shuffle, 8);
+        Arrays.sort(seen);
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5, 6, 7}, seen);
+    }
+
+    @Test
+    public void resetForgetsWhereItWas() {
+        ShuffleOrder shuffle = new ShuffleOrder(new Random(6));
+        shuffle.next(5);
+        shuffle.next(5);
+        shuffle.reset();
+        int[] seen = pass(shuffle, 5);
+        Arrays.sort(seen);
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, seen);
+    }
+
+    private static int[] pass(ShuffleOrder shuffle, int size) {
+        int[] seen = new int[size];
+        for (int i = 0; i < size; i++) {
+            seen[i] = shuffle.next(size);
+        }
+        return seen;
+    }
+}